@@ -47,6 +47,13 @@ android {
         compose = true
         buildConfig = true
     }
+
+    testOptions {
+        // Microbenchmarks in the unit tests only run with -Pbenchmark
+        unitTests.all {
+            it.systemProperty("openpaw.benchmark", project.hasProperty("benchmark").toString())
+        }
+    }
 }
 
 dependencies {
@@ -90,4 +97,7 @@ dependencies {
 
     // Permissions
     implementation(libs.accompanist.permissions)
+
+    // Tests (JVM)
+    testImplementation(libs.junit)
 }
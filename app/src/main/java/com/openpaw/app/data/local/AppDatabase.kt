@@ -3,16 +3,45 @@ package com.openpaw.app.data.local
 import androidx.room.Database
 import androidx.room.RoomDatabase
 import androidx.room.TypeConverters
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.openpaw.app.data.model.ConversationTurn
 import com.openpaw.app.data.model.Memory
 import com.openpaw.app.data.model.Message
 
 @Database(
-    entities = [Message::class, Memory::class],
-    version = 1,
+    entities = [Message::class, Memory::class, ConversationTurn::class],
+    version = 2,
     exportSchema = false
 )
 @TypeConverters(Converters::class)
 abstract class AppDatabase : RoomDatabase() {
     abstract fun messageDao(): MessageDao
     abstract fun memoryDao(): MemoryDao
+    abstract fun conversationTurnDao(): ConversationTurnDao
+
+    companion object {
+        /** v2: structured agent steps (conversation_turns). Keeps existing chats and memories. */
+        val MIGRATION_1_2 = object : Migration(1, 2) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    """
+                    CREATE TABLE IF NOT EXISTS `conversation_turns` (
+                        `id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+                        `sessionId` TEXT NOT NULL,
+                        `userMessageId` INTEGER NOT NULL,
+                        `stepIndex` INTEGER NOT NULL,
+                        `text` TEXT,
+                        `toolCallsJson` TEXT NOT NULL,
+                        `toolResultsJson` TEXT NOT NULL,
+                        `timestamp` INTEGER NOT NULL
+                    )
+                    """.trimIndent()
+                )
+                db.execSQL(
+                    "CREATE INDEX IF NOT EXISTS `index_conversation_turns_sessionId` ON `conversation_turns` (`sessionId`)"
+                )
+            }
+        }
+    }
 }
@@ -0,0 +1,17 @@
+package com.openpaw.app.data.local
+
+import androidx.room.*
+import com.openpaw.app.data.model.ConversationTurn
+
+@Dao
+interface ConversationTurnDao {
+
+    @Query("SELECT * FROM conversation_turns WHERE sessionId = :sessionId ORDER BY userMessageId ASC, stepIndex ASC")
+    suspend fun getTurnsForSession(sessionId: String): List<ConversationTurn>
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun insert(turn: ConversationTurn): Long
+
+    @Query("DELETE FROM conversation_turns WHERE sessionId = :sessionId")
+    suspend fun deleteSession(sessionId: String)
+}
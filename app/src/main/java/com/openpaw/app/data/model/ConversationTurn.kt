@@ -0,0 +1,27 @@
+package com.openpaw.app.data.model
+
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
+
+/**
+ * One completed agent step (LLM turn + executed tool calls) in provider-neutral form.
+ *
+ * Linked to the USER [Message] that started the run, so follow-up messages can replay the
+ * tool calls and results instead of only seeing the flattened chat text.
+ */
+@Entity(tableName = "conversation_turns", indices = [Index("sessionId")])
+data class ConversationTurn(
+    @PrimaryKey(autoGenerate = true)
+    val id: Long = 0,
+    val sessionId: String,
+    val userMessageId: Long,
+    val stepIndex: Int,
+    /** Free text the model produced alongside its tool calls (may be null). */
+    val text: String?,
+    /** JSON array of ToolCallRequest: [{ id, toolName, input }] */
+    val toolCallsJson: String,
+    /** JSON array of ToolResultEntry: [{ toolCallId, toolName, content, isError }] */
+    val toolResultsJson: String,
+    val timestamp: Long = System.currentTimeMillis()
+)
@@ -2,9 +2,11 @@ package com.openpaw.app.data.remote
 
 import com.openpaw.app.data.remote.dto.AnthropicRequest
 import com.openpaw.app.data.remote.dto.AnthropicResponse
+import okhttp3.ResponseBody
 import retrofit2.http.Body
 import retrofit2.http.Header
 import retrofit2.http.POST
+import retrofit2.http.Streaming
 
 interface AnthropicApiService {
 
@@ -14,4 +16,16 @@ interface AnthropicApiService {
         @Header("anthropic-version") version: String = "2023-06-01",
         @Body request: AnthropicRequest
     ): AnthropicResponse
+
+    /**
+     * Same endpoint with `stream=true`. Returns as soon as the headers arrive;
+     * the body is an SSE stream that must be read incrementally and closed by the caller.
+     */
+    @Streaming
+    @POST("v1/messages")
+    suspend fun streamMessage(
+        @Header("x-api-key") apiKey: String,
+        @Header("anthropic-version") version: String = "2023-06-01",
+        @Body request: AnthropicRequest
+    ): ResponseBody
 }
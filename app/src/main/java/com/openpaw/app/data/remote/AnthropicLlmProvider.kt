@@ -1,10 +1,21 @@
 package com.openpaw.app.data.remote
 
-import com.openpaw.app.data.remote.dto.ApiMessage
+import android.os.SystemClock
+import com.google.gson.stream.JsonWriter
 import com.openpaw.app.data.remote.dto.ApiTool
 import com.openpaw.app.data.remote.dto.AnthropicRequest
+import com.openpaw.app.data.remote.dto.AnthropicStreamEvent
+import com.openpaw.app.data.remote.dto.CacheControl
+import com.openpaw.app.data.remote.dto.ContentBlock
+import com.openpaw.app.data.remote.dto.SystemBlock
+import com.openpaw.app.data.remote.dto.Usage
 import com.openpaw.app.data.repository.SettingsRepository
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
+import java.io.IOException
 import javax.inject.Inject
 import javax.inject.Singleton
 
@@ -12,30 +23,42 @@ import javax.inject.Singleton
  * LlmProvider implementation backed by Anthropic's Claude API.
  * The API key and model are read from SettingsRepository at call time,
  * so changing them in Settings takes effect immediately.
+ *
+ * [ModelTier.FAST] uses the configured model, [ModelTier.STRONG] the escalation model.
+ * Prompt caches are per model, so each tier keeps its own warm prefix.
  */
 @Singleton
 class AnthropicLlmProvider @Inject constructor(
     private val apiService: AnthropicApiService,
-    private val settingsRepository: SettingsRepository
+    private val settingsRepository: SettingsRepository,
+    private val rateLimiter: LlmRateLimiter
 ) : LlmProvider {
 
     override val name = "Anthropic Claude"
 
+    /** Last encoded tool list – the tool set rarely changes between calls. */
+    @Volatile private var toolsCache: Pair<List<ApiTool>, RawJson>? = null
+
     override suspend fun complete(
-        messages: List<ApiMessage>,
+        messages: List<ChatMessage>,
         systemPrompt: String,
-        tools: List<ApiTool>
+        tools: List<ApiTool>,
+        systemContext: String,
+        sessionId: String?,
+        modelTier: ModelTier
     ): LlmResponse {
         val apiKey = settingsRepository.apiKey.first()
-        val model = settingsRepository.llmModel.first()
+        val model = modelFor(modelTier)
+        rateLimiter.acquire(HOST, LlmRateLimiter.estimateTokens(messages, systemPrompt, systemContext))
+        val startedAt = SystemClock.elapsedRealtime()
 
         val response = apiService.sendMessage(
             apiKey = apiKey,
             request = AnthropicRequest(
                 model = model,
-                system = systemPrompt,
-                messages = messages,
-                tools = tools.ifEmpty { null }
+                system = systemBlocks(systemPrompt, systemContext),
+                messages = encode(messages),
+                tools = encodeTools(tools)
             )
         )
 
@@ -60,39 +83,263 @@ class AnthropicLlmProvider @Inject constructor(
             textContent = textContent,
             toolCalls = toolCalls,
             stopReason = response.stopReason,
-            rawProviderData = response.content   // List<ContentBlock> – needed for continuation
+            usage = response.usage.toLlmUsage(),
+            durationMs = SystemClock.elapsedRealtime() - startedAt,
+            model = model
         )
     }
 
+    /** Model id serving [tier]. */
+    suspend fun modelFor(tier: ModelTier): String = when (tier) {
+        ModelTier.FAST   -> settingsRepository.llmModel.first()
+        ModelTier.STRONG -> settingsRepository.strongLlmModel.first()
+    }
+
     /**
-     * Anthropic continuation format:
+     * Streaming completion (`stream=true`).
      *
-     *   [assistant]  content = [text block(s) + tool_use block(s)]  ← original response
-     *   [user]       content = [{ type: "tool_result", tool_use_id, content }, ...]
+     * SSE events are parsed one by one on [Dispatchers.IO] as they arrive; text deltas are
+     * forwarded immediately and `input_json_delta` fragments are accumulated per content block,
+     * so each tool call is emitted the moment its `content_block_stop` arrives.
      */
-    override suspend fun buildContinuationMessages(
-        response: LlmResponse,
-        toolResults: List<ToolResultEntry>
-    ): List<ApiMessage> {
-        // 1. Reconstruct the assistant message with the original content blocks.
-        //    rawProviderData holds List<ContentBlock> from the response.
-        val rawContent: Any = response.rawProviderData
-            ?: response.toolCalls.map { tc ->
-                // Fallback: rebuild minimal tool_use blocks if raw data is missing
-                mapOf("type" to "tool_use", "id" to tc.id, "name" to tc.toolName, "input" to tc.input)
-            }
-        val assistantMsg = ApiMessage(role = "assistant", content = rawContent)
-
-        // 2. User message with one tool_result block per tool call.
-        val resultBlocks = toolResults.map { entry ->
-            mapOf(
-                "type"        to "tool_result",
-                "tool_use_id" to entry.toolCallId,
-                "content"     to entry.content
+    override fun stream(
+        messages: List<ChatMessage>,
+        systemPrompt: String,
+        tools: List<ApiTool>,
+        systemContext: String,
+        sessionId: String?,
+        modelTier: ModelTier
+    ): Flow<LlmStreamEvent> = flow {
+        val apiKey = settingsRepository.apiKey.first()
+        val model = modelFor(modelTier)
+        rateLimiter.acquire(HOST, LlmRateLimiter.estimateTokens(messages, systemPrompt, systemContext))
+        val startedAt = SystemClock.elapsedRealtime()
+
+        val body = apiService.streamMessage(
+            apiKey = apiKey,
+            request = AnthropicRequest(
+                model = model,
+                system = systemBlocks(systemPrompt, systemContext),
+                messages = encode(messages),
+                tools = encodeTools(tools),
+                stream = true
             )
+        )
+
+        val assembler = AnthropicStreamAssembler()
+        body.readCancellable { source ->
+            source.forEachSseEvent { _, data ->
+                val event = AnthropicJson.readStreamEvent(data)
+                assembler.accept(event, SystemClock.elapsedRealtime() - startedAt)
+                    .forEach { out -> emit(out) }
+            }
+        }
+
+        emit(LlmStreamEvent.Completed(assembler.build(SystemClock.elapsedRealtime() - startedAt).copy(model = model)))
+    }.flowOn(Dispatchers.IO)
+
+    // ── Prompt caching ────────────────────────────────────────────────────────
+    //
+    // Cache prefix order is tools → system → messages. Two breakpoints:
+    //   1. last tool          → tool schemas are cached on their own
+    //   2. stable system text → tools + static rules are cached together
+    // The volatile system context (memory, user profile) follows the second
+    // breakpoint, so editing a memory never invalidates the cached prefix.
+
+    private fun systemBlocks(systemPrompt: String, systemContext: String): List<SystemBlock> =
+        buildList {
+            if (systemPrompt.isNotBlank()) add(SystemBlock(text = systemPrompt, cacheControl = CacheControl()))
+            if (systemContext.isNotBlank()) add(SystemBlock(text = systemContext))
+        }
+
+    /** Tools with the breakpoint on the last one – encoded once per distinct tool list. */
+    private fun encodeTools(tools: List<ApiTool>): RawJson? {
+        if (tools.isEmpty()) return null
+        toolsCache?.let { (cachedFor, json) -> if (cachedFor == tools) return json }
+        return RawJson.write { AnthropicJson.writeTools(it, tools, cacheBreakpointOnLast = true) }
+            .also { toolsCache = tools to it }
+    }
+
+    // ── Message encoding ──────────────────────────────────────────────────────
+    //
+    //   [user]       content = "text"  or  [text | image | tool_result blocks]
+    //   [assistant]  content = [text block(s) + tool_use block(s)]
+
+    private fun encode(messages: List<ChatMessage>): List<RawJson> =
+        messages.flatMap { it.encoded(WIRE_FORMAT, ::encodeMessage) }
+
+    private fun encodeMessage(message: ChatMessage): List<RawJson> = listOf(RawJson.write { w ->
+        w.beginObject()
+        w.name("role").value(if (message.role == ChatMessage.Role.USER) "user" else "assistant")
+        w.name("content")
+        val single = message.parts.singleOrNull()
+        if (message.role == ChatMessage.Role.USER && single is ChatPart.Text) {
+            w.value(single.text)
+        } else {
+            w.beginArray()
+            message.parts.forEach { part -> writeBlock(w, part) }
+            w.endArray()
+        }
+        w.endObject()
+    })
+
+    private fun writeBlock(w: JsonWriter, part: ChatPart) {
+        w.beginObject()
+        when (part) {
+            is ChatPart.Text -> {
+                w.name("type").value("text")
+                w.name("text").value(part.text)
+            }
+            is ChatPart.ToolCall -> {
+                w.name("type").value("tool_use")
+                w.name("id").value(part.id)
+                w.name("name").value(part.name)
+                w.name("input")
+                JsonValues.write(w, part.input)
+            }
+            is ChatPart.ToolResult -> {
+                w.name("type").value("tool_result")
+                w.name("tool_use_id").value(part.toolCallId)
+                w.name("content").value(part.content)
+                if (part.isError) w.name("is_error").value(true)
+            }
+            is ChatPart.Image -> {
+                w.name("type").value("image")
+                w.name("source").beginObject()
+                w.name("type").value("base64")
+                w.name("media_type").value(part.mediaType)
+                w.name("data").value(part.base64Data)
+                w.endObject()
+            }
+        }
+        w.endObject()
+    }
+
+    companion object {
+        private const val WIRE_FORMAT = "anthropic"
+        internal const val HOST = "api.anthropic.com"
+    }
+}
+
+private fun Usage.toLlmUsage() = LlmUsage(
+    inputTokens         = inputTokens,
+    outputTokens        = outputTokens,
+    cacheReadTokens     = cacheReadInputTokens ?: 0,
+    cacheCreationTokens = cacheCreationInputTokens ?: 0
+)
+
+/**
+ * Incrementally rebuilds an Anthropic response from its SSE events.
+ *
+ * Content blocks are tracked by their stream index; tool inputs arrive as
+ * `input_json_delta` string fragments and are only parsed once the block is closed.
+ */
+private class AnthropicStreamAssembler {
+
+    private class Block(val type: String, val id: String?, val name: String?) {
+        val text = StringBuilder()
+        val json = StringBuilder()
+        var finished: ContentBlock? = null
+    }
+
+    private val blocks = sortedMapOf<Int, Block>()
+    private var stopReason: String? = null
+    private var usage = LlmUsage(inputTokens = 0, outputTokens = 0)
+    private var firstTokenMs: Long? = null
+
+    fun accept(event: AnthropicStreamEvent, elapsedMs: Long): List<LlmStreamEvent> {
+        when (event.type) {
+            "message_start" -> {
+                event.message?.usage?.let { usage = it.toLlmUsage() }
+            }
+            "content_block_start" -> {
+                val index = event.index ?: return emptyList()
+                val start = event.contentBlock ?: return emptyList()
+                blocks[index] = Block(start.type, start.id, start.name).apply {
+                    start.text?.let { text.append(it) }
+                }
+            }
+            "content_block_delta" -> {
+                val block = blocks[event.index ?: return emptyList()] ?: return emptyList()
+                val delta = event.delta ?: return emptyList()
+                if (firstTokenMs == null) firstTokenMs = elapsedMs
+                when (delta.type) {
+                    "text_delta" -> {
+                        val text = delta.text ?: return emptyList()
+                        block.text.append(text)
+                        return listOf(LlmStreamEvent.TextDelta(text))
+                    }
+                    "input_json_delta" -> block.json.append(delta.partialJson ?: "")
+                }
+            }
+            "content_block_stop" -> {
+                val block = blocks[event.index ?: return emptyList()] ?: return emptyList()
+                val finished = finish(block)
+                block.finished = finished
+                if (finished.type == "tool_use" && finished.name != null) {
+                    return listOf(
+                        LlmStreamEvent.ToolCallReady(
+                            ToolCallRequest(
+                                id = finished.id ?: "",
+                                toolName = finished.name,
+                                input = finished.input ?: emptyMap()
+                            )
+                        )
+                    )
+                }
+            }
+            "message_delta" -> {
+                event.delta?.stopReason?.let { stopReason = it }
+                event.usage?.let { usage = usage.copy(outputTokens = it.outputTokens) }
+            }
+            "error" -> {
+                val error = event.error
+                throw IOException("Anthropic stream error: ${error?.type}: ${error?.message}")
+            }
         }
-        val userMsg = ApiMessage(role = "user", content = resultBlocks)
+        return emptyList()
+    }
+
+    fun build(elapsedMs: Long): LlmResponse {
+        val content = blocks.values.map { it.finished ?: finish(it) }
+
+        val textContent = content
+            .filter { it.type == "text" }
+            .mapNotNull { it.text }
+            .joinToString("\n")
+            .ifBlank { null }
+
+        val toolCalls = content
+            .filter { it.type == "tool_use" }
+            .mapNotNull { block ->
+                val name = block.name ?: return@mapNotNull null
+                ToolCallRequest(id = block.id ?: "", toolName = name, input = block.input ?: emptyMap())
+            }
 
-        return listOf(assistantMsg, userMsg)
+        return LlmResponse(
+            textContent = textContent,
+            toolCalls = toolCalls,
+            stopReason = stopReason,
+            usage = usage,
+            timeToFirstTokenMs = firstTokenMs,
+            durationMs = elapsedMs
+        )
+    }
+
+    private fun finish(block: Block): ContentBlock = when (block.type) {
+        "tool_use" -> ContentBlock(
+            type = "tool_use",
+            text = null,
+            id = block.id,
+            name = block.name,
+            input = JsonValues.parseObject(block.json.toString())
+        )
+        else -> ContentBlock(
+            type = block.type,
+            text = block.text.toString(),
+            id = null,
+            name = null,
+            input = null
+        )
     }
 }
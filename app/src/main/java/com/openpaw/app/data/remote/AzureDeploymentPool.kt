@@ -0,0 +1,178 @@
+package com.openpaw.app.data.remote
+
+import android.os.SystemClock
+import android.util.Log
+import com.google.gson.stream.JsonReader
+import okhttp3.Headers
+import java.io.StringReader
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/** One endpoint/deployment/key entry of the Azure load-balancing pool. */
+data class AzureDeployment(
+    val endpoint: String,
+    val deployment: String,
+    val apiKey: String
+) {
+    val isComplete: Boolean
+        get() = endpoint.isNotBlank() && deployment.isNotBlank() && apiKey.isNotBlank()
+
+    /** Identity for routing statistics – the key is deliberately not part of it. */
+    internal val id: String get() = "${endpoint.trimEnd('/')}|$deployment"
+
+    companion object {
+        fun listToJson(deployments: List<AzureDeployment>): String = JsonValues.toJson(
+            deployments.map { mapOf("endpoint" to it.endpoint, "deployment" to it.deployment, "apiKey" to it.apiKey) }
+        )
+
+        /** Empty list on blank or malformed input. */
+        fun listFromJson(json: String?): List<AzureDeployment> {
+            if (json.isNullOrBlank()) return emptyList()
+            val values = try {
+                JsonReader(StringReader(json)).use { JsonValues.read(it) } as? List<*>
+            } catch (e: Exception) {
+                null
+            }
+            return values.orEmpty().mapNotNull { entry ->
+                val map = entry as? Map<*, *> ?: return@mapNotNull null
+                AzureDeployment(
+                    endpoint   = map["endpoint"] as? String ?: "",
+                    deployment = map["deployment"] as? String ?: "",
+                    apiKey     = map["apiKey"] as? String ?: ""
+                )
+            }
+        }
+    }
+}
+
+/**
+ * Routes Azure calls across several deployments so throughput scales with the number of
+ * provisioned TPM quotas.
+ *
+ * Per deployment it tracks an EWMA of the time until the response headers arrived, the
+ * number of calls in flight and the remaining quota reported in `x-ratelimit-remaining-*`.
+ * Each call goes to the deployment with the lowest expected wait:
+ *
+ *   score = latency × (1 + in-flight) × quota penalty
+ *
+ * A 429 takes the deployment out of rotation until its `retry-after` has passed. Deployments
+ * without samples yet are scored optimistically, so new entries get traffic quickly.
+ */
+@Singleton
+class AzureDeploymentPool @Inject constructor() {
+
+    internal class Stats {
+        @Volatile var ewmaLatencyMs: Double? = null
+        val inFlight = AtomicInteger()
+        @Volatile var remainingRequests: Long? = null
+        @Volatile var remainingTokens: Long? = null
+        @Volatile var quotaSeenAt = 0L
+        @Volatile var throttledUntil = 0L
+    }
+
+    private val stats = ConcurrentHashMap<String, Stats>()
+
+    /** One routed call. [release] must be called exactly once when the call is finished. */
+    inner class Lease internal constructor(
+        val deployment: AzureDeployment,
+        private val s: Stats
+    ) {
+        private var startedAt = SystemClock.elapsedRealtime()
+        private var released = false
+
+        /** The request goes out now – latency is measured from here, not from any pacing wait. */
+        fun onSend() {
+            startedAt = SystemClock.elapsedRealtime()
+        }
+
+        /** Record latency, quota headers and throttling from the HTTP response. */
+        fun onResponse(code: Int, headers: Headers) {
+            val now = SystemClock.elapsedRealtime()
+            val latency = (now - startedAt).toDouble()
+            s.ewmaLatencyMs = s.ewmaLatencyMs?.let { it + EWMA_ALPHA * (latency - it) } ?: latency
+
+            val requests = headers["x-ratelimit-remaining-requests"]?.trim()?.toLongOrNull()
+            val tokens = headers["x-ratelimit-remaining-tokens"]?.trim()?.toLongOrNull()
+            if (requests != null || tokens != null) {
+                s.remainingRequests = requests
+                s.remainingTokens = tokens
+                s.quotaSeenAt = now
+            }
+            if (code == 429) {
+                val wait = headers.retryAfterMs() ?: DEFAULT_THROTTLE_MS
+                s.throttledUntil = now + wait
+                Log.w(TAG, "${deployment.deployment} throttled for ${wait}ms")
+            }
+        }
+
+        /** Connection-level failure: treat the deployment as slow so traffic shifts away. */
+        fun onFailure() {
+            s.ewmaLatencyMs = (s.ewmaLatencyMs ?: DEFAULT_LATENCY_MS) * FAILURE_PENALTY
+        }
+
+        fun release() {
+            if (released) return
+            released = true
+            s.inFlight.decrementAndGet()
+        }
+    }
+
+    /**
+     * Pick the deployment for the next call. Throws a [LlmException] (rate-limited, with the
+     * shortest remaining throttle as retry-after) if every deployment is throttled – the
+     * resilience layer then waits and retries.
+     */
+    fun acquire(candidates: List<AzureDeployment>): Lease {
+        require(candidates.isNotEmpty()) { "No Azure deployment configured" }
+        val now = SystemClock.elapsedRealtime()
+        val entries = candidates.map { it to stats.getOrPut(it.id) { Stats() } }
+
+        val available = entries.filter { (_, s) -> s.throttledUntil <= now }
+        if (available.isEmpty()) {
+            val wait = entries.minOf { (_, s) -> s.throttledUntil } - now
+            throw LlmException(
+                kind         = LlmException.Kind.RATE_LIMITED,
+                message      = "Alle Azure-Deployments sind gedrosselt",
+                statusCode   = 429,
+                retryAfterMs = wait
+            )
+        }
+
+        val knownLatency = available.mapNotNull { (_, s) -> s.ewmaLatencyMs }.minOrNull() ?: DEFAULT_LATENCY_MS
+        val (deployment, s) = available.minBy { (_, s) ->
+            val latency = s.ewmaLatencyMs ?: (knownLatency * UNSAMPLED_FACTOR)
+            latency * (1 + s.inFlight.get()) * quotaPenalty(s, now)
+        }
+        s.inFlight.incrementAndGet()
+        if (candidates.size > 1) {
+            Log.d(TAG, "→ ${deployment.deployment} (ewma=${s.ewmaLatencyMs?.toLong()}ms " +
+                "inFlight=${s.inFlight.get()} req=${s.remainingRequests} tok=${s.remainingTokens})")
+        }
+        return Lease(deployment, s)
+    }
+
+    /** Heavily de-prioritise deployments that reported (almost) exhausted quota recently. */
+    private fun quotaPenalty(s: Stats, now: Long): Double {
+        if (now - s.quotaSeenAt > QUOTA_FRESH_MS) return 1.0
+        val requestsLow = s.remainingRequests?.let { it <= LOW_REMAINING_REQUESTS } ?: false
+        val tokensLow = s.remainingTokens?.let { it <= LOW_REMAINING_TOKENS } ?: false
+        return if (requestsLow || tokensLow) LOW_QUOTA_PENALTY else 1.0
+    }
+
+    private companion object {
+        const val TAG = "AzureDeploymentPool"
+        const val EWMA_ALPHA = 0.3
+        const val DEFAULT_LATENCY_MS = 1_500.0
+        /** Unsampled deployments look slightly faster than the best known one → they get tried. */
+        const val UNSAMPLED_FACTOR = 0.8
+        const val FAILURE_PENALTY = 2.0
+        const val DEFAULT_THROTTLE_MS = 10_000L
+        /** Quota headers describe a rolling one-minute window. */
+        const val QUOTA_FRESH_MS = 60_000L
+        const val LOW_REMAINING_REQUESTS = 1L
+        const val LOW_REMAINING_TOKENS = 4_000L
+        const val LOW_QUOTA_PENALTY = 10.0
+    }
+}
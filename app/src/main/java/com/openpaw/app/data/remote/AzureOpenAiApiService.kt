@@ -2,9 +2,12 @@ package com.openpaw.app.data.remote
 
 import com.openpaw.app.data.remote.dto.AzureChatRequest
 import com.openpaw.app.data.remote.dto.AzureChatResponse
+import okhttp3.ResponseBody
+import retrofit2.Response
 import retrofit2.http.Body
 import retrofit2.http.Header
 import retrofit2.http.POST
+import retrofit2.http.Streaming
 import retrofit2.http.Url
 
 /**
@@ -14,6 +17,9 @@ import retrofit2.http.Url
  *   https://{resourceName}.openai.azure.com/openai/deployments/{deployment}/chat/completions?api-version=...
  *
  * Auth: "api-key" header (NOT "Authorization: Bearer ...")
+ *
+ * Both calls return the raw [Response] so the caller can read the rate-limit headers
+ * (`x-ratelimit-remaining-*`, `retry-after`) – non-2xx responses do not throw here.
  */
 interface AzureOpenAiApiService {
 
@@ -22,5 +28,17 @@ interface AzureOpenAiApiService {
         @Url url: String,
         @Header("api-key") apiKey: String,
         @Body request: AzureChatRequest
-    ): AzureChatResponse
+    ): Response<AzureChatResponse>
+
+    /**
+     * Same endpoint with `stream=true`. Returns as soon as the headers arrive;
+     * the body is an SSE stream that must be read incrementally and closed by the caller.
+     */
+    @Streaming
+    @POST
+    suspend fun chatCompletionStream(
+        @Url url: String,
+        @Header("api-key") apiKey: String,
+        @Body request: AzureChatRequest
+    ): Response<ResponseBody>
 }
@@ -1,10 +1,16 @@
 package com.openpaw.app.data.remote
 
-import com.google.gson.Gson
-import com.google.gson.reflect.TypeToken
+import android.os.SystemClock
 import com.openpaw.app.data.remote.dto.*
 import com.openpaw.app.data.repository.SettingsRepository
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
+import retrofit2.HttpException
+import retrofit2.Response
+import java.io.IOException
 import javax.inject.Inject
 import javax.inject.Singleton
 
@@ -23,162 +29,214 @@ import javax.inject.Singleton
  *
  * Auth for both: "api-key" header (NOT "Authorization: Bearer …")
  * Tool arguments come back as a JSON **string** that must be deserialized.
+ *
+ * The configured deployment plus any additional pool entries are load-balanced by
+ * [AzureDeploymentPool]; a throttled deployment hands the call to the next one immediately.
+ * Both [ModelTier]s are served by the configured deployment.
  */
 @Singleton
 class AzureOpenAiLlmProvider @Inject constructor(
     private val apiService: AzureOpenAiApiService,
     private val settingsRepository: SettingsRepository,
-    private val gson: Gson
+    private val deploymentPool: AzureDeploymentPool,
+    private val rateLimiter: LlmRateLimiter
 ) : LlmProvider {
 
     override val name = "Azure OpenAI"
 
+    private val encoder = OpenAiMessageEncoder()
+
+    /** Resolved endpoint for one call. */
+    private data class Target(
+        val url: String,
+        val apiKey: String,
+        val deployment: String,
+        val isFoundry: Boolean
+    )
+
     override suspend fun complete(
-        messages: List<ApiMessage>,
+        messages: List<ChatMessage>,
         systemPrompt: String,
-        tools: List<ApiTool>
+        tools: List<ApiTool>,
+        systemContext: String,
+        sessionId: String?,
+        modelTier: ModelTier
     ): LlmResponse {
-
-        val endpoint   = settingsRepository.azureEndpoint.first().trimEnd('/')
-        val deployment = settingsRepository.azureDeploymentName.first().trim()
-        val apiKey     = settingsRepository.azureApiKey.first().trim()
-
-        require(endpoint.isNotBlank())   { "Azure-Endpoint nicht gesetzt. Bitte in den Einstellungen eintragen." }
-        require(deployment.isNotBlank()) { "Azure Deployment-Name nicht gesetzt. Bitte in den Einstellungen eintragen." }
-        require(apiKey.isNotBlank())     { "Azure API-Key nicht gesetzt. Bitte in den Einstellungen eintragen." }
-
-        // ── Auto-detect endpoint type ─────────────────────────────────────────
-        val isFoundry = endpoint.contains("services.ai.azure.com", ignoreCase = true)
-
-        val url = if (isFoundry) {
-            // Azure AI Foundry / AI Services — model in body, no deployment in URL
-            "$endpoint/models/chat/completions?api-version=2024-05-01-preview"
-        } else {
-            // Classic Azure OpenAI — deployment in URL, no model in body
-            "$endpoint/openai/deployments/$deployment/chat/completions?api-version=2024-02-15-preview"
+        val startedAt = SystemClock.elapsedRealtime()
+
+        val estimatedTokens = LlmRateLimiter.estimateTokens(messages, systemPrompt, systemContext)
+        val (result, lease) = routed(streaming = false, estimatedTokens) { target ->
+            apiService.chatCompletion(
+                url = target.url,
+                apiKey = target.apiKey,
+                request = buildRequest(target, messages, systemPrompt, systemContext, tools)
+            )
         }
+        lease.release()
+        val response = result.body() ?: throw IOException("Leere Antwort von Azure")
+        return response.toLlmResponse(durationMs = SystemClock.elapsedRealtime() - startedAt)
+    }
 
-        // ── Build messages: prepend system, then map ApiMessage → AzureChatMessage ─
-        val azureMessages = mutableListOf<AzureChatMessage>()
-        if (systemPrompt.isNotBlank()) {
-            azureMessages += AzureChatMessage(role = "system", content = systemPrompt)
-        }
-        azureMessages += messages.map { msg -> msg.toAzureChatMessage() }
-
-        // ── Convert Anthropic-style tools → OpenAI function-calling format ────
-        val azureTools = tools.map { tool ->
-            AzureTool(
-                function = AzureFunction(
-                    name = tool.name,
-                    description = tool.description,
-                    parameters = AzureFunctionParameters(
-                        properties = tool.inputSchema.properties.mapValues { (_, prop) ->
-                            AzureFunctionProperty(type = prop.type, description = prop.description)
-                        },
-                        required = tool.inputSchema.required
-                    )
+    /**
+     * Streaming completion (`stream=true`) for both Classic and Foundry endpoints.
+     * Chunks are reassembled by [OpenAiStreamAssembler].
+     */
+    override fun stream(
+        messages: List<ChatMessage>,
+        systemPrompt: String,
+        tools: List<ApiTool>,
+        systemContext: String,
+        sessionId: String?,
+        modelTier: ModelTier
+    ): Flow<LlmStreamEvent> = flow {
+        val startedAt = SystemClock.elapsedRealtime()
+
+        val estimatedTokens = LlmRateLimiter.estimateTokens(messages, systemPrompt, systemContext)
+        val (result, lease) = routed(streaming = true, estimatedTokens) { target ->
+            apiService.chatCompletionStream(
+                url = target.url,
+                apiKey = target.apiKey,
+                request = buildRequest(target, messages, systemPrompt, systemContext, tools).copy(
+                    stream = true,
+                    // The Foundry inference API does not accept stream_options on its current version
+                    streamOptions = if (target.isFoundry) null else AzureStreamOptions()
                 )
             )
         }
 
-        val request = AzureChatRequest(
-            // Foundry requires the model name in the body; Classic bakes it into the URL
-            model    = if (isFoundry) deployment else null,
-            messages = azureMessages,
-            tools    = azureTools.ifEmpty { null }
-        )
+        val assembler = OpenAiStreamAssembler()
+        // The deployment counts as busy until the stream has been read completely
+        try {
+            val body = result.body() ?: throw IOException("Leere Antwort von Azure")
+            body.readCancellable { source ->
+                source.forEachSseEvent { _, data ->
+                    if (data == "[DONE]") return@forEachSseEvent
+                    val chunk = AzureJson.readChunk(data)
+                    assembler.accept(chunk, SystemClock.elapsedRealtime() - startedAt)
+                        .forEach { out -> emit(out) }
+                }
+            }
+        } finally {
+            lease.release()
+        }
+        assembler.flushToolCalls().forEach { emit(it) }
 
-        val response = apiService.chatCompletion(
-            url = url,
-            apiKey = apiKey,
-            request = request
-        )
+        emit(LlmStreamEvent.Completed(assembler.build(SystemClock.elapsedRealtime() - startedAt)))
+    }.flowOn(Dispatchers.IO)
 
-        val choice = response.choices.firstOrNull()
-            ?: return LlmResponse(textContent = null, stopReason = "no_choices")
+    // ── Private helpers ───────────────────────────────────────────────────────
 
-        val textContent = choice.message.content?.takeIf { it.isNotBlank() }
+    /**
+     * Send [send] to the best deployment of the pool. A 429 throttles that deployment and the
+     * call moves on to the next one right away; only when no deployment is left does the error
+     * reach the resilience layer. The returned lease must be released once the body is consumed.
+     *
+     * Each deployment is paced by [LlmRateLimiter] under its own key ([AzureDeployment.id]) –
+     * deployments of one resource share the host, not the quota. Deployments that can take
+     * the call without pacing are preferred; one whose pacing would exceed the limiter's
+     * maximum is skipped like a throttled one.
+     */
+    private suspend fun <T> routed(
+        streaming: Boolean,
+        estimatedTokens: Int,
+        send: suspend (Target) -> Response<T>
+    ): Pair<Response<T>, AzureDeploymentPool.Lease> {
+        val remaining = deployments().toMutableList()
+        var lastError: Exception? = null
+        while (remaining.isNotEmpty()) {
+            val unpaced = remaining.filter { rateLimiter.headroomFor(it.id).waitMs <= 0 }
+            val lease = deploymentPool.acquire(unpaced.ifEmpty { remaining })
+            remaining.remove(lease.deployment)
+
+            // Not part of the call: a limiter refusal says nothing about the deployment's latency
+            try {
+                rateLimiter.acquire(lease.deployment.id, estimatedTokens)
+            } catch (e: LlmException) {
+                lease.release()
+                lastError = e
+                continue
+            } catch (e: Throwable) {
+                lease.release()
+                throw e
+            }
 
-        // Parse tool calls – arguments is a JSON *string* that needs to be deserialized
-        val toolCalls = choice.message.toolCalls?.map { azureCall ->
-            val inputMap: Map<String, Any> = try {
-                val type = object : TypeToken<Map<String, Any>>() {}.type
-                gson.fromJson(azureCall.function.arguments, type) ?: emptyMap()
+            val response = try {
+                lease.onSend()
+                send(targetFor(lease.deployment, streaming))
             } catch (e: Exception) {
-                emptyMap()
+                if (e is IOException) lease.onFailure()
+                lease.release()
+                throw e
             }
-            ToolCallRequest(
-                id = azureCall.id,
-                toolName = azureCall.function.name,
-                input = inputMap
-            )
-        } ?: emptyList()
+            lease.onResponse(response.code(), response.headers())
+            rateLimiter.onResponse(lease.deployment.id, response.code(), response.headers())
+            if (response.isSuccessful) return response to lease
+            lease.release()
+            val error = HttpException(response)
+            if (response.code() != 429) throw error
+            response.errorBody()?.close()
+            lastError = error
+        }
+        throw lastError ?: IllegalStateException("No Azure deployment available")
+    }
 
-        return LlmResponse(
-            textContent = textContent,
-            toolCalls = toolCalls,
-            stopReason = choice.finishReason,
-            rawProviderData = choice.message   // AzureResponseMessage – needed for continuation
+    /** The configured deployment plus the additional pool entries (complete ones only). */
+    private suspend fun deployments(): List<AzureDeployment> {
+        val primary = AzureDeployment(
+            endpoint   = settingsRepository.azureEndpoint.first().trim().trimEnd('/'),
+            deployment = settingsRepository.azureDeploymentName.first().trim(),
+            apiKey     = settingsRepository.azureApiKey.first().trim()
         )
+        val pool = (listOf(primary) + settingsRepository.azureExtraDeployments.first())
+            .filter { it.isComplete }
+            .distinctBy { it.id }
+        if (pool.isEmpty()) {
+            require(primary.endpoint.isNotBlank())   { "Azure-Endpoint nicht gesetzt. Bitte in den Einstellungen eintragen." }
+            require(primary.deployment.isNotBlank()) { "Azure Deployment-Name nicht gesetzt. Bitte in den Einstellungen eintragen." }
+            require(primary.apiKey.isNotBlank())     { "Azure API-Key nicht gesetzt. Bitte in den Einstellungen eintragen." }
+        }
+        return pool
     }
 
-    /**
-     * Azure / OpenAI continuation format:
-     *
-     *   [assistant]  content=null, tool_calls=[{id, function:{name, arguments}}, ...]
-     *   [tool]       tool_call_id=..., content="result"   (one per tool call)
-     */
-    override suspend fun buildContinuationMessages(
-        response: LlmResponse,
-        toolResults: List<ToolResultEntry>
-    ): List<ApiMessage> {
-        val rawMessage = response.rawProviderData as? AzureResponseMessage
-
-        // 1. Re-emit the assistant message that contained the tool calls.
-        val assistantMsg = ApiMessage(
-            role           = "assistant",
-            content        = rawMessage?.content ?: "",   // usually null when only tool_calls
-            azureToolCalls = rawMessage?.toolCalls        // raw AzureToolCall list
-        )
+    /** Build the request URL for the detected endpoint type. */
+    private fun targetFor(entry: AzureDeployment, streaming: Boolean): Target {
+        val endpoint   = entry.endpoint.trimEnd('/')
+        val deployment = entry.deployment
 
-        // 2. One tool result message per executed tool call.
-        val toolMsgs = toolResults.map { entry ->
-            ApiMessage(
-                role       = "tool",
-                content    = entry.content,
-                toolCallId = entry.toolCallId
-            )
-        }
+        // ── Auto-detect endpoint type ─────────────────────────────────────────
+        val isFoundry = endpoint.contains("services.ai.azure.com", ignoreCase = true)
 
-        return listOf(assistantMsg) + toolMsgs
+        val url = if (isFoundry) {
+            // Azure AI Foundry / AI Services — model in body, no deployment in URL
+            "$endpoint/models/chat/completions?api-version=2024-05-01-preview"
+        } else {
+            // Classic Azure OpenAI — deployment in URL, no model in body.
+            // stream_options (usage in the last chunk) needs api-version 2024-09-01 or newer.
+            val apiVersion = if (streaming) "2024-10-21" else "2024-02-15-preview"
+            "$endpoint/openai/deployments/$deployment/chat/completions?api-version=$apiVersion"
+        }
+        return Target(url = url, apiKey = entry.apiKey, deployment = deployment, isFoundry = isFoundry)
     }
 
-    // ── Private helper ────────────────────────────────────────────────────────
-
-    /**
-     * Map a generic [ApiMessage] to an [AzureChatMessage], handling three cases:
-     *
-     * 1. role="tool"            → tool result message  (toolCallId required)
-     * 2. azureToolCalls != null → assistant message with tool_calls (agent loop continuation)
-     * 3. everything else        → regular text message
-     */
-    private fun ApiMessage.toAzureChatMessage(): AzureChatMessage = when {
-        role == "tool" -> AzureChatMessage(
-            role       = "tool",
-            content    = content as? String ?: content.toString(),
-            toolCallId = toolCallId
-        )
-        azureToolCalls != null -> {
-            @Suppress("UNCHECKED_CAST")
-            AzureChatMessage(
-                role      = "assistant",
-                content   = null,
-                toolCalls = azureToolCalls as? List<AzureToolCall>
-            )
+    private fun buildRequest(
+        target: Target,
+        messages: List<ChatMessage>,
+        systemPrompt: String,
+        systemContext: String,
+        tools: List<ApiTool>
+    ): AzureChatRequest {
+        // Stable prompt first, volatile context last → Azure's automatic prefix cache still hits.
+        val system = systemPrompt + systemContext
+        val azureMessages = buildList {
+            if (system.isNotBlank()) add(encoder.system(system))
+            addAll(encoder.encode(messages))
         }
-        else -> AzureChatMessage(
-            role    = role,
-            content = if (content is String) content else null
+
+        return AzureChatRequest(
+            // Foundry requires the model name in the body; Classic bakes it into the URL
+            model    = if (target.isFoundry) target.deployment else null,
+            messages = azureMessages,
+            tools    = encoder.encodeTools(tools)
         )
     }
 }
@@ -0,0 +1,109 @@
+package com.openpaw.app.data.remote
+
+import com.google.gson.stream.JsonWriter
+import java.io.StringWriter
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Provider-neutral conversation message – the internal model every provider encodes from.
+ *
+ * Messages are immutable. Each provider encodes a message into its own wire JSON once and the
+ * result is memoized on the instance ([encoded]), so a request body is mostly cached fragments
+ * spliced together. Because nothing provider-specific is stored in the conversation, switching
+ * providers in the middle of a session keeps working.
+ */
+class ChatMessage(
+    val role: Role,
+    val parts: List<ChatPart>
+) {
+    enum class Role { USER, ASSISTANT }
+
+    private val encodings = ConcurrentHashMap<String, List<RawJson>>(2)
+
+    /** Plain text of all [ChatPart.Text] parts (null if there are none). */
+    val text: String?
+        get() = parts.filterIsInstance<ChatPart.Text>().joinToString("\n") { it.text }.ifEmpty { null }
+
+    /** Approximate payload size in characters (used for token budgeting). */
+    val charCount: Int by lazy { parts.sumOf { it.charCount } }
+
+    /**
+     * Wire JSON of this message for [format] – computed by [encode] on first use, then cached.
+     * One message may encode to several wire messages (OpenAI: one `tool` message per result).
+     */
+    fun encoded(format: String, encode: (ChatMessage) -> List<RawJson>): List<RawJson> =
+        encodings.getOrPut(format) { encode(this) }
+
+    companion object {
+        fun user(text: String) = ChatMessage(Role.USER, listOf(ChatPart.Text(text)))
+        fun assistant(text: String) = ChatMessage(Role.ASSISTANT, listOf(ChatPart.Text(text)))
+
+        /**
+         * Messages to append after executing the tool calls of [response]:
+         *
+         *   [assistant]  text (optional) + one ToolCall part per call
+         *   [user]       one ToolResult part per executed call + [followUp] text (optional)
+         *
+         * [followUp] rides in the tool-result message instead of a user turn of its own, so
+         * roles keep alternating.
+         */
+        fun continuation(
+            response: LlmResponse,
+            toolResults: List<ToolResultEntry>,
+            followUp: String? = null
+        ): List<ChatMessage> {
+            val assistantParts = buildList {
+                response.textContent?.takeIf { it.isNotBlank() }?.let { add(ChatPart.Text(it)) }
+                response.toolCalls.forEach { add(ChatPart.ToolCall(it.id, it.toolName, it.input)) }
+            }
+            val resultParts = buildList {
+                toolResults.forEach { add(ChatPart.ToolResult(it.toolCallId, it.toolName, it.content, it.isError)) }
+                followUp?.let { add(ChatPart.Text(it)) }
+            }
+            return listOf(ChatMessage(Role.ASSISTANT, assistantParts), ChatMessage(Role.USER, resultParts))
+        }
+    }
+}
+
+sealed class ChatPart {
+    internal abstract val charCount: Int
+
+    data class Text(val text: String) : ChatPart() {
+        override val charCount get() = text.length
+    }
+
+    data class ToolCall(val id: String, val name: String, val input: Map<String, Any>) : ChatPart() {
+        override val charCount get() = name.length + input.toString().length
+    }
+
+    data class ToolResult(
+        val toolCallId: String,
+        val toolName: String,
+        val content: String,
+        val isError: Boolean = false
+    ) : ChatPart() {
+        override val charCount get() = content.length
+    }
+
+    /** Base64-encoded image, e.g. a screenshot. */
+    data class Image(val mediaType: String, val base64Data: String) : ChatPart() {
+        override val charCount get() = base64Data.length
+    }
+}
+
+/**
+ * Pre-encoded JSON that is spliced into a request verbatim by [LlmJsonConverterFactory]
+ * instead of being serialized reflectively. Write-only: it is only ever emitted through the
+ * codec's [JsonWriter]; no decoder resolves this type.
+ */
+class RawJson(val json: String) {
+
+    companion object {
+        /** Build a JSON fragment with a streaming writer (no reflection). */
+        inline fun write(block: (JsonWriter) -> Unit): RawJson {
+            val buffer = StringWriter()
+            JsonWriter(buffer).use { block(it) }
+            return RawJson(buffer.toString())
+        }
+    }
+}
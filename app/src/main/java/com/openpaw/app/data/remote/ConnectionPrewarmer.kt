@@ -0,0 +1,88 @@
+package com.openpaw.app.data.remote
+
+import android.os.SystemClock
+import android.util.Log
+import com.openpaw.app.data.repository.SettingsRepository
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.launch
+import okhttp3.HttpUrl
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import java.util.concurrent.ConcurrentHashMap
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Opens the connections to the active LLM provider ahead of the first request – to every
+ * host of the Azure deployment pool and to the hedge provider as well, since a routed or
+ * hedged request may go to any of them.
+ *
+ * DNS, TCP and TLS to the provider cost a few hundred milliseconds after an idle period.
+ * When a voice interaction starts we already know a request will follow, so a cheap HEAD
+ * request is sent while the user is still speaking. The resulting (HTTP/2) connection stays
+ * in the shared [OkHttpClient]'s pool and is reused by the actual LLM call.
+ */
+@Singleton
+class ConnectionPrewarmer @Inject constructor(
+    private val client: OkHttpClient,
+    private val settingsRepository: SettingsRepository
+) {
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    /** Origin → elapsedRealtime of the last successful warm-up. */
+    private val warmedAt = ConcurrentHashMap<String, Long>()
+
+    /** Fire-and-forget; never throws. */
+    fun prewarm() {
+        scope.launch {
+            // Every host a request may go to: all pool deployments and the hedge provider
+            val providers = listOf(settingsRepository.selectedProvider.first(), settingsRepository.hedgeProvider.first())
+                .filter { it.isNotBlank() }
+                .distinct()
+            providers.flatMap { originsOf(it) }
+                .distinctBy { it.toString() }
+                .forEach { origin -> launch { warm(origin) } }
+        }
+    }
+
+    private fun warm(origin: HttpUrl) {
+        val key = origin.toString()
+        val now = SystemClock.elapsedRealtime()
+        // A connection warmed recently is still pooled – skip the extra round trip
+        warmedAt[key]?.let { if (now - it < REWARM_AFTER_MS) return }
+
+        try {
+            val request = Request.Builder().url(origin).head().build()
+            client.newCall(request).execute().use { response ->
+                Log.d(TAG, "Pre-warmed $key via ${response.protocol} in ${SystemClock.elapsedRealtime() - now}ms")
+            }
+            warmedAt[key] = SystemClock.elapsedRealtime()
+        } catch (e: Exception) {
+            // Not fatal – the real request just pays for the handshake itself
+            Log.d(TAG, "Pre-warm of $key failed: ${e.message}")
+        }
+    }
+
+    /** Scheme + host + port of every endpoint configured for [providerId] (empty if none). */
+    private suspend fun originsOf(providerId: String): List<HttpUrl> {
+        val urls = when (providerId) {
+            LlmProviderType.AZURE.id -> listOf(settingsRepository.azureEndpoint.first()) +
+                settingsRepository.azureExtraDeployments.first().filter { it.isComplete }.map { it.endpoint }
+            LlmProviderType.LOCAL.id -> listOf(settingsRepository.localLlmBaseUrl.first())
+            else                     -> listOf(ANTHROPIC_ORIGIN)
+        }
+        return urls.mapNotNull { it.trim().toHttpUrlOrNull() }
+            .map { url -> HttpUrl.Builder().scheme(url.scheme).host(url.host).port(url.port).build() }
+    }
+
+    private companion object {
+        const val TAG = "ConnectionPrewarmer"
+        const val ANTHROPIC_ORIGIN = "https://api.anthropic.com/"
+        /** Well below the pool's keep-alive (see AppModule), so a skipped warm-up is still warm. */
+        const val REWARM_AFTER_MS = 60_000L
+    }
+}
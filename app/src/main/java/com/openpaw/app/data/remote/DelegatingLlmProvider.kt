@@ -1,9 +1,23 @@
 package com.openpaw.app.data.remote
 
-import com.openpaw.app.data.remote.dto.ApiMessage
+import android.util.Log
 import com.openpaw.app.data.remote.dto.ApiTool
 import com.openpaw.app.data.repository.SettingsRepository
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.emitAll
+import kotlinx.coroutines.flow.filterIsInstance
 import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicReference
 import javax.inject.Inject
 import javax.inject.Singleton
 
@@ -12,44 +26,216 @@ import javax.inject.Singleton
  *
  * Reads the user's selected provider from [SettingsRepository] on every call,
  * so switching providers in Settings takes effect immediately without a restart.
+ * Every call goes through [LlmResilience] (deadline, retries, circuit breaker).
  *
  * Provider IDs (stored in DataStore):
  *   "anthropic"  → AnthropicLlmProvider  (Claude)
  *   "azure"      → AzureOpenAiLlmProvider
- *   "local"      → LocalLlmProvider       (stub – future)
+ *   "local"      → LocalLlmProvider       (OpenAI-compatible server, e.g. llama.cpp)
+ *
+ * Optional hedging: if a secondary provider is configured and the primary has not started
+ * answering within the configured percentile of its observed latency, the same request is
+ * also sent to the secondary. The first provider to deliver output wins, the other call is
+ * cancelled. If the primary fails before answering, the secondary is started right away.
+ * Messages are provider-neutral ([ChatMessage]), so the continuation of a hedged turn is
+ * encoded by whichever provider serves the next call.
+ *
+ * With the response cache enabled, byte-identical requests are answered from
+ * [LlmResponseCache] before any provider is contacted. Cache hits are not recorded in
+ * [LlmMetrics] – they would skew the latency percentiles used for hedging.
  */
 @Singleton
 class DelegatingLlmProvider @Inject constructor(
     private val anthropicProvider: AnthropicLlmProvider,
     private val azureProvider: AzureOpenAiLlmProvider,
     private val localProvider: LocalLlmProvider,
-    private val settingsRepository: SettingsRepository
+    private val settingsRepository: SettingsRepository,
+    private val llmMetrics: LlmMetrics,
+    private val resilience: LlmResilience,
+    private val responseCache: LlmResponseCache
 ) : LlmProvider {
 
     override val name: String get() = "DelegatingLlmProvider"
 
+    private fun providerFor(id: String): LlmProvider = when (id) {
+        LlmProviderType.AZURE.id -> azureProvider
+        LlmProviderType.LOCAL.id -> localProvider
+        else -> anthropicProvider   // default: Anthropic
+    }
+
     private suspend fun activeProvider(): LlmProvider =
-        when (settingsRepository.selectedProvider.first()) {
-            LlmProviderType.AZURE.id -> azureProvider
-            LlmProviderType.LOCAL.id -> localProvider
-            else -> anthropicProvider   // default: Anthropic
-        }
+        providerFor(settingsRepository.selectedProvider.first())
+
+    /** The hedge target, or null if hedging is off or would target the primary itself. */
+    private suspend fun hedgeProvider(primary: LlmProvider): LlmProvider? {
+        val id = settingsRepository.hedgeProvider.first()
+        if (id.isBlank()) return null
+        return providerFor(id).takeIf { it !== primary }
+    }
+
+    private suspend fun hedgeAfterMs(primary: LlmProvider): Long =
+        llmMetrics.latencyPercentileMs(primary.name, settingsRepository.hedgePercentile.first())
+            ?: DEFAULT_HEDGE_AFTER_MS
 
     override suspend fun complete(
-        messages: List<ApiMessage>,
+        messages: List<ChatMessage>,
+        systemPrompt: String,
+        tools: List<ApiTool>,
+        systemContext: String,
+        sessionId: String?,
+        modelTier: ModelTier
+    ): LlmResponse {
+        val provider = activeProvider()
+        val slot = cacheSlot(provider, modelTier, messages, systemPrompt, tools, systemContext)
+        slot?.let { responseCache.get(it.key, it.onDisk) }?.let { return it }
+        val open: (LlmProvider) -> Flow<LlmStreamEvent> = { p ->
+            flow {
+                emit(LlmStreamEvent.Completed(resilience.call(p.name) {
+                    p.complete(messages, systemPrompt, tools, systemContext, sessionId, modelTier)
+                }))
+            }
+        }
+        val response = race(provider, open).filterIsInstance<LlmStreamEvent.Completed>().first().response
+        llmMetrics.record(response.provider ?: provider.name, response)
+        slot?.let { responseCache.put(it.key, response, it.onDisk) }
+        return response
+    }
+
+    override fun stream(
+        messages: List<ChatMessage>,
+        systemPrompt: String,
+        tools: List<ApiTool>,
+        systemContext: String,
+        sessionId: String?,
+        modelTier: ModelTier
+    ): Flow<LlmStreamEvent> = flow {
+        val provider = activeProvider()
+        val slot = cacheSlot(provider, modelTier, messages, systemPrompt, tools, systemContext)
+        slot?.let { responseCache.get(it.key, it.onDisk) }?.let { cached ->
+            cached.textContent?.let { emit(LlmStreamEvent.TextDelta(it)) }
+            cached.toolCalls.forEach { emit(LlmStreamEvent.ToolCallReady(it)) }
+            emit(LlmStreamEvent.Completed(cached))
+            return@flow
+        }
+        val open: (LlmProvider) -> Flow<LlmStreamEvent> = { p ->
+            resilience.stream(p.name) { p.stream(messages, systemPrompt, tools, systemContext, sessionId, modelTier) }
+        }
+        emitAll(
+            race(provider, open).onEach { event ->
+                if (event is LlmStreamEvent.Completed) {
+                    llmMetrics.record(event.response.provider ?: provider.name, event.response)
+                    slot?.let { responseCache.put(it.key, event.response, it.onDisk) }
+                }
+            }
+        )
+    }
+
+    // ── Response cache ────────────────────────────────────────────────────────
+
+    private class CacheSlot(val key: String, val onDisk: Boolean)
+
+    /** Cache key of this request, or null if caching is off or the request must not be cached. */
+    private suspend fun cacheSlot(
+        provider: LlmProvider,
+        modelTier: ModelTier,
+        messages: List<ChatMessage>,
         systemPrompt: String,
-        tools: List<ApiTool>
-    ): LlmResponse = activeProvider().complete(messages, systemPrompt, tools)
+        tools: List<ApiTool>,
+        systemContext: String
+    ): CacheSlot? {
+        if (!settingsRepository.responseCacheEnabled.first()) return null
+        // The model is part of the identity – switching it must not replay old answers
+        val model = when (provider) {
+            azureProvider -> settingsRepository.azureDeploymentName.first()
+            localProvider -> settingsRepository.localLlmBaseUrl.first() + "|" + settingsRepository.localLlmModel.first()
+            else          -> anthropicProvider.modelFor(modelTier)
+        }
+        val key = responseCache.keyFor("${provider.name}|$model", messages, systemPrompt, tools, systemContext)
+            ?: return null
+        return CacheSlot(key, settingsRepository.responseCacheOnDisk.first())
+    }
+
+    // ── Hedging ───────────────────────────────────────────────────────────────
+
+    /** [open] on the primary – hedged against the secondary provider when configured. */
+    private suspend fun race(
+        primary: LlmProvider,
+        open: (LlmProvider) -> Flow<LlmStreamEvent>
+    ): Flow<LlmStreamEvent> {
+        val secondary = hedgeProvider(primary) ?: return open(primary).tagged(primary)
+        return hedged(primary, secondary, hedgeAfterMs(primary), open)
+    }
+
+    private fun hedged(
+        primary: LlmProvider,
+        secondary: LlmProvider,
+        hedgeAfterMs: Long,
+        open: (LlmProvider) -> Flow<LlmStreamEvent>
+    ): Flow<LlmStreamEvent> = channelFlow {
+        val winner = AtomicReference<LlmProvider?>(null)
+        val failures = ConcurrentLinkedQueue<Exception>()
+        val primaryFailed = CompletableDeferred<Unit>()
+        var primaryJob: Job? = null
+        var secondaryJob: Job? = null
+
+        /**
+         * Forward [provider]'s events once it has won; the first event decides the race.
+         * Returns whether [provider] answered – false if it failed or ended without an event.
+         */
+        suspend fun relay(provider: LlmProvider, other: () -> Job?): Boolean {
+            try {
+                open(provider).tagged(provider).collect { event ->
+                    if (winner.compareAndSet(null, provider)) {
+                        other()?.cancel()
+                        if (provider === secondary) Log.d(TAG, "Hedge won: ${secondary.name} before ${primary.name}")
+                    }
+                    if (winner.get() !== provider) throw CancellationException("${provider.name} lost the race")
+                    send(event)
+                }
+                return winner.get() === provider
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                // After winning there is no fallback – the error belongs to the caller
+                if (winner.get() === provider) throw e
+                Log.w(TAG, "${provider.name} failed before answering: ${e.message}")
+                failures += e
+                return false
+            }
+        }
+
+        primaryJob = launch {
+            if (!relay(primary) { secondaryJob }) primaryFailed.complete(Unit)
+        }
+        secondaryJob = launch {
+            // Start the hedge after the latency threshold – or immediately if the primary failed
+            withTimeoutOrNull(hedgeAfterMs) { primaryFailed.await() }
+            if (winner.get() != null) return@launch
+            Log.d(TAG, "Hedging ${primary.name} → ${secondary.name} after ${hedgeAfterMs}ms")
+            relay(secondary) { primaryJob }
+        }
+
+        primaryJob?.join()
+        secondaryJob?.join()
+        if (winner.get() == null) throw failures.firstOrNull() ?: IllegalStateException("No provider answered")
+    }
+
+    /** Stamp the answering provider on the final response. */
+    private fun Flow<LlmStreamEvent>.tagged(provider: LlmProvider): Flow<LlmStreamEvent> = map { event ->
+        if (event is LlmStreamEvent.Completed) LlmStreamEvent.Completed(event.response.copy(provider = provider.name))
+        else event
+    }
 
-    override suspend fun buildContinuationMessages(
-        response: LlmResponse,
-        toolResults: List<ToolResultEntry>
-    ): List<ApiMessage> = activeProvider().buildContinuationMessages(response, toolResults)
+    private companion object {
+        const val TAG = "DelegatingLlmProvider"
+        /** Hedge delay until enough latency samples of the primary were recorded. */
+        const val DEFAULT_HEDGE_AFTER_MS = 4_000L
+    }
 }
 
 /** Canonical provider IDs used throughout the app. */
 enum class LlmProviderType(val id: String, val displayName: String) {
     ANTHROPIC("anthropic", "Anthropic Claude"),
     AZURE("azure", "Azure OpenAI"),
-    LOCAL("local", "Local LLM (coming soon)")
+    LOCAL("local", "Local LLM (OpenAI-compatible)")
 }
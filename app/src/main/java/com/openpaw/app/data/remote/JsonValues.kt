@@ -0,0 +1,130 @@
+package com.openpaw.app.data.remote
+
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import com.google.gson.stream.JsonWriter
+import java.io.StringReader
+import java.io.StringWriter
+
+/**
+ * Reflection-free reading/writing of untyped JSON values (tool inputs, tool arguments).
+ *
+ * Objects become [LinkedHashMap]s (key order preserved), arrays [ArrayList]s, and numbers
+ * keep their kind: integral literals decode to [Long], everything else to [Double] –
+ * unlike Gson's `Map<String, Any>` mapping, which boxes every number as a Double.
+ */
+internal object JsonValues {
+
+    fun read(reader: JsonReader): Any? = when (reader.peek()) {
+        JsonToken.BEGIN_OBJECT -> readObject(reader)
+        JsonToken.BEGIN_ARRAY  -> {
+            val list = ArrayList<Any?>()
+            reader.beginArray()
+            while (reader.hasNext()) list += read(reader)
+            reader.endArray()
+            list
+        }
+        JsonToken.STRING       -> reader.nextString()
+        JsonToken.NUMBER       -> parseNumber(reader.nextString())
+        JsonToken.BOOLEAN      -> reader.nextBoolean()
+        JsonToken.NULL         -> { reader.nextNull(); null }
+        else                   -> { reader.skipValue(); null }
+    }
+
+    /** Reads an object; null members are dropped (tool inputs are `Map<String, Any>`). */
+    fun readObject(reader: JsonReader): Map<String, Any> {
+        val map = LinkedHashMap<String, Any>()
+        reader.beginObject()
+        while (reader.hasNext()) {
+            val name = reader.nextName()
+            read(reader)?.let { map[name] = it }
+        }
+        reader.endObject()
+        return map
+    }
+
+    /** Parse a JSON object string – empty map on blank or malformed input. */
+    fun parseObject(json: String): Map<String, Any> {
+        if (json.isBlank()) return emptyMap()
+        return try {
+            JsonReader(StringReader(json)).use { reader ->
+                if (reader.peek() == JsonToken.BEGIN_OBJECT) readObject(reader) else emptyMap()
+            }
+        } catch (e: Exception) {
+            emptyMap()
+        }
+    }
+
+    fun write(writer: JsonWriter, value: Any?) {
+        when (value) {
+            null          -> writer.nullValue()
+            is String     -> writer.value(value)
+            is Boolean    -> writer.value(value)
+            is Number     -> writer.value(value)
+            is Map<*, *>  -> {
+                writer.beginObject()
+                value.forEach { (k, v) -> writer.name(k.toString()); write(writer, v) }
+                writer.endObject()
+            }
+            is Iterable<*> -> {
+                writer.beginArray()
+                value.forEach { write(writer, it) }
+                writer.endArray()
+            }
+            is Array<*>   -> write(writer, value.asList())
+            else          -> writer.value(value.toString())
+        }
+    }
+
+    fun toJson(value: Any?): String {
+        val buffer = StringWriter()
+        JsonWriter(buffer).use { write(it, value) }
+        return buffer.toString()
+    }
+
+    private fun parseNumber(literal: String): Number {
+        val integral = literal.none { it == '.' || it == 'e' || it == 'E' }
+        return (if (integral) literal.toLongOrNull() else null) ?: literal.toDouble()
+    }
+}
+
+// ── Typed-field helpers for the DTO codecs ────────────────────────────────────
+
+internal fun JsonReader.nextStringOrNull(): String? =
+    if (peek() == JsonToken.NULL) { nextNull(); null } else nextString()
+
+internal fun JsonReader.nextIntOrNull(): Int? =
+    if (peek() == JsonToken.NULL) { nextNull(); null } else nextInt()
+
+internal fun JsonReader.nextLongOrNull(): Long? =
+    if (peek() == JsonToken.NULL) { nextNull(); null } else nextLong()
+
+/** Returns null (and consumes the token) when the value is JSON null. */
+internal inline fun <T> JsonReader.nullable(read: JsonReader.() -> T): T? =
+    if (peek() == JsonToken.NULL) { nextNull(); null } else read()
+
+internal inline fun JsonReader.forEachField(onField: JsonReader.(name: String) -> Unit) {
+    beginObject()
+    while (hasNext()) onField(nextName())
+    endObject()
+}
+
+internal inline fun <T> JsonReader.readList(readItem: JsonReader.() -> T): List<T> {
+    val list = ArrayList<T>()
+    beginArray()
+    while (hasNext()) list += readItem()
+    endArray()
+    return list
+}
+
+internal fun JsonWriter.field(name: String, value: String?): JsonWriter =
+    if (value == null) this else name(name).value(value)
+
+internal fun JsonWriter.field(name: String, value: Number?): JsonWriter =
+    if (value == null) this else name(name).value(value)
+
+internal fun JsonWriter.field(name: String, value: Boolean?): JsonWriter =
+    if (value == null) this else name(name).value(value)
+
+internal fun JsonWriter.field(name: String, value: RawJson?): JsonWriter =
+    if (value == null) this else name(name).jsonValue(value.json)
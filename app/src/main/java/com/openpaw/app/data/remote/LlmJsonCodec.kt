@@ -0,0 +1,499 @@
+package com.openpaw.app.data.remote
+
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonWriter
+import com.openpaw.app.data.remote.dto.AnthropicRequest
+import com.openpaw.app.data.remote.dto.AnthropicResponse
+import com.openpaw.app.data.remote.dto.AnthropicStreamDelta
+import com.openpaw.app.data.remote.dto.AnthropicStreamEvent
+import com.openpaw.app.data.remote.dto.ApiTool
+import com.openpaw.app.data.remote.dto.AzureChatChunk
+import com.openpaw.app.data.remote.dto.AzureChatRequest
+import com.openpaw.app.data.remote.dto.AzureChatResponse
+import com.openpaw.app.data.remote.dto.AzureChoice
+import com.openpaw.app.data.remote.dto.AzureChunkChoice
+import com.openpaw.app.data.remote.dto.AzureChunkDelta
+import com.openpaw.app.data.remote.dto.AzurePromptTokensDetails
+import com.openpaw.app.data.remote.dto.AzureResponseMessage
+import com.openpaw.app.data.remote.dto.AzureToolCall
+import com.openpaw.app.data.remote.dto.AzureToolCallDelta
+import com.openpaw.app.data.remote.dto.AzureToolCallFunction
+import com.openpaw.app.data.remote.dto.AzureToolCallFunctionDelta
+import com.openpaw.app.data.remote.dto.AzureUsage
+import com.openpaw.app.data.remote.dto.CacheControl
+import com.openpaw.app.data.remote.dto.ContentBlock
+import com.openpaw.app.data.remote.dto.ErrorDetail
+import com.openpaw.app.data.remote.dto.Usage
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.RequestBody
+import okhttp3.ResponseBody
+import okio.BufferedSink
+import retrofit2.Converter
+import retrofit2.Retrofit
+import java.io.OutputStreamWriter
+import java.io.StringReader
+import java.lang.reflect.Type
+
+// ═════════════════════════════════════════════════════════════════════════════
+// Hand-written streaming JSON codec for the LLM wire DTOs.
+//
+// Requests are written field by field straight into the OkHttp sink; responses and SSE
+// events are decoded token by token from the body stream. No reflection, no intermediate
+// JsonElement trees, unknown fields are skipped. Gson is only used for its JsonReader /
+// JsonWriter primitives.
+// ═════════════════════════════════════════════════════════════════════════════
+
+/**
+ * Retrofit converter for the LLM request/response DTOs. Registered before
+ * GsonConverterFactory; returns null for every other type so Gson stays the fallback.
+ */
+class LlmJsonConverterFactory : Converter.Factory() {
+
+    override fun requestBodyConverter(
+        type: Type,
+        parameterAnnotations: Array<out Annotation>,
+        methodAnnotations: Array<out Annotation>,
+        retrofit: Retrofit
+    ): Converter<*, RequestBody>? = when (type) {
+        AnthropicRequest::class.java -> Converter<AnthropicRequest, RequestBody> { request ->
+            JsonRequestBody { AnthropicJson.writeRequest(it, request) }
+        }
+        AzureChatRequest::class.java -> Converter<AzureChatRequest, RequestBody> { request ->
+            JsonRequestBody { AzureJson.writeRequest(it, request) }
+        }
+        else -> null
+    }
+
+    override fun responseBodyConverter(
+        type: Type,
+        annotations: Array<out Annotation>,
+        retrofit: Retrofit
+    ): Converter<ResponseBody, *>? = when (type) {
+        AnthropicResponse::class.java -> Converter<ResponseBody, AnthropicResponse> { body ->
+            body.use { JsonReader(it.charStream()).use(AnthropicJson::readResponse) }
+        }
+        AzureChatResponse::class.java -> Converter<ResponseBody, AzureChatResponse> { body ->
+            body.use { JsonReader(it.charStream()).use(AzureJson::readResponse) }
+        }
+        else -> null
+    }
+
+    /** Encodes on every [writeTo] (OkHttp may write a body more than once, e.g. for logging). */
+    private class JsonRequestBody(private val write: (JsonWriter) -> Unit) : RequestBody() {
+        override fun contentType() = JSON
+
+        override fun writeTo(sink: BufferedSink) {
+            // Not closed: the sink belongs to OkHttp
+            val writer = JsonWriter(OutputStreamWriter(sink.outputStream(), Charsets.UTF_8))
+            write(writer)
+            writer.flush()
+        }
+    }
+
+    private companion object {
+        val JSON = "application/json; charset=UTF-8".toMediaType()
+    }
+}
+
+// ── Anthropic ────────────────────────────────────────────────────────────────
+
+internal object AnthropicJson {
+
+    fun writeRequest(w: JsonWriter, request: AnthropicRequest) {
+        w.beginObject()
+        w.field("model", request.model)
+        w.field("max_tokens", request.maxTokens)
+        w.name("system").beginArray()
+        request.system.forEach { block ->
+            w.beginObject()
+            w.field("type", block.type)
+            w.field("text", block.text)
+            block.cacheControl?.let { writeCacheControl(w, it) }
+            w.endObject()
+        }
+        w.endArray()
+        w.name("messages").beginArray()
+        request.messages.forEach { w.jsonValue(it.json) }
+        w.endArray()
+        w.field("tools", request.tools)
+        w.field("stream", request.stream)
+        w.endObject()
+    }
+
+    /** Tool definitions (JSON array); [cacheBreakpointOnLast] marks the last tool for prompt caching. */
+    fun writeTools(w: JsonWriter, tools: List<ApiTool>, cacheBreakpointOnLast: Boolean) {
+        w.beginArray()
+        tools.forEachIndexed { i, tool ->
+            w.beginObject()
+            w.field("name", tool.name)
+            w.field("description", tool.description)
+            w.name("input_schema")
+            writeSchema(w, tool)
+            val cacheControl = tool.cacheControl ?: CacheControl().takeIf { cacheBreakpointOnLast && i == tools.lastIndex }
+            cacheControl?.let { writeCacheControl(w, it) }
+            w.endObject()
+        }
+        w.endArray()
+    }
+
+    fun readResponse(r: JsonReader): AnthropicResponse {
+        var id = ""; var type = ""; var role = ""; var model = ""
+        var content: List<ContentBlock> = emptyList()
+        var stopReason: String? = null
+        var usage: Usage? = null
+        r.forEachField { name ->
+            when (name) {
+                "id"          -> id = nextStringOrNull() ?: ""
+                "type"        -> type = nextStringOrNull() ?: ""
+                "role"        -> role = nextStringOrNull() ?: ""
+                "model"       -> model = nextStringOrNull() ?: ""
+                "content"     -> content = nullable { readList(::readContentBlock) } ?: emptyList()
+                "stop_reason" -> stopReason = nextStringOrNull()
+                "usage"       -> usage = nullable(::readUsage)
+                else          -> skipValue()
+            }
+        }
+        return AnthropicResponse(id, type, role, content, model, stopReason, usage ?: Usage(0, 0))
+    }
+
+    fun readStreamEvent(json: String): AnthropicStreamEvent =
+        JsonReader(StringReader(json)).use { r ->
+            var type = ""
+            var index: Int? = null
+            var message: AnthropicResponse? = null
+            var contentBlock: ContentBlock? = null
+            var delta: AnthropicStreamDelta? = null
+            var usage: Usage? = null
+            var error: ErrorDetail? = null
+            r.forEachField { name ->
+                when (name) {
+                    "type"          -> type = nextStringOrNull() ?: ""
+                    "index"         -> index = nextIntOrNull()
+                    "message"       -> message = nullable(::readResponse)
+                    "content_block" -> contentBlock = nullable(::readContentBlock)
+                    "delta"         -> delta = nullable(::readDelta)
+                    "usage"         -> usage = nullable(::readUsage)
+                    "error"         -> error = nullable(::readError)
+                    else            -> skipValue()
+                }
+            }
+            AnthropicStreamEvent(type, index, message, contentBlock, delta, usage, error)
+        }
+
+    private fun readContentBlock(r: JsonReader): ContentBlock {
+        var type = ""
+        var text: String? = null
+        var id: String? = null
+        var name: String? = null
+        var input: Map<String, Any>? = null
+        r.forEachField { field ->
+            when (field) {
+                "type"  -> type = nextStringOrNull() ?: ""
+                "text"  -> text = nextStringOrNull()
+                "id"    -> id = nextStringOrNull()
+                "name"  -> name = nextStringOrNull()
+                "input" -> input = nullable { JsonValues.readObject(this) }
+                else    -> skipValue()
+            }
+        }
+        return ContentBlock(type, text, id, name, input)
+    }
+
+    private fun readDelta(r: JsonReader): AnthropicStreamDelta {
+        var type: String? = null
+        var text: String? = null
+        var partialJson: String? = null
+        var stopReason: String? = null
+        r.forEachField { name ->
+            when (name) {
+                "type"         -> type = nextStringOrNull()
+                "text"         -> text = nextStringOrNull()
+                "partial_json" -> partialJson = nextStringOrNull()
+                "stop_reason"  -> stopReason = nextStringOrNull()
+                else           -> skipValue()
+            }
+        }
+        return AnthropicStreamDelta(type, text, partialJson, stopReason)
+    }
+
+    private fun readUsage(r: JsonReader): Usage {
+        var input = 0
+        var output = 0
+        var cacheCreation: Int? = null
+        var cacheRead: Int? = null
+        r.forEachField { name ->
+            when (name) {
+                "input_tokens"                -> input = nextIntOrNull() ?: 0
+                "output_tokens"               -> output = nextIntOrNull() ?: 0
+                "cache_creation_input_tokens" -> cacheCreation = nextIntOrNull()
+                "cache_read_input_tokens"     -> cacheRead = nextIntOrNull()
+                else                          -> skipValue()
+            }
+        }
+        return Usage(input, output, cacheCreation, cacheRead)
+    }
+
+    private fun readError(r: JsonReader): ErrorDetail {
+        var type = ""
+        var message = ""
+        r.forEachField { name ->
+            when (name) {
+                "type"    -> type = nextStringOrNull() ?: ""
+                "message" -> message = nextStringOrNull() ?: ""
+                else      -> skipValue()
+            }
+        }
+        return ErrorDetail(type, message)
+    }
+
+    private fun writeSchema(w: JsonWriter, tool: ApiTool) {
+        val schema = tool.inputSchema
+        w.beginObject()
+        w.field("type", schema.type)
+        w.name("properties").beginObject()
+        schema.properties.forEach { (name, prop) ->
+            w.name(name).beginObject()
+            w.field("type", prop.type)
+            w.field("description", prop.description)
+            w.endObject()
+        }
+        w.endObject()
+        w.name("required").beginArray()
+        schema.required.forEach { w.value(it) }
+        w.endArray()
+        w.endObject()
+    }
+
+    private fun writeCacheControl(w: JsonWriter, cacheControl: CacheControl) {
+        w.name("cache_control").beginObject()
+        w.field("type", cacheControl.type)
+        w.endObject()
+    }
+}
+
+// ── Azure OpenAI / OpenAI-compatible ─────────────────────────────────────────
+
+internal object AzureJson {
+
+    fun writeRequest(w: JsonWriter, request: AzureChatRequest) {
+        w.beginObject()
+        w.field("model", request.model)
+        w.name("messages").beginArray()
+        request.messages.forEach { w.jsonValue(it.json) }
+        w.endArray()
+        w.field("max_tokens", request.maxTokens)
+        w.field("temperature", request.temperature)
+        w.field("tools", request.tools)
+        w.field("tool_choice", request.toolChoice)
+        w.field("stream", request.stream)
+        request.streamOptions?.let {
+            w.name("stream_options").beginObject()
+            w.field("include_usage", it.includeUsage)
+            w.endObject()
+        }
+        w.field("user", request.user)
+        w.field("cache_prompt", request.cachePrompt)
+        w.endObject()
+    }
+
+    /** Anthropic-style tool definitions → OpenAI function-calling format (JSON array). */
+    fun writeTools(w: JsonWriter, tools: List<ApiTool>) {
+        w.beginArray()
+        tools.forEach { tool ->
+            w.beginObject()
+            w.field("type", "function")
+            w.name("function").beginObject()
+            w.field("name", tool.name)
+            w.field("description", tool.description)
+            w.name("parameters").beginObject()
+            w.field("type", tool.inputSchema.type)
+            w.name("properties").beginObject()
+            tool.inputSchema.properties.forEach { (name, prop) ->
+                w.name(name).beginObject()
+                w.field("type", prop.type)
+                w.field("description", prop.description)
+                w.endObject()
+            }
+            w.endObject()
+            w.name("required").beginArray()
+            tool.inputSchema.required.forEach { w.value(it) }
+            w.endArray()
+            w.endObject()
+            w.endObject()
+            w.endObject()
+        }
+        w.endArray()
+    }
+
+    fun readResponse(r: JsonReader): AzureChatResponse {
+        var id = ""
+        var obj: String? = null
+        var created: Long? = null
+        var model: String? = null
+        var choices: List<AzureChoice> = emptyList()
+        var usage: AzureUsage? = null
+        r.forEachField { name ->
+            when (name) {
+                "id"      -> id = nextStringOrNull() ?: ""
+                "object"  -> obj = nextStringOrNull()
+                "created" -> created = nextLongOrNull()
+                "model"   -> model = nextStringOrNull()
+                "choices" -> choices = nullable { readList(::readChoice) } ?: emptyList()
+                "usage"   -> usage = nullable(::readUsage)
+                else      -> skipValue()
+            }
+        }
+        return AzureChatResponse(id, obj, created, model, choices, usage)
+    }
+
+    fun readChunk(json: String): AzureChatChunk =
+        JsonReader(StringReader(json)).use { r ->
+            var id: String? = null
+            var choices: List<AzureChunkChoice>? = null
+            var usage: AzureUsage? = null
+            r.forEachField { name ->
+                when (name) {
+                    "id"      -> id = nextStringOrNull()
+                    "choices" -> choices = nullable { readList(::readChunkChoice) }
+                    "usage"   -> usage = nullable(::readUsage)
+                    else      -> skipValue()
+                }
+            }
+            AzureChatChunk(id, choices, usage)
+        }
+
+    private fun readChoice(r: JsonReader): AzureChoice {
+        var index = 0
+        var message = AzureResponseMessage(role = "assistant", content = null, toolCalls = null)
+        var finishReason: String? = null
+        r.forEachField { name ->
+            when (name) {
+                "index"         -> index = nextIntOrNull() ?: 0
+                "message"       -> nullable(::readMessage)?.let { message = it }
+                "finish_reason" -> finishReason = nextStringOrNull()
+                else            -> skipValue()
+            }
+        }
+        return AzureChoice(index, message, finishReason)
+    }
+
+    private fun readMessage(r: JsonReader): AzureResponseMessage {
+        var role = "assistant"
+        var content: String? = null
+        var toolCalls: List<AzureToolCall>? = null
+        r.forEachField { name ->
+            when (name) {
+                "role"       -> role = nextStringOrNull() ?: role
+                "content"    -> content = nextStringOrNull()
+                "tool_calls" -> toolCalls = nullable { readList(::readToolCall) }
+                else         -> skipValue()
+            }
+        }
+        return AzureResponseMessage(role, content, toolCalls)
+    }
+
+    private fun readToolCall(r: JsonReader): AzureToolCall {
+        var id = ""
+        var type = "function"
+        var fnName = ""
+        var arguments = "{}"
+        r.forEachField { name ->
+            when (name) {
+                "id"       -> id = nextStringOrNull() ?: ""
+                "type"     -> type = nextStringOrNull() ?: type
+                "function" -> nullable {
+                    forEachField { field ->
+                        when (field) {
+                            "name"      -> fnName = nextStringOrNull() ?: ""
+                            "arguments" -> arguments = nextStringOrNull() ?: "{}"
+                            else        -> skipValue()
+                        }
+                    }
+                }
+                else       -> skipValue()
+            }
+        }
+        return AzureToolCall(id, type, AzureToolCallFunction(fnName, arguments))
+    }
+
+    private fun readChunkChoice(r: JsonReader): AzureChunkChoice {
+        var index = 0
+        var delta: AzureChunkDelta? = null
+        var finishReason: String? = null
+        r.forEachField { name ->
+            when (name) {
+                "index"         -> index = nextIntOrNull() ?: 0
+                "delta"         -> delta = nullable(::readChunkDelta)
+                "finish_reason" -> finishReason = nextStringOrNull()
+                else            -> skipValue()
+            }
+        }
+        return AzureChunkChoice(index, delta, finishReason)
+    }
+
+    private fun readChunkDelta(r: JsonReader): AzureChunkDelta {
+        var role: String? = null
+        var content: String? = null
+        var toolCalls: List<AzureToolCallDelta>? = null
+        r.forEachField { name ->
+            when (name) {
+                "role"       -> role = nextStringOrNull()
+                "content"    -> content = nextStringOrNull()
+                "tool_calls" -> toolCalls = nullable { readList(::readToolCallDelta) }
+                else         -> skipValue()
+            }
+        }
+        return AzureChunkDelta(role, content, toolCalls)
+    }
+
+    private fun readToolCallDelta(r: JsonReader): AzureToolCallDelta {
+        var index = 0
+        var id: String? = null
+        var type: String? = null
+        var function: AzureToolCallFunctionDelta? = null
+        r.forEachField { name ->
+            when (name) {
+                "index"    -> index = nextIntOrNull() ?: 0
+                "id"       -> id = nextStringOrNull()
+                "type"     -> type = nextStringOrNull()
+                "function" -> function = nullable {
+                    var fnName: String? = null
+                    var arguments: String? = null
+                    forEachField { field ->
+                        when (field) {
+                            "name"      -> fnName = nextStringOrNull()
+                            "arguments" -> arguments = nextStringOrNull()
+                            else        -> skipValue()
+                        }
+                    }
+                    AzureToolCallFunctionDelta(fnName, arguments)
+                }
+                else       -> skipValue()
+            }
+        }
+        return AzureToolCallDelta(index, id, type, function)
+    }
+
+    private fun readUsage(r: JsonReader): AzureUsage {
+        var prompt = 0
+        var completion = 0
+        var total = 0
+        var details: AzurePromptTokensDetails? = null
+        r.forEachField { name ->
+            when (name) {
+                "prompt_tokens"         -> prompt = nextIntOrNull() ?: 0
+                "completion_tokens"     -> completion = nextIntOrNull() ?: 0
+                "total_tokens"          -> total = nextIntOrNull() ?: 0
+                "prompt_tokens_details" -> details = nullable {
+                    var cached: Int? = null
+                    forEachField { field ->
+                        if (field == "cached_tokens") cached = nextIntOrNull() else skipValue()
+                    }
+                    AzurePromptTokensDetails(cached)
+                }
+                else                    -> skipValue()
+            }
+        }
+        return AzureUsage(prompt, completion, total, details)
+    }
+}
@@ -0,0 +1,68 @@
+package com.openpaw.app.data.remote
+
+import android.util.Log
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.update
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * In-memory record of recent LLM calls.
+ *
+ * Time-to-first-token is the headline latency number: with streaming, that is
+ * when the user starts seeing / hearing the answer, not when the last token lands.
+ */
+@Singleton
+class LlmMetrics @Inject constructor() {
+
+    data class CallSample(
+        val provider: String,
+        val timeToFirstTokenMs: Long?,
+        val durationMs: Long?,
+        val usage: LlmUsage?,
+        val timestamp: Long = System.currentTimeMillis()
+    )
+
+    private val _recent = MutableStateFlow<List<CallSample>>(emptyList())
+    /** The last [MAX_SAMPLES] calls, oldest first. */
+    val recent: StateFlow<List<CallSample>> = _recent.asStateFlow()
+
+    fun record(provider: String, response: LlmResponse) {
+        val sample = CallSample(
+            provider           = provider,
+            timeToFirstTokenMs = response.timeToFirstTokenMs,
+            durationMs         = response.durationMs,
+            usage              = response.usage
+        )
+        _recent.update { (it + sample).takeLast(MAX_SAMPLES) }
+        Log.d(TAG, "$provider ttft=${sample.timeToFirstTokenMs}ms total=${sample.durationMs}ms " +
+            "in=${sample.usage?.inputTokens} out=${sample.usage?.outputTokens} " +
+            "cacheRead=${sample.usage?.cacheReadTokens} cacheWrite=${sample.usage?.cacheCreationTokens}")
+    }
+
+    /** Median time-to-first-token over the recorded window (null until a streamed call completed). */
+    fun medianTimeToFirstTokenMs(): Long? =
+        _recent.value.mapNotNull { it.timeToFirstTokenMs }.sorted().let { if (it.isEmpty()) null else it[it.size / 2] }
+
+    /**
+     * [percentile] of [provider]'s latency until the answer started (time-to-first-token for
+     * streamed calls, total duration otherwise). Null until [MIN_PERCENTILE_SAMPLES] calls were seen.
+     */
+    fun latencyPercentileMs(provider: String, percentile: Int): Long? {
+        val samples = _recent.value
+            .filter { it.provider == provider }
+            .mapNotNull { it.timeToFirstTokenMs ?: it.durationMs }
+            .sorted()
+        if (samples.size < MIN_PERCENTILE_SAMPLES) return null
+        val index = (samples.size * percentile / 100).coerceIn(0, samples.lastIndex)
+        return samples[index]
+    }
+
+    private companion object {
+        const val TAG = "LlmMetrics"
+        const val MAX_SAMPLES = 50
+        const val MIN_PERCENTILE_SAMPLES = 5
+    }
+}
@@ -1,7 +1,8 @@
 package com.openpaw.app.data.remote
 
-import com.openpaw.app.data.remote.dto.ApiMessage
 import com.openpaw.app.data.remote.dto.ApiTool
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
 
 /**
  * Abstraction over any LLM backend (cloud or on-device).
@@ -18,39 +19,49 @@ interface LlmProvider {
     /**
      * Send a conversation turn to the LLM.
      *
-     * @param messages   Full conversation history (user + assistant turns + tool results)
-     * @param systemPrompt  System instructions prepended to every call
+     * @param messages   Full conversation history (user + assistant turns + tool results).
+     *                   Provider-neutral; each provider encodes (and memoizes) its wire format.
+     * @param systemPrompt  Stable system instructions prepended to every call (cacheable prefix)
      * @param tools      List of tools the LLM can call (empty = no tool use)
+     * @param systemContext  Volatile system text (memory, user context) sent after [systemPrompt].
+     *                       Kept separate so changes here don't invalidate the provider's prompt cache.
+     * @param sessionId  Stable id of the conversation (null = none). Lets session-affine backends
+     *                   route every turn of a session to the same server-side prompt/KV cache.
+     * @param modelTier  Which of the provider's models to use (see [ModelTier]).
      * @return [LlmResponse] with text and/or tool call requests
      */
     suspend fun complete(
-        messages: List<ApiMessage>,
+        messages: List<ChatMessage>,
         systemPrompt: String,
-        tools: List<ApiTool> = emptyList()
+        tools: List<ApiTool> = emptyList(),
+        systemContext: String = "",
+        sessionId: String? = null,
+        modelTier: ModelTier = ModelTier.FAST
     ): LlmResponse
 
     /**
-     * Build the provider-specific continuation messages to append after tool execution.
+     * Streaming variant of [complete].
      *
-     * After the LLM requests tool calls and the tools are executed, we need to append
-     * two (Anthropic) or N+1 (Azure/OpenAI) messages so the LLM can see the results:
+     * Emits [LlmStreamEvent.TextDelta]s as text arrives, one [LlmStreamEvent.ToolCallReady] as soon
+     * as each tool call block is complete, and finally exactly one [LlmStreamEvent.Completed] with
+     * the assembled [LlmResponse] (the same object [complete] would have returned).
      *
-     * Anthropic:
-     *   1. [assistant] content = original tool_use + text blocks  (from rawProviderData)
-     *   2. [user]      content = [{ type: "tool_result", tool_use_id, content }, ...]
-     *
-     * Azure / OpenAI:
-     *   1. [assistant] tool_calls = [{ id, function: { name, arguments } }, ...]
-     *   2. [tool]      tool_call_id = ..., content = result   (one per tool call)
-     *
-     * @param response     The LlmResponse that contained the tool call requests
-     * @param toolResults  The results of executing those tool calls
-     * @return Messages to append to the conversation before the next LLM call
+     * The default implementation falls back to [complete], so providers without a streaming
+     * endpoint still work for streaming callers – they just deliver everything at the end.
      */
-    suspend fun buildContinuationMessages(
-        response: LlmResponse,
-        toolResults: List<ToolResultEntry>
-    ): List<ApiMessage>
+    fun stream(
+        messages: List<ChatMessage>,
+        systemPrompt: String,
+        tools: List<ApiTool> = emptyList(),
+        systemContext: String = "",
+        sessionId: String? = null,
+        modelTier: ModelTier = ModelTier.FAST
+    ): Flow<LlmStreamEvent> = flow {
+        val response = complete(messages, systemPrompt, tools, systemContext, sessionId, modelTier)
+        response.textContent?.let { emit(LlmStreamEvent.TextDelta(it)) }
+        response.toolCalls.forEach { emit(LlmStreamEvent.ToolCallReady(it)) }
+        emit(LlmStreamEvent.Completed(response))
+    }
 }
 
 /**
@@ -63,12 +74,46 @@ data class LlmResponse(
     val toolCalls: List<ToolCallRequest> = emptyList(),
     /** Provider-specific stop reason (e.g. "end_turn", "tool_use", "tool_calls"). */
     val stopReason: String? = null,
-    /**
-     * Opaque provider-specific raw data needed to build continuation messages.
-     * Anthropic: List<ContentBlock>  (the original content blocks from the response)
-     * Azure:     AzureResponseMessage  (the original message object with tool_calls)
-     */
-    val rawProviderData: Any? = null
+    /** Token usage reported by the provider (null if the provider did not report it). */
+    val usage: LlmUsage? = null,
+    /** Milliseconds from sending the request until the first streamed token arrived. */
+    val timeToFirstTokenMs: Long? = null,
+    /** Milliseconds from sending the request until the response was complete. */
+    val durationMs: Long? = null,
+    /** Name of the provider that produced this response (set when routing between providers). */
+    val provider: String? = null,
+    /** Model that produced this response (null if the provider does not report it). */
+    val model: String? = null
+)
+
+/**
+ * Model class requested for one call. Providers without a second model serve both tiers
+ * with their configured model.
+ */
+enum class ModelTier {
+    /** The configured model – usually small and fast; used for mechanical tool steps. */
+    FAST,
+    /** The escalation model for planning, recovery after failures and final answers. */
+    STRONG
+}
+
+/** Incremental output of [LlmProvider.stream]. */
+sealed class LlmStreamEvent {
+    /** A chunk of free text, in order. Concatenated deltas form [LlmResponse.textContent]. */
+    data class TextDelta(val text: String) : LlmStreamEvent()
+    /** A tool call whose input has been fully received – safe to execute now. */
+    data class ToolCallReady(val toolCall: ToolCallRequest) : LlmStreamEvent()
+    /** Terminal event: the fully assembled response. Always emitted last. */
+    data class Completed(val response: LlmResponse) : LlmStreamEvent()
+}
+
+data class LlmUsage(
+    val inputTokens: Int,
+    val outputTokens: Int,
+    /** Input tokens served from the provider's prompt cache. */
+    val cacheReadTokens: Int = 0,
+    /** Input tokens written to the provider's prompt cache by this call. */
+    val cacheCreationTokens: Int = 0
 )
 
 data class ToolCallRequest(
@@ -0,0 +1,244 @@
+package com.openpaw.app.data.remote
+
+import android.os.SystemClock
+import android.util.Log
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.update
+import okhttp3.Headers
+import okhttp3.Interceptor
+import okhttp3.Response
+import java.time.Instant
+import java.util.concurrent.ConcurrentHashMap
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Client-side token-bucket rate limiter for the LLM endpoints, one pair of buckets
+ * (requests + tokens) per limit key.
+ *
+ * The key is whatever owns the quota: the host for single-endpoint providers (Anthropic),
+ * the deployment id for Azure – every deployment of one Azure resource shares the host but
+ * has its own quota, so one throttled deployment must not pace or block its siblings.
+ *
+ * Capacity is learned from the rate-limit headers of every response – by [HeaderInterceptor]
+ * for host keys, by the caller via [onResponse] for other keys:
+ *
+ *   Anthropic  anthropic-ratelimit-{requests,tokens}-{limit,remaining,reset}   (reset = RFC 3339)
+ *   Azure      x-ratelimit-{limit,remaining,reset}-{requests,tokens}           (reset = "6m0s")
+ *
+ * Until a key has reported its limits, calls are not paced. Afterwards [acquire] delays a
+ * call just long enough for both buckets to cover it, so bursts from the bubble and the chat
+ * are spread out instead of running into 429s.
+ */
+@Singleton
+class LlmRateLimiter @Inject constructor() {
+
+    /** Fraction of capacity currently available per bucket (null = limit unknown). */
+    data class Headroom(
+        val requests: Float?,
+        val tokens: Float?,
+        /** How long a typical call would currently have to wait. */
+        val waitMs: Long
+    ) {
+        /** The scarcer of both buckets; 1 if nothing is known. */
+        val fraction: Float get() = minOf(requests ?: 1f, tokens ?: 1f)
+    }
+
+    private class Bucket {
+        var capacity: Double? = null
+        var available = 0.0
+        var refillPerMs = 0.0
+        var updatedAt = 0L
+
+        fun refill(now: Long) {
+            val cap = capacity ?: return
+            available = (available + (now - updatedAt) * refillPerMs).coerceAtMost(cap)
+            updatedAt = now
+        }
+
+        /** Milliseconds until [amount] (capped at the capacity) is available. */
+        fun waitFor(amount: Double, now: Long): Long {
+            val cap = capacity ?: return 0
+            refill(now)
+            val need = amount.coerceAtMost(cap)
+            if (available >= need) return 0
+            if (refillPerMs <= 0.0) return DEFAULT_WINDOW_MS
+            return ((need - available) / refillPerMs).toLong() + 1
+        }
+
+        fun take(amount: Double) {
+            if (capacity != null) available -= amount
+        }
+
+        /** Adopt the server's view of this bucket. */
+        fun learn(limit: Long?, remaining: Long, resetInMs: Long?, now: Long) {
+            val cap = (limit ?: maxOf(capacity?.toLong() ?: 0L, remaining)).toDouble()
+            capacity = cap
+            available = remaining.toDouble()
+            updatedAt = now
+            refillPerMs = if (resetInMs != null && resetInMs > 0 && remaining < cap) {
+                (cap - remaining) / resetInMs
+            } else {
+                cap / DEFAULT_WINDOW_MS
+            }
+        }
+
+        fun fraction(): Float? = capacity?.let { cap -> if (cap <= 0) 0f else (available / cap).toFloat().coerceIn(0f, 1f) }
+    }
+
+    private class LimitState {
+        val requests = Bucket()
+        val tokens = Bucket()
+        var blockedUntil = 0L
+    }
+
+    private val limits = ConcurrentHashMap<String, LimitState>()
+
+    private val _headroom = MutableStateFlow<Map<String, Headroom>>(emptyMap())
+    /** Current headroom per key – lets callers wait, pick a cheaper model or defer work. */
+    val headroom: StateFlow<Map<String, Headroom>> = _headroom.asStateFlow()
+
+    /** Headroom of [key]; full headroom if nothing is known about it yet. */
+    fun headroomFor(key: String): Headroom = _headroom.value[key] ?: Headroom(null, null, 0)
+
+    /**
+     * Suspend until [key] has capacity for one request of about [estimatedTokens], then
+     * reserve it. Throws a rate-limit [LlmException] if the wait would exceed [MAX_PACING_MS] –
+     * the resilience layer decides whether waiting that long is acceptable.
+     */
+    suspend fun acquire(key: String, estimatedTokens: Int) {
+        val state = limits.getOrPut(key) { LimitState() }
+        while (true) {
+            val wait = synchronized(state) {
+                val now = SystemClock.elapsedRealtime()
+                val wait = maxOf(
+                    state.blockedUntil - now,
+                    state.requests.waitFor(1.0, now),
+                    state.tokens.waitFor(estimatedTokens.toDouble(), now)
+                )
+                if (wait <= 0) {
+                    state.requests.take(1.0)
+                    state.tokens.take(estimatedTokens.toDouble())
+                }
+                wait
+            }
+            publish(key, state)
+            if (wait <= 0) return
+            if (wait > MAX_PACING_MS) {
+                throw LlmException(
+                    kind         = LlmException.Kind.RATE_LIMITED,
+                    message      = "Rate-Limit von $key ausgeschöpft",
+                    retryAfterMs = wait
+                )
+            }
+            Log.d(TAG, "Pacing $key: waiting ${wait}ms for ~$estimatedTokens tokens")
+            delay(wait)
+        }
+    }
+
+    /** Learn limits from a response for [key]. */
+    fun onResponse(key: String, code: Int, headers: Headers) {
+        val state = limits.getOrPut(key) { LimitState() }
+        val now = SystemClock.elapsedRealtime()
+        synchronized(state) {
+            learn(state.requests, headers, "requests", now)
+            learn(state.tokens, headers, "tokens", now)
+            if (code == 429) {
+                state.blockedUntil = now + (headers.retryAfterMs() ?: DEFAULT_BLOCK_MS)
+            }
+        }
+        publish(key, state)
+    }
+
+    private fun learn(bucket: Bucket, headers: Headers, kind: String, now: Long) {
+        // Anthropic – "tokens" is absent on some tiers, input tokens are the binding limit then
+        val anthropicKind = if (kind == "tokens" && headers["anthropic-ratelimit-tokens-remaining"] == null) "input-tokens" else kind
+        headers["anthropic-ratelimit-$anthropicKind-remaining"]?.trim()?.toLongOrNull()?.let { remaining ->
+            bucket.learn(
+                limit     = headers["anthropic-ratelimit-$anthropicKind-limit"]?.trim()?.toLongOrNull(),
+                remaining = remaining,
+                resetInMs = headers["anthropic-ratelimit-$anthropicKind-reset"]?.let(::parseInstantMs),
+                now       = now
+            )
+            return
+        }
+        // Azure OpenAI / OpenAI-compatible
+        headers["x-ratelimit-remaining-$kind"]?.trim()?.toLongOrNull()?.let { remaining ->
+            bucket.learn(
+                limit     = headers["x-ratelimit-limit-$kind"]?.trim()?.toLongOrNull(),
+                remaining = remaining,
+                resetInMs = headers["x-ratelimit-reset-$kind"]?.let(::parseDurationMs),
+                now       = now
+            )
+        }
+    }
+
+    private fun publish(key: String, state: LimitState) {
+        val headroom = synchronized(state) {
+            val now = SystemClock.elapsedRealtime()
+            Headroom(
+                requests = state.requests.fraction(),
+                tokens   = state.tokens.fraction(),
+                waitMs   = maxOf(state.blockedUntil - now, state.requests.waitFor(1.0, now), 0L)
+            )
+        }
+        _headroom.update { it + (key to headroom) }
+    }
+
+    /**
+     * Feeds the rate-limit headers of responses from [hosts] into the limiter, keyed by host.
+     * Only for single-endpoint providers; pooled endpoints report per deployment themselves.
+     */
+    class HeaderInterceptor(
+        private val limiter: LlmRateLimiter,
+        private val hosts: Set<String>
+    ) : Interceptor {
+        override fun intercept(chain: Interceptor.Chain): Response {
+            val response = chain.proceed(chain.request())
+            val host = chain.request().url.host
+            if (host in hosts) limiter.onResponse(host, response.code, response.headers)
+            return response
+        }
+    }
+
+    companion object {
+        private const val TAG = "LlmRateLimiter"
+        /** Rate limits are per minute unless the server says otherwise. */
+        private const val DEFAULT_WINDOW_MS = 60_000L
+        private const val DEFAULT_BLOCK_MS = 10_000L
+        private const val MAX_PACING_MS = 30_000L
+        private val DURATION_PART = Regex("(\\d+(?:\\.\\d+)?)(ms|s|m|h)")
+
+        /**
+         * Rough token count of a request: prompt characters / 4 plus the output allowance.
+         * Only used for pacing, so precision does not matter.
+         */
+        fun estimateTokens(messages: List<ChatMessage>, vararg texts: String, maxOutputTokens: Int = 1024): Int =
+            (messages.sumOf { it.charCount } + texts.sumOf { it.length }) / 4 + maxOutputTokens
+
+        /** RFC 3339 timestamp → milliseconds from now. */
+        private fun parseInstantMs(value: String): Long? = try {
+            (Instant.parse(value.trim()).toEpochMilli() - System.currentTimeMillis()).coerceAtLeast(0)
+        } catch (e: Exception) {
+            null
+        }
+
+        /** OpenAI-style duration ("1s", "6m0s", "20ms") → milliseconds. */
+        private fun parseDurationMs(value: String): Long? {
+            val parts = DURATION_PART.findAll(value.trim()).toList()
+            if (parts.isEmpty()) return null
+            return parts.sumOf { match ->
+                val amount = match.groupValues[1].toDouble()
+                when (match.groupValues[2]) {
+                    "ms" -> amount
+                    "s"  -> amount * 1_000
+                    "m"  -> amount * 60_000
+                    else -> amount * 3_600_000
+                }
+            }.toLong()
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.openpaw.app.data.remote
+
+import android.os.SystemClock
+import android.util.Log
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.TimeoutCancellationException
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeout
+import okhttp3.Headers
+import retrofit2.HttpException
+import java.io.IOException
+import java.io.InterruptedIOException
+import java.net.UnknownHostException
+import java.util.concurrent.ConcurrentHashMap
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlin.random.Random
+
+/**
+ * Typed failure of an LLM call. The agent loop derives the message shown to the user from
+ * [kind] instead of matching status codes in exception messages.
+ */
+class LlmException(
+    val kind: Kind,
+    message: String,
+    val statusCode: Int? = null,
+    /** Wait requested by the server (`retry-after` / `retry-after-ms`) or by an open circuit. */
+    val retryAfterMs: Long? = null,
+    cause: Throwable? = null
+) : IOException(message, cause) {
+
+    enum class Kind(val retryable: Boolean) {
+        AUTH(false),
+        BAD_REQUEST(false),
+        RATE_LIMITED(true),
+        OVERLOADED(true),
+        SERVER(true),
+        TIMEOUT(true),
+        NETWORK(true),
+        OFFLINE(false),
+        /** Provider failed repeatedly – calls are rejected locally for a while. */
+        CIRCUIT_OPEN(false)
+    }
+
+    val retryable: Boolean get() = kind.retryable
+}
+
+/**
+ * Resilience layer around single LLM calls:
+ *
+ *  - per-call deadline (all attempts together) and a first-token watchdog for streams
+ *  - retries with jittered exponential backoff – only for retryable failures
+ *    (408, 429, 5xx, 529, timeouts, dropped connections), honouring `retry-after`
+ *  - a circuit breaker per provider that fails fast while the endpoint is degraded
+ *
+ * A transient overload is thus absorbed inside one LLM call; the agent run – and the tool
+ * work it already did – survives.
+ */
+@Singleton
+class LlmResilience @Inject constructor() {
+
+    private val breakers = ConcurrentHashMap<String, CircuitBreaker>()
+
+    suspend fun <T> call(provider: String, block: suspend () -> T): T {
+        val deadline = SystemClock.elapsedRealtime() + CALL_DEADLINE_MS
+        var attempt = 0
+        while (true) {
+            val breaker = breakerFor(provider)
+            breaker.check(provider)
+            val failure = try {
+                val result = withTimeout(remaining(deadline)) { block() }
+                breaker.onSuccess()
+                return result
+            } catch (e: TimeoutCancellationException) {
+                LlmException(LlmException.Kind.TIMEOUT, "$provider: keine Antwort innerhalb von ${CALL_DEADLINE_MS / 1000} s", cause = e)
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                classify(e) ?: throw e
+            }
+            breaker.onFailure(provider, failure)
+            backoffOrThrow(provider, failure, ++attempt, deadline)
+        }
+    }
+
+    /**
+     * Streaming variant of [call]. An attempt is only retried while it has not emitted
+     * anything yet – partial output cannot be taken back from the collector.
+     *
+     * The deadline and the first-token watchdog only cover the upstream: it is collected in
+     * a child coroutine into a buffer, and events are emitted outside the timeout. Time spent
+     * in the collector doesn't count, and exceptions thrown by the collector propagate
+     * unchanged instead of being reported as a provider failure.
+     */
+    fun stream(provider: String, upstream: () -> Flow<LlmStreamEvent>): Flow<LlmStreamEvent> = flow {
+        val deadline = SystemClock.elapsedRealtime() + CALL_DEADLINE_MS
+        var attempt = 0
+        while (true) {
+            val breaker = breakerFor(provider)
+            breaker.check(provider)
+            var emitted = false
+            var upstreamFailure: Throwable? = null
+            coroutineScope {
+                // Unlimited: a slow collector must not stall the producer inside its timeout
+                val events = Channel<LlmStreamEvent>(Channel.UNLIMITED)
+                launch {
+                    upstreamFailure = produce(provider, upstream, deadline) { events.send(it) }
+                    events.close()
+                }
+                for (event in events) {
+                    emitted = true
+                    emit(event)
+                }
+            }
+            val failure = when (val e = upstreamFailure) {
+                null            -> { breaker.onSuccess(); return@flow }
+                is LlmException -> e
+                else            -> throw e
+            }
+            breaker.onFailure(provider, failure)
+            if (emitted) throw failure
+            backoffOrThrow(provider, failure, ++attempt, deadline)
+        }
+    }
+
+    /**
+     * Collect one attempt of [upstream] into [send] within the deadline and the first-token
+     * watchdog. Returns the failure – classified where possible – or null on success.
+     */
+    private suspend fun produce(
+        provider: String,
+        upstream: () -> Flow<LlmStreamEvent>,
+        deadline: Long,
+        send: suspend (LlmStreamEvent) -> Unit
+    ): Throwable? = try {
+        withTimeout(remaining(deadline)) {
+            coroutineScope {
+                val watchdog = launch {
+                    delay(FIRST_TOKEN_TIMEOUT_MS)
+                    throw LlmException(
+                        LlmException.Kind.TIMEOUT,
+                        "$provider: erstes Token nicht innerhalb von ${FIRST_TOKEN_TIMEOUT_MS / 1000} s"
+                    )
+                }
+                upstream().collect { event ->
+                    watchdog.cancel()
+                    send(event)
+                }
+                watchdog.cancel()
+            }
+        }
+        null
+    } catch (e: TimeoutCancellationException) {
+        LlmException(LlmException.Kind.TIMEOUT, "$provider: keine Antwort innerhalb von ${CALL_DEADLINE_MS / 1000} s", cause = e)
+    } catch (e: CancellationException) {
+        throw e
+    } catch (e: Exception) {
+        classify(e) ?: e
+    }
+
+    // ── Retry policy ──────────────────────────────────────────────────────────
+
+    private suspend fun backoffOrThrow(provider: String, failure: LlmException, attempt: Int, deadline: Long) {
+        if (!failure.retryable || attempt >= MAX_ATTEMPTS) throw failure
+        val wait = failure.retryAfterMs ?: jitteredBackoff(attempt)
+        // No point in waiting if the retry could not finish before the deadline anyway
+        if (wait + MIN_ATTEMPT_MS > remaining(deadline)) throw failure
+        Log.w(TAG, "$provider: ${failure.message} – retry $attempt/${MAX_ATTEMPTS - 1} in ${wait}ms")
+        delay(wait)
+    }
+
+    /** "Equal jitter": half the exponential step fixed, half random – avoids synchronized retries. */
+    private fun jitteredBackoff(attempt: Int): Long {
+        val step = (BASE_BACKOFF_MS shl (attempt - 1)).coerceAtMost(MAX_BACKOFF_MS)
+        return step / 2 + Random.nextLong(step / 2 + 1)
+    }
+
+    private fun remaining(deadline: Long) = (deadline - SystemClock.elapsedRealtime()).coerceAtLeast(1)
+
+    private fun breakerFor(provider: String) = breakers.getOrPut(provider) { CircuitBreaker() }
+
+    // ── Classification ────────────────────────────────────────────────────────
+
+    /** Map transport/HTTP failures to [LlmException]; null for everything else (e.g. config errors). */
+    private fun classify(e: Throwable): LlmException? = when (e) {
+        is LlmException -> e
+        is HttpException -> {
+            val code = e.code()
+            val kind = when (code) {
+                401, 403    -> LlmException.Kind.AUTH
+                408         -> LlmException.Kind.TIMEOUT
+                429         -> LlmException.Kind.RATE_LIMITED
+                529         -> LlmException.Kind.OVERLOADED
+                in 500..599 -> LlmException.Kind.SERVER
+                else        -> LlmException.Kind.BAD_REQUEST
+            }
+            val detail = runCatching { e.response()?.errorBody()?.string() }.getOrNull()
+                ?.take(MAX_ERROR_DETAIL_CHARS)
+            LlmException(
+                kind         = kind,
+                message      = "HTTP $code${detail?.let { ": $it" } ?: ""}",
+                statusCode   = code,
+                retryAfterMs = e.response()?.headers()?.retryAfterMs(),
+                cause        = e
+            )
+        }
+        is UnknownHostException   -> LlmException(LlmException.Kind.OFFLINE, e.message ?: "Host nicht erreichbar", cause = e)
+        is InterruptedIOException -> LlmException(LlmException.Kind.TIMEOUT, e.message ?: "Zeitüberschreitung", cause = e)
+        is IOException -> {
+            // Anthropic reports overload inside an already open stream as an `error` event
+            val overloaded = e.message?.contains("overloaded", ignoreCase = true) == true
+            LlmException(
+                kind    = if (overloaded) LlmException.Kind.OVERLOADED else LlmException.Kind.NETWORK,
+                message = e.message ?: e.javaClass.simpleName,
+                cause   = e
+            )
+        }
+        else -> null
+    }
+
+    // ── Circuit breaker ───────────────────────────────────────────────────────
+
+    /**
+     * Opens after [BREAKER_THRESHOLD] consecutive failed attempts and rejects calls for
+     * [BREAKER_OPEN_MS]. Afterwards calls pass again (half-open): the next success closes
+     * the breaker, the next failure re-opens it immediately.
+     */
+    private class CircuitBreaker {
+        private var consecutiveFailures = 0
+        private var openUntil = 0L
+
+        @Synchronized
+        fun check(provider: String) {
+            val wait = openUntil - SystemClock.elapsedRealtime()
+            if (wait > 0) {
+                throw LlmException(
+                    kind         = LlmException.Kind.CIRCUIT_OPEN,
+                    message      = "$provider vorübergehend gesperrt nach wiederholten Fehlern",
+                    retryAfterMs = wait
+                )
+            }
+        }
+
+        @Synchronized
+        fun onSuccess() {
+            consecutiveFailures = 0
+            openUntil = 0L
+        }
+
+        @Synchronized
+        fun onFailure(provider: String, failure: LlmException) {
+            // Only failures that say something about the endpoint's health count
+            if (!failure.retryable || failure.kind == LlmException.Kind.RATE_LIMITED) return
+            consecutiveFailures++
+            if (consecutiveFailures >= BREAKER_THRESHOLD) {
+                openUntil = SystemClock.elapsedRealtime() + BREAKER_OPEN_MS
+                Log.w(TAG, "$provider: circuit open for ${BREAKER_OPEN_MS}ms after $consecutiveFailures failures")
+            }
+        }
+    }
+
+    private companion object {
+        const val TAG = "LlmResilience"
+        const val CALL_DEADLINE_MS = 120_000L
+        const val FIRST_TOKEN_TIMEOUT_MS = 30_000L
+        const val MAX_ATTEMPTS = 4
+        const val BASE_BACKOFF_MS = 500L
+        const val MAX_BACKOFF_MS = 8_000L
+        /** A retry is only started if at least this much of the deadline is left after the wait. */
+        const val MIN_ATTEMPT_MS = 5_000L
+        const val BREAKER_THRESHOLD = 5
+        const val BREAKER_OPEN_MS = 30_000L
+        const val MAX_ERROR_DETAIL_CHARS = 300
+    }
+}
+
+/** `retry-after-ms` (Azure), `retry-after` in seconds or as HTTP date; null if absent. */
+internal fun Headers.retryAfterMs(): Long? {
+    this["retry-after-ms"]?.trim()?.toLongOrNull()?.let { return it }
+    val value = this["retry-after"]?.trim() ?: return null
+    value.toLongOrNull()?.let { return it * 1000 }
+    return getDate("retry-after")?.let { (it.time - System.currentTimeMillis()).coerceAtLeast(0) }
+}
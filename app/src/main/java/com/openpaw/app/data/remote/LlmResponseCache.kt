@@ -0,0 +1,230 @@
+package com.openpaw.app.data.remote
+
+import android.content.Context
+import android.util.Log
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonWriter
+import com.openpaw.app.data.remote.dto.ApiTool
+import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.update
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.security.MessageDigest
+import java.util.UUID
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Exact-match cache for LLM turns (opt-in, see SettingsRepository.responseCacheEnabled).
+ *
+ * Many requests repeat verbatim – "Stell einen Timer auf 10 Minuten" with the same system prompt,
+ * memory, tools and history yields the same first tool call. The key is a SHA-256 over provider,
+ * system prompt, system context, tool schemas and the normalised messages (whitespace collapsed,
+ * tool-call ids dropped). Entries live in a size-bounded in-memory LRU and optionally on disk.
+ *
+ * Conversations that contain live device observations (screen dumps, screenshots, clipboard or
+ * SMS reads) are never cached: the same request can legitimately need a different answer.
+ */
+@Singleton
+class LlmResponseCache @Inject constructor(
+    @ApplicationContext private val context: Context
+) {
+    data class Stats(
+        val hits: Int = 0,
+        val misses: Int = 0,
+        /** Sum of the original durations of all responses served from the cache. */
+        val savedLatencyMs: Long = 0
+    ) {
+        val hitRate: Float get() = if (hits + misses == 0) 0f else hits.toFloat() / (hits + misses)
+    }
+
+    private class Entry(val response: LlmResponse, val storedAt: Long)
+
+    private val memory = object : LinkedHashMap<String, Entry>(MEMORY_ENTRIES, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Entry>?) = size > MEMORY_ENTRIES
+    }
+
+    private val diskDir: File by lazy { File(context.cacheDir, DISK_DIR) }
+
+    private val _stats = MutableStateFlow(Stats())
+    val stats: StateFlow<Stats> = _stats.asStateFlow()
+
+    /** Cache key for a request, or null if this request must not be cached. */
+    fun keyFor(
+        provider: String,
+        messages: List<ChatMessage>,
+        systemPrompt: String,
+        tools: List<ApiTool>,
+        systemContext: String
+    ): String? {
+        if (messages.any { it.observesLiveState() }) return null
+        val digest = MessageDigest.getInstance("SHA-256")
+        fun add(value: String) {
+            digest.update(value.toByteArray(Charsets.UTF_8))
+            digest.update(0)   // separator – "ab"+"c" ≠ "a"+"bc"
+        }
+        add(provider)
+        add(systemPrompt)
+        add(systemContext)
+        add(RawJson.write { AnthropicJson.writeTools(it, tools, cacheBreakpointOnLast = false) }.json)
+        messages.forEach { message ->
+            add(message.role.name)
+            message.parts.forEach { add(it.normalized()) }
+        }
+        return digest.digest().joinToString("") { "%02x".format(it) }
+    }
+
+    /** Look up [key]; a hit returns the response with fresh tool-call ids. */
+    suspend fun get(key: String, useDisk: Boolean): LlmResponse? {
+        val now = System.currentTimeMillis()
+        val entry = synchronized(memory) { memory[key] }?.takeIf { now - it.storedAt < TTL_MS }
+            ?: if (useDisk) readDisk(key, now)?.also { synchronized(memory) { memory[key] = it } } else null
+
+        if (entry == null) {
+            _stats.update { it.copy(misses = it.misses + 1) }
+            return null
+        }
+        val saved = entry.response.durationMs ?: 0L
+        _stats.update { it.copy(hits = it.hits + 1, savedLatencyMs = it.savedLatencyMs + saved) }
+        Log.d(TAG, "Hit ${key.take(12)} – saved ${saved}ms (hit rate ${"%.0f".format(_stats.value.hitRate * 100)}%)")
+        return entry.response.copy(
+            // Tool-call ids must stay unique within a conversation
+            toolCalls = entry.response.toolCalls.map { it.copy(id = "cached_" + UUID.randomUUID().toString().replace("-", "")) },
+            timeToFirstTokenMs = 0,
+            durationMs = 0,
+            provider = CACHE_PROVIDER
+        )
+    }
+
+    suspend fun put(key: String, response: LlmResponse, useDisk: Boolean) {
+        // Only complete, meaningful turns are worth replaying
+        if (response.textContent.isNullOrBlank() && response.toolCalls.isEmpty()) return
+        if (response.stopReason == "max_tokens" || response.stopReason == "length") return
+        val entry = Entry(response, System.currentTimeMillis())
+        synchronized(memory) { memory[key] = entry }
+        if (useDisk) writeDisk(key, entry)
+    }
+
+    fun clear() {
+        synchronized(memory) { memory.clear() }
+        diskDir.listFiles()?.forEach { it.delete() }
+        _stats.value = Stats()
+    }
+
+    // ── Disk tier ─────────────────────────────────────────────────────────────
+
+    private suspend fun readDisk(key: String, now: Long): Entry? = withContext(Dispatchers.IO) {
+        val file = File(diskDir, "$key.json")
+        if (!file.exists()) return@withContext null
+        if (now - file.lastModified() >= TTL_MS) {
+            file.delete()
+            return@withContext null
+        }
+        try {
+            file.bufferedReader().use { JsonReader(it).use(::readEntry) }
+        } catch (e: Exception) {
+            file.delete()
+            null
+        }
+    }
+
+    private suspend fun writeDisk(key: String, entry: Entry) = withContext(Dispatchers.IO) {
+        try {
+            diskDir.mkdirs()
+            File(diskDir, "$key.json").bufferedWriter().use { JsonWriter(it).use { w -> writeEntry(w, entry) } }
+            // Bound the disk tier: drop the oldest files
+            val files = diskDir.listFiles() ?: return@withContext
+            if (files.size > DISK_ENTRIES) {
+                files.sortedBy { it.lastModified() }.take(files.size - DISK_ENTRIES).forEach { it.delete() }
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "Disk write failed: ${e.message}")
+        }
+    }
+
+    private fun writeEntry(w: JsonWriter, entry: Entry) {
+        val r = entry.response
+        w.beginObject()
+        w.field("storedAt", entry.storedAt)
+        w.field("text", r.textContent)
+        w.field("stopReason", r.stopReason)
+        w.field("durationMs", r.durationMs)
+        w.name("toolCalls").beginArray()
+        r.toolCalls.forEach { call ->
+            w.beginObject()
+            w.field("id", call.id)
+            w.field("name", call.toolName)
+            w.name("input")
+            JsonValues.write(w, call.input)
+            w.endObject()
+        }
+        w.endArray()
+        w.endObject()
+    }
+
+    private fun readEntry(r: JsonReader): Entry {
+        var storedAt = 0L
+        var text: String? = null
+        var stopReason: String? = null
+        var durationMs: Long? = null
+        var toolCalls: List<ToolCallRequest> = emptyList()
+        r.forEachField { name ->
+            when (name) {
+                "storedAt"   -> storedAt = nextLongOrNull() ?: 0L
+                "text"       -> text = nextStringOrNull()
+                "stopReason" -> stopReason = nextStringOrNull()
+                "durationMs" -> durationMs = nextLongOrNull()
+                "toolCalls"  -> toolCalls = readList {
+                    var id = ""
+                    var toolName = ""
+                    var input: Map<String, Any> = emptyMap()
+                    forEachField { field ->
+                        when (field) {
+                            "id"    -> id = nextStringOrNull() ?: ""
+                            "name"  -> toolName = nextStringOrNull() ?: ""
+                            "input" -> input = JsonValues.readObject(this)
+                            else    -> skipValue()
+                        }
+                    }
+                    ToolCallRequest(id, toolName, input)
+                }
+                else         -> skipValue()
+            }
+        }
+        return Entry(LlmResponse(text, toolCalls, stopReason, durationMs = durationMs), storedAt)
+    }
+
+    // ── Normalisation ─────────────────────────────────────────────────────────
+
+    private fun ChatMessage.observesLiveState(): Boolean = parts.any { part ->
+        part is ChatPart.Image ||
+            (part is ChatPart.ToolResult && part.toolName in LIVE_STATE_TOOLS) ||
+            (part is ChatPart.ToolCall && part.name in LIVE_STATE_TOOLS)
+    }
+
+    private fun ChatPart.normalized(): String = when (this) {
+        is ChatPart.Text       -> "T:" + text.collapseWhitespace()
+        // Ids are random per call – only name and arguments matter
+        is ChatPart.ToolCall   -> "C:$name:" + JsonValues.toJson(input.toSortedMap())
+        is ChatPart.ToolResult -> "R:$toolName:$isError:" + content.collapseWhitespace()
+        is ChatPart.Image      -> "I:$mediaType:${base64Data.hashCode()}"
+    }
+
+    private fun String.collapseWhitespace() = trim().replace(WHITESPACE, " ")
+
+    private companion object {
+        const val TAG = "LlmResponseCache"
+        const val CACHE_PROVIDER = "cache"
+        const val DISK_DIR = "llm_response_cache"
+        const val MEMORY_ENTRIES = 64
+        const val DISK_ENTRIES = 256
+        const val TTL_MS = 24 * 60 * 60 * 1000L
+        val WHITESPACE = Regex("\\s+")
+        /** Tools whose output reflects live device state (screen, clipboard, messages). */
+        val LIVE_STATE_TOOLS = setOf("control_screen", "clipboard", "sms")
+    }
+}
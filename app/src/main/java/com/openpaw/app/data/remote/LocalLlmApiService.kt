@@ -0,0 +1,38 @@
+package com.openpaw.app.data.remote
+
+import com.openpaw.app.data.remote.dto.AzureChatRequest
+import com.openpaw.app.data.remote.dto.AzureChatResponse
+import okhttp3.ResponseBody
+import retrofit2.http.Body
+import retrofit2.http.Header
+import retrofit2.http.POST
+import retrofit2.http.Streaming
+import retrofit2.http.Url
+
+/**
+ * Retrofit service for OpenAI-compatible servers (llama.cpp `llama-server`, Ollama, vLLM,
+ * LM Studio, …). Uses @Url – the full `{baseUrl}/v1/chat/completions` is passed at call time.
+ *
+ * Request and response bodies share the OpenAI chat-completions DTOs with Azure.
+ * Null headers are omitted by Retrofit.
+ */
+interface LocalLlmApiService {
+
+    @POST
+    suspend fun chatCompletion(
+        @Url url: String,
+        @Header("Authorization") authorization: String?,
+        @Header("X-Session-Id") sessionId: String?,
+        @Body request: AzureChatRequest
+    ): AzureChatResponse
+
+    /** Same endpoint with `stream=true`; the SSE body must be read incrementally and closed. */
+    @Streaming
+    @POST
+    suspend fun chatCompletionStream(
+        @Url url: String,
+        @Header("Authorization") authorization: String?,
+        @Header("X-Session-Id") sessionId: String?,
+        @Body request: AzureChatRequest
+    ): ResponseBody
+}
@@ -1,47 +1,126 @@
 package com.openpaw.app.data.remote
 
-import com.openpaw.app.data.remote.dto.ApiMessage
+import android.os.SystemClock
 import com.openpaw.app.data.remote.dto.ApiTool
+import com.openpaw.app.data.remote.dto.AzureChatRequest
+import com.openpaw.app.data.remote.dto.AzureStreamOptions
+import com.openpaw.app.data.repository.SettingsRepository
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
 import javax.inject.Inject
 import javax.inject.Singleton
 
 /**
- * Stub for a future on-device LLM (Gemini Nano, llama.cpp, etc.).
+ * LlmProvider for a self-hosted, OpenAI-compatible server – on the device itself
+ * (llama.cpp `llama-server` in Termux, Ollama), in the LAN, or a local stand-in for testing
+ * the whole agent loop offline.
  *
- * To implement:
- *  - Load the model from assets or internal storage
- *  - Run inference via llama.cpp JNI or MediaPipe LLM Inference API
- *  - Map the output to LlmResponse
+ *   URL : {baseUrl}/v1/chat/completions     ("/v1" is not duplicated if the base URL has it)
+ *   Auth: optional "Authorization: Bearer …"
  *
- * The interface is identical to AnthropicLlmProvider – just swap the
- * Hilt binding in di/LlmModule.kt when ready.
+ * Session affinity: every turn of a conversation carries the same session id – as `user` in
+ * the body and as `X-Session-Id` header – so routing proxies keep a session on one replica,
+ * and `cache_prompt` lets llama.cpp reuse the KV cache of the unchanged prompt prefix
+ * between agent-loop iterations instead of re-evaluating the whole history.
+ *
+ * Local servers report no rate limits, so calls are not paced by [LlmRateLimiter]. Both
+ * [ModelTier]s are served by the configured model.
  */
 @Singleton
-class LocalLlmProvider @Inject constructor() : LlmProvider {
+class LocalLlmProvider @Inject constructor(
+    private val apiService: LocalLlmApiService,
+    private val settingsRepository: SettingsRepository
+) : LlmProvider {
+
+    override val name = "Local LLM"
 
-    override val name = "Local LLM (not yet implemented)"
+    private val encoder = OpenAiMessageEncoder()
 
     override suspend fun complete(
-        messages: List<ApiMessage>,
+        messages: List<ChatMessage>,
         systemPrompt: String,
-        tools: List<ApiTool>
+        tools: List<ApiTool>,
+        systemContext: String,
+        sessionId: String?,
+        modelTier: ModelTier
     ): LlmResponse {
-        // TODO: Load model, run inference, parse result
-        // Suggested libraries:
-        //   - Ollama Android: run Ollama server on device via Termux API
-        //   - llama.cpp Android bindings: https://github.com/ggerganov/llama.cpp
-        //   - MediaPipe LLM Inference API (Gemini Nano on Pixel 8+)
-        throw NotImplementedError(
-            "Local LLM not yet implemented. Use AnthropicLlmProvider. " +
-            "See LocalLlmProvider.kt for implementation hints."
+        val startedAt = SystemClock.elapsedRealtime()
+        val response = apiService.chatCompletion(
+            url = chatCompletionsUrl(),
+            authorization = authorization(),
+            sessionId = sessionId,
+            request = buildRequest(messages, systemPrompt, systemContext, tools, sessionId)
         )
+        return response.toLlmResponse(durationMs = SystemClock.elapsedRealtime() - startedAt)
+    }
+
+    /** Streaming completion; chunks are reassembled by [OpenAiStreamAssembler]. */
+    override fun stream(
+        messages: List<ChatMessage>,
+        systemPrompt: String,
+        tools: List<ApiTool>,
+        systemContext: String,
+        sessionId: String?,
+        modelTier: ModelTier
+    ): Flow<LlmStreamEvent> = flow {
+        val startedAt = SystemClock.elapsedRealtime()
+        val body = apiService.chatCompletionStream(
+            url = chatCompletionsUrl(),
+            authorization = authorization(),
+            sessionId = sessionId,
+            request = buildRequest(messages, systemPrompt, systemContext, tools, sessionId).copy(
+                stream = true,
+                streamOptions = AzureStreamOptions()
+            )
+        )
+
+        val assembler = OpenAiStreamAssembler()
+        body.readCancellable { source ->
+            source.forEachSseEvent { _, data ->
+                if (data == "[DONE]") return@forEachSseEvent
+                assembler.accept(AzureJson.readChunk(data), SystemClock.elapsedRealtime() - startedAt)
+                    .forEach { out -> emit(out) }
+            }
+        }
+        assembler.flushToolCalls().forEach { emit(it) }
+
+        emit(LlmStreamEvent.Completed(assembler.build(SystemClock.elapsedRealtime() - startedAt)))
+    }.flowOn(Dispatchers.IO)
+
+    // ── Private helpers ───────────────────────────────────────────────────────
+
+    private suspend fun chatCompletionsUrl(): String {
+        val base = settingsRepository.localLlmBaseUrl.first().trim().trimEnd('/')
+        require(base.isNotBlank()) { "Adresse des lokalen LLM-Servers nicht gesetzt. Bitte in den Einstellungen eintragen." }
+        return if (base.endsWith("/v1")) "$base/chat/completions" else "$base/v1/chat/completions"
     }
 
-    override suspend fun buildContinuationMessages(
-        response: LlmResponse,
-        toolResults: List<ToolResultEntry>
-    ): List<ApiMessage> {
-        // Same format as Anthropic (tool_result blocks) when implemented
-        throw NotImplementedError("Local LLM not yet implemented.")
+    private suspend fun authorization(): String? =
+        settingsRepository.localLlmApiKey.first().trim().takeIf { it.isNotEmpty() }?.let { "Bearer $it" }
+
+    private suspend fun buildRequest(
+        messages: List<ChatMessage>,
+        systemPrompt: String,
+        systemContext: String,
+        tools: List<ApiTool>,
+        sessionId: String?
+    ): AzureChatRequest {
+        // Stable prompt first, volatile context last → the longest possible prefix is reused
+        val system = systemPrompt + systemContext
+        val chatMessages = buildList {
+            if (system.isNotBlank()) add(encoder.system(system))
+            addAll(encoder.encode(messages))
+        }
+
+        return AzureChatRequest(
+            model       = settingsRepository.localLlmModel.first().trim().ifEmpty { null },
+            messages    = chatMessages,
+            tools       = encoder.encodeTools(tools),
+            user        = sessionId,
+            cachePrompt = true
+        )
     }
 }
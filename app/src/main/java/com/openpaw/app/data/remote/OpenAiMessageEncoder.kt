@@ -0,0 +1,117 @@
+package com.openpaw.app.data.remote
+
+import com.google.gson.stream.JsonWriter
+import com.openpaw.app.data.remote.dto.ApiTool
+
+/**
+ * Encodes [ChatMessage]s into the OpenAI chat-completions wire format (Azure OpenAI and
+ * OpenAI-compatible servers):
+ *
+ *   [user]       content = "text"  or  [{type:text} | {type:image_url}]
+ *   [assistant]  content = text|null, tool_calls = [{id, type:function, function:{name, arguments}}]
+ *   [tool]       tool_call_id, content   ← one message per ChatPart.ToolResult
+ *
+ * Encoded messages are memoized on the [ChatMessage]; the tool list is memoized here.
+ */
+internal class OpenAiMessageEncoder {
+
+    @Volatile private var toolsCache: Pair<List<ApiTool>, RawJson>? = null
+
+    fun encode(messages: List<ChatMessage>): List<RawJson> =
+        messages.flatMap { it.encoded(WIRE_FORMAT, ::encodeMessage) }
+
+    fun system(text: String): RawJson = RawJson.write { w ->
+        w.beginObject()
+        w.name("role").value("system")
+        w.name("content").value(text)
+        w.endObject()
+    }
+
+    /** Anthropic-style tool definitions → OpenAI function-calling format (JSON array). */
+    fun encodeTools(tools: List<ApiTool>): RawJson? {
+        if (tools.isEmpty()) return null
+        toolsCache?.let { (cachedFor, json) -> if (cachedFor == tools) return json }
+        return RawJson.write { AzureJson.writeTools(it, tools) }.also { toolsCache = tools to it }
+    }
+
+    private fun encodeMessage(message: ChatMessage): List<RawJson> = when (message.role) {
+        ChatMessage.Role.ASSISTANT -> listOf(encodeAssistant(message))
+        ChatMessage.Role.USER      -> buildList {
+            // Tool results must directly follow the assistant tool_calls message
+            message.parts.filterIsInstance<ChatPart.ToolResult>().forEach { add(encodeToolResult(it)) }
+            val rest = message.parts.filter { it !is ChatPart.ToolResult }
+            if (rest.isNotEmpty()) add(encodeUser(rest))
+        }
+    }
+
+    private fun encodeAssistant(message: ChatMessage): RawJson = RawJson.write { w ->
+        w.beginObject()
+        w.name("role").value("assistant")
+        val calls = message.parts.filterIsInstance<ChatPart.ToolCall>()
+        val text = message.text
+        if (text != null || calls.isEmpty()) w.name("content").value(text ?: "")
+        if (calls.isNotEmpty()) {
+            w.name("tool_calls").beginArray()
+            calls.forEach { call ->
+                w.beginObject()
+                w.name("id").value(call.id)
+                w.name("type").value("function")
+                w.name("function").beginObject()
+                w.name("name").value(call.name)
+                // arguments is a JSON *string*, not an object
+                w.name("arguments").value(JsonValues.toJson(call.input))
+                w.endObject()
+                w.endObject()
+            }
+            w.endArray()
+        }
+        w.endObject()
+    }
+
+    private fun encodeToolResult(result: ChatPart.ToolResult): RawJson = RawJson.write { w ->
+        w.beginObject()
+        w.name("role").value("tool")
+        w.name("tool_call_id").value(result.toolCallId)
+        w.name("content").value(result.content)
+        w.endObject()
+    }
+
+    private fun encodeUser(parts: List<ChatPart>): RawJson = RawJson.write { w ->
+        w.beginObject()
+        w.name("role").value("user")
+        w.name("content")
+        val single = parts.singleOrNull()
+        if (single is ChatPart.Text) {
+            w.value(single.text)
+        } else {
+            w.beginArray()
+            parts.forEach { part -> writeContentPart(w, part) }
+            w.endArray()
+        }
+        w.endObject()
+    }
+
+    private fun writeContentPart(w: JsonWriter, part: ChatPart) {
+        when (part) {
+            is ChatPart.Text -> {
+                w.beginObject()
+                w.name("type").value("text")
+                w.name("text").value(part.text)
+                w.endObject()
+            }
+            is ChatPart.Image -> {
+                w.beginObject()
+                w.name("type").value("image_url")
+                w.name("image_url").beginObject()
+                w.name("url").value("data:${part.mediaType};base64,${part.base64Data}")
+                w.endObject()
+                w.endObject()
+            }
+            is ChatPart.ToolCall, is ChatPart.ToolResult -> Unit   // not valid in a user message
+        }
+    }
+
+    private companion object {
+        const val WIRE_FORMAT = "openai"
+    }
+}
@@ -0,0 +1,128 @@
+package com.openpaw.app.data.remote
+
+import com.openpaw.app.data.remote.dto.AzureChatChunk
+import com.openpaw.app.data.remote.dto.AzureChatResponse
+import com.openpaw.app.data.remote.dto.AzureToolCall
+import com.openpaw.app.data.remote.dto.AzureToolCallFunction
+import com.openpaw.app.data.remote.dto.AzureUsage
+import java.util.UUID
+
+/**
+ * Response mapping shared by every OpenAI chat-completions backend (Azure OpenAI and
+ * OpenAI-compatible servers such as llama.cpp, Ollama, vLLM or LM Studio).
+ */
+
+/** Map a non-streaming chat completion (first choice) to an [LlmResponse]. */
+internal fun AzureChatResponse.toLlmResponse(durationMs: Long): LlmResponse {
+    val choice = choices.firstOrNull()
+        ?: return LlmResponse(textContent = null, stopReason = "no_choices")
+
+    return LlmResponse(
+        textContent = choice.message.content?.takeIf { it.isNotBlank() },
+        // Arguments are a JSON *string* that needs to be deserialized
+        toolCalls = choice.message.toolCalls?.map { it.toToolCallRequest() } ?: emptyList(),
+        stopReason = choice.finishReason,
+        usage = usage?.toLlmUsage(),
+        durationMs = durationMs
+    )
+}
+
+internal fun AzureUsage.toLlmUsage() = LlmUsage(
+    inputTokens     = promptTokens,
+    outputTokens    = completionTokens,
+    cacheReadTokens = promptTokensDetails?.cachedTokens ?: 0
+)
+
+/** Tool arguments arrive as a JSON string – deserialized to a map (empty on malformed JSON). */
+private fun AzureToolCall.toToolCallRequest() = ToolCallRequest(
+    id = id,
+    toolName = function.name,
+    input = JsonValues.parseObject(function.arguments)
+)
+
+/**
+ * Incrementally rebuilds a chat completion from its SSE chunks (first choice only).
+ *
+ * Text deltas are forwarded immediately. Tool calls arrive as `tool_calls[]` fragments keyed
+ * by index; the arguments string of each index is concatenated, and a call is emitted as soon
+ * as it is complete – i.e. when a fragment for a higher index appears (calls are streamed one
+ * after another) or the choice finishes. Usage comes from the final usage-only chunk.
+ */
+internal class OpenAiStreamAssembler {
+
+    private class PendingCall {
+        var id: String? = null
+        var name: String? = null
+        val arguments = StringBuilder()
+        var done: AzureToolCall? = null
+    }
+
+    private val text = StringBuilder()
+    private val calls = sortedMapOf<Int, PendingCall>()
+    private var finishReason: String? = null
+    private var usage: AzureUsage? = null
+    private var firstTokenMs: Long? = null
+
+    fun accept(chunk: AzureChatChunk, elapsedMs: Long): List<LlmStreamEvent> {
+        chunk.usage?.let { usage = it }
+        val choice = chunk.choices?.firstOrNull { it.index == 0 } ?: return emptyList()
+        val out = mutableListOf<LlmStreamEvent>()
+
+        choice.delta?.content?.takeIf { it.isNotEmpty() }?.let { delta ->
+            if (firstTokenMs == null) firstTokenMs = elapsedMs
+            text.append(delta)
+            out += LlmStreamEvent.TextDelta(delta)
+        }
+
+        choice.delta?.toolCalls?.forEach { fragment ->
+            if (firstTokenMs == null) firstTokenMs = elapsedMs
+            // A fragment for a new index means every lower index is complete
+            out += completeCalls(below = fragment.index)
+            val call = calls.getOrPut(fragment.index) { PendingCall() }
+            fragment.id?.let { call.id = it }
+            fragment.function?.name?.let { call.name = it }
+            fragment.function?.arguments?.let { call.arguments.append(it) }
+        }
+
+        choice.finishReason?.let {
+            finishReason = it
+            out += flushToolCalls()
+        }
+        return out
+    }
+
+    /** Emit every tool call that has not been emitted yet. */
+    fun flushToolCalls(): List<LlmStreamEvent> = completeCalls(below = Int.MAX_VALUE)
+
+    fun build(elapsedMs: Long): LlmResponse {
+        val toolCalls = calls.values.mapNotNull { it.done ?: finish(it) }
+        val content = text.toString()
+        return LlmResponse(
+            textContent = content.takeIf { it.isNotBlank() },
+            toolCalls = toolCalls.map { it.toToolCallRequest() },
+            stopReason = finishReason,
+            usage = usage?.toLlmUsage(),
+            timeToFirstTokenMs = firstTokenMs,
+            durationMs = elapsedMs
+        )
+    }
+
+    private fun completeCalls(below: Int): List<LlmStreamEvent> =
+        calls.filter { (index, call) -> index < below && call.done == null }
+            .values
+            .mapNotNull { call ->
+                val done = finish(call) ?: return@mapNotNull null
+                call.done = done
+                LlmStreamEvent.ToolCallReady(done.toToolCallRequest())
+            }
+
+    private fun finish(call: PendingCall): AzureToolCall? {
+        val name = call.name ?: return null
+        return AzureToolCall(
+            // Some local servers omit tool-call ids – the id must still be unique in the conversation
+            id = call.id?.takeIf { it.isNotBlank() } ?: "call_" + UUID.randomUUID().toString().replace("-", ""),
+            type = "function",
+            function = AzureToolCallFunction(name = name, arguments = call.arguments.toString().ifBlank { "{}" })
+        )
+    }
+}
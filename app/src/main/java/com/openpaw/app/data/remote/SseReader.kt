@@ -0,0 +1,76 @@
+package com.openpaw.app.data.remote
+
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.awaitCancellation
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.launch
+import okhttp3.ResponseBody
+import okio.BufferedSource
+import java.io.IOException
+
+/**
+ * Minimal Server-Sent-Events reader used by the streaming providers.
+ *
+ * Reads [this] source line by line and calls [onEvent] for every complete event
+ * (terminated by a blank line). Only the current event is held in memory – the
+ * response body is never buffered as a whole.
+ *
+ *   event: content_block_delta            ← optional event name
+ *   data: {"type":"content_block_delta"}  ← payload (multiple data lines are joined with \n)
+ *                                         ← blank line = dispatch
+ */
+internal suspend fun BufferedSource.forEachSseEvent(
+    onEvent: suspend (event: String?, data: String) -> Unit
+) {
+    var eventName: String? = null
+    val data = StringBuilder()
+
+    while (true) {
+        currentCoroutineContext().ensureActive()
+        val line = readUtf8Line() ?: break
+        when {
+            line.isEmpty() -> {
+                if (data.isNotEmpty()) onEvent(eventName, data.toString())
+                eventName = null
+                data.setLength(0)
+            }
+            line.startsWith(":")      -> Unit   // comment / keep-alive
+            line.startsWith("event:") -> eventName = line.substringAfter(':').trim()
+            line.startsWith("data:")  -> {
+                if (data.isNotEmpty()) data.append('\n')
+                data.append(line.substringAfter(':').removePrefix(" "))
+            }
+        }
+    }
+    // Stream ended without a trailing blank line
+    if (data.isNotEmpty()) onEvent(eventName, data.toString())
+}
+
+/**
+ * Read a streaming [ResponseBody] so that cancelling the calling coroutine aborts the read.
+ *
+ * A blocking socket read does not react to coroutine cancellation – a stopped agent run
+ * would keep the connection (and the token stream) alive until the server sends the next
+ * event. A watcher closes the body as soon as the caller is cancelled; the pending read then
+ * fails immediately and the failure is reported as the cancellation it is.
+ */
+internal suspend fun <T> ResponseBody.readCancellable(block: suspend (BufferedSource) -> T): T = coroutineScope {
+    val body = this@readCancellable
+    val closer = launch(start = CoroutineStart.UNDISPATCHED) {
+        try {
+            awaitCancellation()
+        } finally {
+            body.close()
+        }
+    }
+    try {
+        body.use { block(it.source()) }
+    } catch (e: IOException) {
+        currentCoroutineContext().ensureActive()
+        throw e
+    } finally {
+        closer.cancel()
+    }
+}
@@ -1,33 +1,43 @@
 package com.openpaw.app.data.remote.dto
 
 import com.google.gson.annotations.SerializedName
+import com.openpaw.app.data.remote.RawJson
 
 // ─── Request DTOs ───────────────────────────────────────────────────────────
 
 data class AnthropicRequest(
     val model: String = "claude-haiku-4-5-20251001",
     @SerializedName("max_tokens") val maxTokens: Int = 1024,
-    val system: String,
-    val messages: List<ApiMessage>,
-    val tools: List<ApiTool>? = null
+    /** System prompt as text blocks so a cache breakpoint can sit between stable and volatile parts. */
+    val system: List<SystemBlock>,
+    /** Pre-encoded messages (see ChatMessage.encoded) – spliced into the body verbatim. */
+    val messages: List<RawJson>,
+    /** Pre-encoded JSON array of [ApiTool]s. */
+    val tools: RawJson? = null,
+    /** true = Server-Sent-Events response (see [AnthropicStreamEvent]); null is omitted. */
+    val stream: Boolean? = null
 )
 
-data class ApiMessage(
-    val role: String,   // "user" | "assistant" | "tool"
-    val content: Any,   // String or List<Map<String,Any>> (structured Anthropic content blocks)
-    // ── Azure-only continuation fields ──────────────────────────────────────
-    // These are null for Anthropic messages (Anthropic API ignores unknown fields).
-    /** Set on role="tool" messages (Azure) – references the corresponding tool_call id. */
-    val toolCallId: String? = null,
-    /** Set on role="assistant" when the LLM returned tool calls (Azure).
-     *  Carries the raw AzureToolCall list so it can be re-serialized correctly. */
-    val azureToolCalls: List<Any>? = null
+data class SystemBlock(
+    val type: String = "text",
+    val text: String,
+    @SerializedName("cache_control") val cacheControl: CacheControl? = null
+)
+
+/**
+ * Prompt-caching breakpoint: everything up to and including the marked block
+ * (tools → system → messages) is cached and re-used by the next identical prefix.
+ */
+data class CacheControl(
+    val type: String = "ephemeral"
 )
 
 data class ApiTool(
     val name: String,
     val description: String,
-    @SerializedName("input_schema") val inputSchema: ApiToolSchema
+    @SerializedName("input_schema") val inputSchema: ApiToolSchema,
+    /** Set on the last tool only (Anthropic) – caches the whole tool list. Ignored by Azure mapping. */
+    @SerializedName("cache_control") val cacheControl: CacheControl? = null
 )
 
 data class ApiToolSchema(
@@ -63,7 +73,39 @@ data class ContentBlock(
 
 data class Usage(
     @SerializedName("input_tokens") val inputTokens: Int,
-    @SerializedName("output_tokens") val outputTokens: Int
+    @SerializedName("output_tokens") val outputTokens: Int,
+    @SerializedName("cache_creation_input_tokens") val cacheCreationInputTokens: Int? = null,
+    @SerializedName("cache_read_input_tokens") val cacheReadInputTokens: Int? = null
+)
+
+// ─── Streaming DTOs (stream=true) ───────────────────────────────────────────
+
+/**
+ * One SSE `data:` payload. Which fields are set depends on [type]:
+ *
+ *   message_start        → message (empty content, input usage)
+ *   content_block_start  → index, contentBlock (text: "", tool_use: id + name + empty input)
+ *   content_block_delta  → index, delta (text_delta | input_json_delta)
+ *   content_block_stop   → index
+ *   message_delta        → delta.stopReason, usage (output tokens)
+ *   message_stop / ping  → nothing
+ *   error                → error
+ */
+data class AnthropicStreamEvent(
+    val type: String,
+    val index: Int?,
+    val message: AnthropicResponse?,
+    @SerializedName("content_block") val contentBlock: ContentBlock?,
+    val delta: AnthropicStreamDelta?,
+    val usage: Usage?,
+    val error: ErrorDetail?
+)
+
+data class AnthropicStreamDelta(
+    val type: String?,                                      // "text_delta" | "input_json_delta"
+    val text: String?,                                      // for text_delta
+    @SerializedName("partial_json") val partialJson: String?, // for input_json_delta
+    @SerializedName("stop_reason") val stopReason: String?  // for message_delta
 )
 
 data class AnthropicError(
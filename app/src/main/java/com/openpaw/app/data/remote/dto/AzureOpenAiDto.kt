@@ -1,6 +1,7 @@
 package com.openpaw.app.data.remote.dto
 
 import com.google.gson.annotations.SerializedName
+import com.openpaw.app.data.remote.RawJson
 
 // ─── Request ────────────────────────────────────────────────────────────────
 
@@ -13,44 +14,26 @@ import com.google.gson.annotations.SerializedName
 data class AzureChatRequest(
     /** Required for Azure AI Foundry endpoints; omit (null) for Classic Azure OpenAI. */
     val model: String? = null,
-    val messages: List<AzureChatMessage>,
+    /** Pre-encoded messages (see OpenAiMessageEncoder) – spliced into the body verbatim. */
+    val messages: List<RawJson>,
     @SerializedName("max_tokens") val maxTokens: Int = 1024,
     val temperature: Float = 0.7f,
-    /** Optional tool definitions – OpenAI function-calling format. */
-    val tools: List<AzureTool>? = null,
+    /** Optional tool definitions – pre-encoded JSON array in function-calling format (see AzureJson.writeTools). */
+    val tools: RawJson? = null,
     /** "auto" = LLM decides, "none" = never, or specific tool name. */
-    @SerializedName("tool_choice") val toolChoice: String? = if (tools.isNullOrEmpty()) null else "auto"
+    @SerializedName("tool_choice") val toolChoice: String? = if (tools == null) null else "auto",
+    /** true = Server-Sent-Events response (see [AzureChatChunk]); null is omitted. */
+    val stream: Boolean? = null,
+    /** Asks for a final usage-only chunk when streaming (not supported by every api-version). */
+    @SerializedName("stream_options") val streamOptions: AzureStreamOptions? = null,
+    /** End-user / session id; OpenAI-compatible servers use it to route a session to the same cache. */
+    val user: String? = null,
+    /** llama.cpp: reuse the KV cache of the common prompt prefix (ignored by other servers). */
+    @SerializedName("cache_prompt") val cachePrompt: Boolean? = null
 )
 
-data class AzureChatMessage(
-    val role: String,       // "system" | "user" | "assistant" | "tool"
-    val content: String?,   // null when role="assistant" with tool_calls
-    /** Filled when role="assistant" and LLM requested tool calls. */
-    @SerializedName("tool_calls") val toolCalls: List<AzureToolCall>? = null,
-    /** Filled when role="tool" – references the tool_call id. */
-    @SerializedName("tool_call_id") val toolCallId: String? = null
-)
-
-data class AzureTool(
-    val type: String = "function",
-    val function: AzureFunction
-)
-
-data class AzureFunction(
-    val name: String,
-    val description: String,
-    val parameters: AzureFunctionParameters
-)
-
-data class AzureFunctionParameters(
-    val type: String = "object",
-    val properties: Map<String, AzureFunctionProperty>,
-    val required: List<String> = emptyList()
-)
-
-data class AzureFunctionProperty(
-    val type: String,
-    val description: String
+data class AzureStreamOptions(
+    @SerializedName("include_usage") val includeUsage: Boolean = true
 )
 
 // ─── Response ────────────────────────────────────────────────────────────────
@@ -86,7 +69,7 @@ data class AzureToolCall(
 
 /**
  * IMPORTANT: [arguments] is a JSON **string**, not an object.
- * Must be deserialized with Gson before passing to ToolRegistry.
+ * Must be deserialized (JsonValues.parseObject) before passing to ToolRegistry.
  */
 data class AzureToolCallFunction(
     val name: String,
@@ -96,5 +79,51 @@ data class AzureToolCallFunction(
 data class AzureUsage(
     @SerializedName("prompt_tokens") val promptTokens: Int,
     @SerializedName("completion_tokens") val completionTokens: Int,
-    @SerializedName("total_tokens") val totalTokens: Int
+    @SerializedName("total_tokens") val totalTokens: Int,
+    /** Azure caches prompt prefixes ≥1024 tokens automatically; hits are reported here. */
+    @SerializedName("prompt_tokens_details") val promptTokensDetails: AzurePromptTokensDetails? = null
+)
+
+data class AzurePromptTokensDetails(
+    @SerializedName("cached_tokens") val cachedTokens: Int? = null
+)
+
+// ─── Streaming (stream=true) ─────────────────────────────────────────────────
+
+/**
+ * One SSE `data:` chunk. The stream ends with a literal `data: [DONE]`.
+ * With include_usage, the last chunk has an empty [choices] list and only [usage] set.
+ */
+data class AzureChatChunk(
+    val id: String?,
+    val choices: List<AzureChunkChoice>?,
+    val usage: AzureUsage?
+)
+
+data class AzureChunkChoice(
+    val index: Int,
+    val delta: AzureChunkDelta?,
+    @SerializedName("finish_reason") val finishReason: String?
+)
+
+data class AzureChunkDelta(
+    val role: String?,
+    val content: String?,
+    @SerializedName("tool_calls") val toolCalls: List<AzureToolCallDelta>?
+)
+
+/**
+ * Fragment of a streamed tool call. The first fragment for an [index] carries [id] and
+ * function name; later ones only append to function.arguments.
+ */
+data class AzureToolCallDelta(
+    val index: Int,
+    val id: String?,
+    val type: String?,
+    val function: AzureToolCallFunctionDelta?
+)
+
+data class AzureToolCallFunctionDelta(
+    val name: String?,
+    val arguments: String?
 )
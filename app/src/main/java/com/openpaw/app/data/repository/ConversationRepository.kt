@@ -0,0 +1,148 @@
+package com.openpaw.app.data.repository
+
+import com.google.gson.Gson
+import com.google.gson.reflect.TypeToken
+import com.openpaw.app.data.local.ConversationTurnDao
+import com.openpaw.app.data.local.MessageDao
+import com.openpaw.app.data.model.ConversationTurn
+import com.openpaw.app.data.model.Message
+import com.openpaw.app.data.model.MessageRole
+import com.openpaw.app.data.remote.ToolCallRequest
+import com.openpaw.app.data.remote.ToolResultEntry
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/** Provider-neutral record of one completed agent step. */
+data class StoredStep(
+    val text: String?,
+    val toolCalls: List<ToolCallRequest>,
+    val toolResults: List<ToolResultEntry>
+)
+
+/**
+ * One user message with everything the agent did for it: the structured steps and the
+ * assistant reply (or error text). [userMessage] is null only for rows that precede the
+ * first user message of a session.
+ */
+data class Exchange(
+    val userMessage: Message?,
+    val steps: List<StoredStep> = emptyList(),
+    val replies: List<Message> = emptyList()
+)
+
+/**
+ * Chat history of a session as the agent sees it – text messages plus structured tool turns.
+ *
+ * Recently used sessions are kept in an in-memory LRU cache and updated on every write, so a
+ * follow-up message doesn't reload (and re-parse) the whole session from Room.
+ */
+@Singleton
+class ConversationRepository @Inject constructor(
+    private val messageDao: MessageDao,
+    private val turnDao: ConversationTurnDao,
+    private val gson: Gson
+) {
+    private val mutex = Mutex()
+    private val cache = object : LinkedHashMap<String, MutableList<Exchange>>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, MutableList<Exchange>>) =
+            size > MAX_CACHED_SESSIONS
+    }
+
+    /** Full agent-visible history of [sessionId], oldest first. */
+    suspend fun history(sessionId: String): List<Exchange> = mutex.withLock {
+        cache.getOrPut(sessionId) { load(sessionId) }.toList()
+    }
+
+    /** Save a user message and start a new exchange. Returns the message row id. */
+    suspend fun addUserMessage(sessionId: String, content: String): Long = mutex.withLock {
+        val message = Message(sessionId = sessionId, role = MessageRole.USER, content = content)
+        val id = messageDao.insert(message)
+        cache[sessionId]?.add(Exchange(userMessage = message.copy(id = id)))
+        id
+    }
+
+    /** Persist one completed agent step of the run started by [userMessageId]. */
+    suspend fun addStep(sessionId: String, userMessageId: Long, stepIndex: Int, step: StoredStep) = mutex.withLock {
+        turnDao.insert(
+            ConversationTurn(
+                sessionId       = sessionId,
+                userMessageId   = userMessageId,
+                stepIndex       = stepIndex,
+                text            = step.text,
+                toolCallsJson   = gson.toJson(step.toolCalls),
+                toolResultsJson = gson.toJson(step.toolResults)
+            )
+        )
+        cache[sessionId]?.updateLast { it.copy(steps = it.steps + step) }
+    }
+
+    /** Save an assistant reply (final answer or error text) for the current exchange. */
+    suspend fun addReply(sessionId: String, content: String) = mutex.withLock {
+        val message = Message(sessionId = sessionId, role = MessageRole.ASSISTANT, content = content)
+        val id = messageDao.insert(message)
+        cache[sessionId]?.updateLast { it.copy(replies = it.replies + message.copy(id = id)) }
+    }
+
+    /** Save a tool result row for the chat UI (tool chip). Not part of the agent-visible history. */
+    suspend fun addToolMessage(sessionId: String, toolName: String, content: String) {
+        messageDao.insert(
+            Message(
+                sessionId = sessionId,
+                role      = MessageRole.TOOL,
+                content   = "$toolName: $content",
+                toolName  = toolName
+            )
+        )
+    }
+
+    suspend fun clearSession(sessionId: String) = mutex.withLock {
+        messageDao.clearSession(sessionId)
+        turnDao.deleteSession(sessionId)
+        cache.remove(sessionId)
+    }
+
+    suspend fun deleteSession(sessionId: String) = mutex.withLock {
+        messageDao.deleteSession(sessionId)
+        turnDao.deleteSession(sessionId)
+        cache.remove(sessionId)
+    }
+
+    // ── Loading ───────────────────────────────────────────────────────────────
+
+    private suspend fun load(sessionId: String): MutableList<Exchange> {
+        val stepsByUserMessage = turnDao.getTurnsForSession(sessionId)
+            .groupBy({ it.userMessageId }, ::toStoredStep)
+
+        val exchanges = mutableListOf<Exchange>()
+        messageDao.getMessagesForSessionSync(sessionId).forEach { msg ->
+            when (msg.role) {
+                MessageRole.USER      -> exchanges += Exchange(msg, stepsByUserMessage[msg.id].orEmpty())
+                MessageRole.ASSISTANT -> {
+                    if (exchanges.isEmpty()) exchanges += Exchange(userMessage = null)
+                    exchanges.updateLast { it.copy(replies = it.replies + msg) }
+                }
+                MessageRole.TOOL      -> Unit   // UI-only; the structured turns carry the details
+            }
+        }
+        return exchanges
+    }
+
+    private fun toStoredStep(turn: ConversationTurn) = StoredStep(
+        text        = turn.text,
+        toolCalls   = gson.fromJson(turn.toolCallsJson, toolCallListType) ?: emptyList(),
+        toolResults = gson.fromJson(turn.toolResultsJson, toolResultListType) ?: emptyList()
+    )
+
+    private inline fun MutableList<Exchange>.updateLast(transform: (Exchange) -> Exchange) {
+        if (isNotEmpty()) this[lastIndex] = transform(this[lastIndex])
+    }
+
+    companion object {
+        private const val MAX_CACHED_SESSIONS = 8
+
+        private val toolCallListType = object : TypeToken<List<ToolCallRequest>>() {}.type
+        private val toolResultListType = object : TypeToken<List<ToolResultEntry>>() {}.type
+    }
+}
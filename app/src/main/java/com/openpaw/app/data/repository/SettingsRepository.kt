@@ -5,9 +5,11 @@ import androidx.datastore.core.DataStore
 import androidx.datastore.preferences.core.Preferences
 import androidx.datastore.preferences.core.booleanPreferencesKey
 import androidx.datastore.preferences.core.edit
+import androidx.datastore.preferences.core.intPreferencesKey
 import androidx.datastore.preferences.core.stringPreferencesKey
 import androidx.datastore.preferences.preferencesDataStore
 import com.openpaw.app.BuildConfig
+import com.openpaw.app.data.remote.AzureDeployment
 import com.openpaw.app.data.remote.LlmProviderType
 import dagger.hilt.android.qualifiers.ApplicationContext
 import kotlinx.coroutines.flow.Flow
@@ -31,6 +33,12 @@ class SettingsRepository @Inject constructor(
     private val KEY_AZURE_ENDPOINT       = stringPreferencesKey("azure_endpoint")
     private val KEY_AZURE_DEPLOYMENT     = stringPreferencesKey("azure_deployment_name")
     private val KEY_AZURE_API_KEY        = stringPreferencesKey("azure_api_key")
+    private val KEY_AZURE_POOL           = stringPreferencesKey("azure_extra_deployments")
+
+    // Local LLM (OpenAI-compatible server)
+    private val KEY_LOCAL_BASE_URL       = stringPreferencesKey("local_llm_base_url")
+    private val KEY_LOCAL_MODEL          = stringPreferencesKey("local_llm_model")
+    private val KEY_LOCAL_API_KEY        = stringPreferencesKey("local_llm_api_key")
 
     // ── Onboarding ────────────────────────────────────────────────────────────
     private val KEY_ONBOARDING_DONE      = booleanPreferencesKey("onboarding_done")
@@ -45,6 +53,20 @@ class SettingsRepository @Inject constructor(
     /** One of: "freundlich" | "professionell" | "witzig" | "direkt" */
     private val KEY_AGENT_PERSONALITY    = stringPreferencesKey("agent_personality")
 
+    // ── Agent performance ─────────────────────────────────────────────────────
+    /** Execute each streamed tool call as soon as it is complete (instead of after the full turn). */
+    private val KEY_PIPELINED_TOOLS      = booleanPreferencesKey("pipelined_tool_execution")
+    /** Estimated token budget for history + task + agent steps of one LLM request. */
+    private val KEY_CONTEXT_BUDGET       = intPreferencesKey("context_token_budget")
+    private val KEY_HEDGE_PROVIDER       = stringPreferencesKey("hedge_provider")
+    private val KEY_HEDGE_PERCENTILE     = intPreferencesKey("hedge_percentile")
+    private val KEY_RESPONSE_CACHE       = booleanPreferencesKey("response_cache_enabled")
+    private val KEY_RESPONSE_CACHE_DISK  = booleanPreferencesKey("response_cache_disk")
+    private val KEY_MODEL_ROUTING        = booleanPreferencesKey("model_routing_enabled")
+    private val KEY_STRONG_MODEL         = stringPreferencesKey("strong_llm_model")
+    private val KEY_LOCAL_INTENTS        = booleanPreferencesKey("local_intents_enabled")
+    private val KEY_PLAN_EXECUTE         = booleanPreferencesKey("plan_execute_mode")
+
     // ─── Flows ───────────────────────────────────────────────────────────────
 
     /** Which LLM provider is active: "anthropic" | "azure" | "local" */
@@ -70,6 +92,24 @@ class SettingsRepository @Inject constructor(
     val azureApiKey: Flow<String> = context.dataStore.data.map { prefs ->
         prefs[KEY_AZURE_API_KEY] ?: ""
     }
+    /** Additional deployments load-balanced together with the one above (stored as JSON). */
+    val azureExtraDeployments: Flow<List<AzureDeployment>> = context.dataStore.data.map { prefs ->
+        AzureDeployment.listFromJson(prefs[KEY_AZURE_POOL])
+    }
+
+    // Local LLM
+    /** Base URL of the server, e.g. http://127.0.0.1:8080 (llama.cpp) or http://127.0.0.1:11434 (Ollama). */
+    val localLlmBaseUrl: Flow<String> = context.dataStore.data.map { prefs ->
+        prefs[KEY_LOCAL_BASE_URL] ?: DEFAULT_LOCAL_BASE_URL
+    }
+    /** Model name sent in the request; "" = server default (llama.cpp serves a single model). */
+    val localLlmModel: Flow<String> = context.dataStore.data.map { prefs ->
+        prefs[KEY_LOCAL_MODEL] ?: ""
+    }
+    /** Optional bearer token (vLLM / LiteLLM / LM Studio with auth); "" = none. */
+    val localLlmApiKey: Flow<String> = context.dataStore.data.map { prefs ->
+        prefs[KEY_LOCAL_API_KEY] ?: ""
+    }
 
     // Onboarding
     val isOnboardingDone: Flow<Boolean> = context.dataStore.data.map { prefs ->
@@ -95,6 +135,46 @@ class SettingsRepository @Inject constructor(
         prefs[KEY_AGENT_PERSONALITY] ?: "freundlich"
     }
 
+    // Agent performance
+    val pipelinedToolExecution: Flow<Boolean> = context.dataStore.data.map { prefs ->
+        prefs[KEY_PIPELINED_TOOLS] ?: true
+    }
+    val contextTokenBudget: Flow<Int> = context.dataStore.data.map { prefs ->
+        prefs[KEY_CONTEXT_BUDGET] ?: DEFAULT_CONTEXT_TOKEN_BUDGET
+    }
+    /** Secondary provider id for hedged requests; "" = hedging off. */
+    val hedgeProvider: Flow<String> = context.dataStore.data.map { prefs ->
+        prefs[KEY_HEDGE_PROVIDER] ?: ""
+    }
+    /** Latency percentile of the primary provider after which the hedge request is sent. */
+    val hedgePercentile: Flow<Int> = context.dataStore.data.map { prefs ->
+        prefs[KEY_HEDGE_PERCENTILE] ?: DEFAULT_HEDGE_PERCENTILE
+    }
+    /** Serve byte-identical requests from [com.openpaw.app.data.remote.LlmResponseCache]. */
+    val responseCacheEnabled: Flow<Boolean> = context.dataStore.data.map { prefs ->
+        prefs[KEY_RESPONSE_CACHE] ?: false
+    }
+    /** Keep cached responses on disk across app restarts. */
+    val responseCacheOnDisk: Flow<Boolean> = context.dataStore.data.map { prefs ->
+        prefs[KEY_RESPONSE_CACHE_DISK] ?: false
+    }
+    /** Escalate planning, recovery and final steps to [strongLlmModel] (see ModelRouter). */
+    val modelRoutingEnabled: Flow<Boolean> = context.dataStore.data.map { prefs ->
+        prefs[KEY_MODEL_ROUTING] ?: false
+    }
+    /** Anthropic model used for escalated steps; [llmModel] serves all other steps. */
+    val strongLlmModel: Flow<String> = context.dataStore.data.map { prefs ->
+        prefs[KEY_STRONG_MODEL] ?: DEFAULT_STRONG_MODEL
+    }
+    /** Answer simple timer/alarm/open-app/copy commands on-device (see LocalIntentMatcher). */
+    val localIntentsEnabled: Flow<Boolean> = context.dataStore.data.map { prefs ->
+        prefs[KEY_LOCAL_INTENTS] ?: true
+    }
+    /** One LLM call returns the whole plan, the app executes it and re-plans only on failure. */
+    val planExecuteMode: Flow<Boolean> = context.dataStore.data.map { prefs ->
+        prefs[KEY_PLAN_EXECUTE] ?: false
+    }
+
     // ─── Setters ─────────────────────────────────────────────────────────────
 
     suspend fun setSelectedProvider(provider: String) {
@@ -119,6 +199,20 @@ class SettingsRepository @Inject constructor(
     suspend fun setAzureApiKey(key: String) {
         context.dataStore.edit { it[KEY_AZURE_API_KEY] = key }
     }
+    suspend fun setAzureExtraDeployments(deployments: List<AzureDeployment>) {
+        context.dataStore.edit { it[KEY_AZURE_POOL] = AzureDeployment.listToJson(deployments) }
+    }
+
+    // Local LLM
+    suspend fun setLocalLlmBaseUrl(url: String) {
+        context.dataStore.edit { it[KEY_LOCAL_BASE_URL] = url }
+    }
+    suspend fun setLocalLlmModel(model: String) {
+        context.dataStore.edit { it[KEY_LOCAL_MODEL] = model }
+    }
+    suspend fun setLocalLlmApiKey(key: String) {
+        context.dataStore.edit { it[KEY_LOCAL_API_KEY] = key }
+    }
 
     // Onboarding
     suspend fun setOnboardingDone(done: Boolean) {
@@ -143,4 +237,51 @@ class SettingsRepository @Inject constructor(
     suspend fun setAgentPersonality(personality: String) {
         context.dataStore.edit { it[KEY_AGENT_PERSONALITY] = personality }
     }
+
+    // Agent performance
+    suspend fun setPipelinedToolExecution(enabled: Boolean) {
+        context.dataStore.edit { it[KEY_PIPELINED_TOOLS] = enabled }
+    }
+    suspend fun setContextTokenBudget(tokens: Int) {
+        context.dataStore.edit {
+            it[KEY_CONTEXT_BUDGET] = tokens.coerceIn(MIN_CONTEXT_TOKEN_BUDGET, MAX_CONTEXT_TOKEN_BUDGET)
+        }
+    }
+    suspend fun setHedgeProvider(provider: String) {
+        context.dataStore.edit { it[KEY_HEDGE_PROVIDER] = provider }
+    }
+    suspend fun setHedgePercentile(percentile: Int) {
+        context.dataStore.edit {
+            it[KEY_HEDGE_PERCENTILE] = percentile.coerceIn(MIN_HEDGE_PERCENTILE, MAX_HEDGE_PERCENTILE)
+        }
+    }
+    suspend fun setResponseCacheEnabled(enabled: Boolean) {
+        context.dataStore.edit { it[KEY_RESPONSE_CACHE] = enabled }
+    }
+    suspend fun setResponseCacheOnDisk(enabled: Boolean) {
+        context.dataStore.edit { it[KEY_RESPONSE_CACHE_DISK] = enabled }
+    }
+    suspend fun setModelRoutingEnabled(enabled: Boolean) {
+        context.dataStore.edit { it[KEY_MODEL_ROUTING] = enabled }
+    }
+    suspend fun setStrongLlmModel(model: String) {
+        context.dataStore.edit { it[KEY_STRONG_MODEL] = model }
+    }
+    suspend fun setLocalIntentsEnabled(enabled: Boolean) {
+        context.dataStore.edit { it[KEY_LOCAL_INTENTS] = enabled }
+    }
+    suspend fun setPlanExecuteMode(enabled: Boolean) {
+        context.dataStore.edit { it[KEY_PLAN_EXECUTE] = enabled }
+    }
+
+    companion object {
+        const val DEFAULT_LOCAL_BASE_URL       = "http://127.0.0.1:8080"
+        const val DEFAULT_STRONG_MODEL         = "claude-sonnet-4-6"
+        const val DEFAULT_CONTEXT_TOKEN_BUDGET = 24_000
+        const val MIN_CONTEXT_TOKEN_BUDGET     = 4_000
+        const val MAX_CONTEXT_TOKEN_BUDGET     = 200_000
+        const val DEFAULT_HEDGE_PERCENTILE     = 90
+        const val MIN_HEDGE_PERCENTILE         = 50
+        const val MAX_HEDGE_PERCENTILE         = 99
+    }
 }
@@ -3,18 +3,25 @@ package com.openpaw.app.di
 import android.content.Context
 import androidx.room.Room
 import com.openpaw.app.data.local.AppDatabase
+import com.openpaw.app.data.local.ConversationTurnDao
 import com.openpaw.app.data.local.MemoryDao
 import com.openpaw.app.data.local.MessageDao
 import com.google.gson.Gson
 import com.google.gson.GsonBuilder
 import com.openpaw.app.data.remote.AnthropicApiService
+import com.openpaw.app.data.remote.AnthropicLlmProvider
 import com.openpaw.app.data.remote.AzureOpenAiApiService
+import com.openpaw.app.data.remote.LlmJsonConverterFactory
+import com.openpaw.app.data.remote.LlmRateLimiter
+import com.openpaw.app.data.remote.LocalLlmApiService
 import dagger.Module
 import dagger.Provides
 import dagger.hilt.InstallIn
 import dagger.hilt.android.qualifiers.ApplicationContext
 import dagger.hilt.components.SingletonComponent
+import okhttp3.ConnectionPool
 import okhttp3.OkHttpClient
+import okhttp3.Protocol
 import okhttp3.logging.HttpLoggingInterceptor
 import retrofit2.Retrofit
 import retrofit2.converter.gson.GsonConverterFactory
@@ -29,6 +36,7 @@ object AppModule {
     @Singleton
     fun provideDatabase(@ApplicationContext context: Context): AppDatabase =
         Room.databaseBuilder(context, AppDatabase::class.java, "openpaw.db")
+            .addMigrations(AppDatabase.MIGRATION_1_2)
             .fallbackToDestructiveMigration()
             .build()
 
@@ -38,14 +46,23 @@ object AppModule {
     @Provides
     fun provideMemoryDao(db: AppDatabase): MemoryDao = db.memoryDao()
 
+    @Provides
+    fun provideConversationTurnDao(db: AppDatabase): ConversationTurnDao = db.conversationTurnDao()
+
     @Provides
     @Singleton
-    fun provideOkHttpClient(): OkHttpClient {
+    fun provideOkHttpClient(rateLimiter: LlmRateLimiter): OkHttpClient {
         val logging = HttpLoggingInterceptor().apply {
             level = HttpLoggingInterceptor.Level.BODY
         }
         return OkHttpClient.Builder()
+            // Host-keyed limits for single-endpoint providers; Azure reports per deployment
+            .addInterceptor(LlmRateLimiter.HeaderInterceptor(rateLimiter, setOf(AnthropicLlmProvider.HOST)))
             .addInterceptor(logging)
+            // Keep provider connections (incl. pre-warmed ones, see ConnectionPrewarmer) alive
+            // between voice interactions; HTTP/2 multiplexes all calls over one of them.
+            .connectionPool(ConnectionPool(4, 5, TimeUnit.MINUTES))
+            .protocols(listOf(Protocol.HTTP_2, Protocol.HTTP_1_1))
             .connectTimeout(30, TimeUnit.SECONDS)
             .readTimeout(60, TimeUnit.SECONDS)
             .writeTimeout(30, TimeUnit.SECONDS)
@@ -62,6 +79,7 @@ object AppModule {
         Retrofit.Builder()
             .baseUrl("https://api.anthropic.com/")
             .client(client)
+            .addConverterFactory(LlmJsonConverterFactory())
             .addConverterFactory(GsonConverterFactory.create(gson))
             .build()
             .create(AnthropicApiService::class.java)
@@ -76,7 +94,23 @@ object AppModule {
         Retrofit.Builder()
             .baseUrl("https://placeholder.azure.openai.com/")   // overridden by @Url
             .client(client)
+            .addConverterFactory(LlmJsonConverterFactory())
             .addConverterFactory(GsonConverterFactory.create(gson))
             .build()
             .create(AzureOpenAiApiService::class.java)
+
+    /**
+     * Local OpenAI-compatible server – the base URL comes from Settings and is passed via @Url.
+     * Cleartext HTTP is only permitted for loopback hosts (see res/xml/network_security_config.xml).
+     */
+    @Provides
+    @Singleton
+    fun provideLocalLlmApiService(client: OkHttpClient, gson: Gson): LocalLlmApiService =
+        Retrofit.Builder()
+            .baseUrl("http://127.0.0.1/")   // overridden by @Url
+            .client(client)
+            .addConverterFactory(LlmJsonConverterFactory())
+            .addConverterFactory(GsonConverterFactory.create(gson))
+            .build()
+            .create(LocalLlmApiService::class.java)
 }
@@ -14,6 +14,7 @@ class AlarmTool @Inject constructor(
 ) : Tool {
 
     override val name = "set_alarm"
+    override val resource = ToolResource.EXTERNAL_INTENT
     override val description = "Set an alarm or countdown timer on the device."
     override val parameters = mapOf(
         "hour"          to ToolParameter("integer", "Hour of alarm (0-23, 24-hour format)."),
@@ -15,6 +15,7 @@ class CalendarTool @Inject constructor(
 ) : Tool {
 
     override val name = "create_calendar_event"
+    override val resource = ToolResource.EXTERNAL_INTENT
     override val description = "Create a calendar event. Opens the calendar app with the event pre-filled for the user to confirm."
     override val parameters = mapOf(
         "title" to ToolParameter("string", "Title/name of the event."),
@@ -15,6 +15,7 @@ class ClipboardTool @Inject constructor(
 ) : Tool {
 
     override val name = "clipboard"
+    override val resource = ToolResource.CLIPBOARD
     override val description = "Copy text to the Android clipboard ('copy') or read the current clipboard content ('paste'). Note: reading clipboard requires the app to be in foreground on Android 10+."
     override val parameters = mapOf(
         "action" to ToolParameter("string", "Action: 'copy' (write to clipboard) or 'paste' (read from clipboard)"),
@@ -14,6 +14,12 @@ class FileManagerTool @Inject constructor(
 ) : Tool {
 
     override val name = "file_manager"
+    override val resource = ToolResource.IO
+
+    /** Sharing opens the system chooser on top of everything else. */
+    override fun resourceFor(input: Map<String, Any>) =
+        if (input["action"] == "share") ToolResource.EXTERNAL_INTENT else resource
+
     override val description = "Manage files in the app's storage: read, write, list, delete, or share text files."
     override val parameters = mapOf(
         "action"    to ToolParameter("string", "Action: 'read', 'write', 'list', 'delete', 'share'"),
@@ -10,6 +10,7 @@ class MemoryTool @Inject constructor(
 ) : Tool {
 
     override val name = "manage_memory"
+    override val resource = ToolResource.IO
     override val description = "Store, retrieve, or delete facts about the user that should persist across conversations. Use this to remember user preferences, important info, etc."
     override val parameters = mapOf(
         "action" to ToolParameter("string", "One of: 'remember', 'recall', 'forget', 'list'"),
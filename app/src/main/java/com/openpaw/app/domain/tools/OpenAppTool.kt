@@ -13,6 +13,7 @@ class OpenAppTool @Inject constructor(
 ) : Tool {
 
     override val name = "open_app"
+    override val resource = ToolResource.EXTERNAL_INTENT
     override val description = "Launch an installed app by name or package ID. " +
         "Examples: app_name=\"Spotify\", app_name=\"TikTok\", app_name=\"Instagram\", " +
         "package_name=\"com.spotify.music\"."
@@ -0,0 +1,63 @@
+package com.openpaw.app.domain.tools
+
+import android.util.Log
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlin.coroutines.AbstractCoroutineContextElement
+import kotlin.coroutines.CoroutineContext
+import kotlin.coroutines.coroutineContext
+
+/**
+ * Exclusive lease on the foreground UI for concurrently scheduled agent runs.
+ *
+ * Every run started by the run scheduler carries a [Holder] in its coroutine context. The
+ * first call of that run that touches the screen (see [ToolRegistry.execute]) acquires the
+ * lease; the run keeps it until it ends, so no other run can click into the middle of its
+ * flow. Runs that only use IO tools (memory, SMS, files) never wait for it.
+ *
+ * Code outside a scheduled run has no [Holder] and is not gated.
+ */
+@Singleton
+class ScreenLease @Inject constructor() {
+
+    /** Identity of one scheduled run in its coroutine context. */
+    class Holder(val runId: Long) : AbstractCoroutineContextElement(Key) {
+        /** Serializes concurrent tool calls of the same run while they acquire the lease. */
+        internal val acquiring = Mutex()
+
+        companion object Key : CoroutineContext.Key<Holder>
+    }
+
+    private val mutex = Mutex()
+
+    private val _holder = MutableStateFlow<Long?>(null)
+    /** Id of the run currently holding the screen, null when it is free. */
+    val holder: StateFlow<Long?> = _holder.asStateFlow()
+
+    /** Suspend until the calling run holds the lease. No-op outside a scheduled run. */
+    suspend fun acquire() {
+        val run = coroutineContext[Holder] ?: return
+        run.acquiring.withLock {
+            if (mutex.holdsLock(run)) return
+            if (mutex.isLocked) Log.d(TAG, "Run ${run.runId} waits for the screen (held by ${_holder.value})")
+            mutex.lock(run)
+            _holder.value = run.runId
+        }
+    }
+
+    /** Give the lease back – called by the scheduler when [run] ends. */
+    fun release(run: Holder) {
+        if (!mutex.holdsLock(run)) return
+        _holder.value = null
+        mutex.unlock(run)
+    }
+
+    private companion object {
+        const val TAG = "ScreenLease"
+    }
+}
@@ -0,0 +1,123 @@
+package com.openpaw.app.domain.tools
+
+import android.os.SystemClock
+import android.util.Log
+import com.openpaw.app.service.OpenPawAccessibilityService
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.update
+import kotlinx.coroutines.launch
+import java.util.concurrent.atomic.AtomicLong
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Speculative screen observation.
+ *
+ * The model very often asks for `control_screen(action=read)` right after `open_app`, `home`
+ * or a click. After such a step the agent loop calls [speculate]: while the next LLM request
+ * is in flight, a background job waits for the screen to settle and captures it. If the
+ * model then reads the screen, [take] answers instantly from the snapshot.
+ *
+ * A snapshot is only served while it is provably current: the accessibility service's
+ * [screen generation][OpenPawAccessibilityService.screenGeneration] must be unchanged since
+ * the capture, and no screen-changing tool may have run since (see [invalidate]) – events
+ * of a fresh action can arrive after the action returned.
+ */
+@Singleton
+class ScreenSnapshotCache @Inject constructor() {
+
+    data class Stats(
+        val hits: Int = 0,
+        val misses: Int = 0,
+        /** Snapshots thrown away because the screen changed after the capture. */
+        val stale: Int = 0,
+        /** Sum of the tree traversals that were answered from a snapshot. */
+        val savedMs: Long = 0
+    ) {
+        val hitRate: Float get() = if (hits + misses == 0) 0f else hits.toFloat() / (hits + misses)
+    }
+
+    private class Snapshot(val generation: Long, val mutation: Long, val text: String, val captureMs: Long)
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+
+    /** Incremented before every screen-changing tool call. */
+    private val mutations = AtomicLong()
+
+    @Volatile private var snapshot: Snapshot? = null
+    @Volatile private var captureJob: Job? = null
+
+    private val _stats = MutableStateFlow(Stats())
+    val stats: StateFlow<Stats> = _stats.asStateFlow()
+
+    /** A screen-changing action is about to run – any snapshot (or running capture) is void. */
+    fun invalidate() {
+        mutations.incrementAndGet()
+        snapshot = null
+        captureJob?.cancel()
+    }
+
+    /** Capture the screen in the background once it has settled. Fire-and-forget. */
+    fun speculate() {
+        val service = OpenPawAccessibilityService.instance.value ?: return
+        captureJob?.cancel()
+        val mutation = mutations.get()
+        captureJob = scope.launch {
+            awaitSettled(service)
+            val generation = service.screenGeneration
+            val startedAt = SystemClock.elapsedRealtime()
+            val text = service.readScreen()
+            val captureMs = SystemClock.elapsedRealtime() - startedAt
+            // Changed while traversing → the dump may mix two screens
+            if (service.screenGeneration == generation && mutations.get() == mutation) {
+                snapshot = Snapshot(generation, mutation, text, captureMs)
+                Log.d(TAG, "Snapshot captured (${text.length} chars, ${captureMs}ms)")
+            }
+        }
+    }
+
+    /** The current screen dump if a valid snapshot exists, null → read the screen normally. */
+    fun take(): String? {
+        val service = OpenPawAccessibilityService.instance.value ?: return null
+        val current = snapshot
+        if (current == null) {
+            _stats.update { it.copy(misses = it.misses + 1) }
+            return null
+        }
+        if (current.generation != service.screenGeneration || current.mutation != mutations.get()) {
+            snapshot = null
+            _stats.update { it.copy(misses = it.misses + 1, stale = it.stale + 1) }
+            return null
+        }
+        // Kept: an unchanged screen may be read again
+        _stats.update { it.copy(hits = it.hits + 1, savedMs = it.savedMs + current.captureMs) }
+        Log.d(TAG, "Screen read served from snapshot – saved ${current.captureMs}ms")
+        return current.text
+    }
+
+    /** Wait until no screen change happened for [QUIET_MS], at most [MAX_SETTLE_MS]. */
+    private suspend fun awaitSettled(service: OpenPawAccessibilityService) {
+        val deadline = SystemClock.elapsedRealtime() + MAX_SETTLE_MS
+        var last = service.screenGeneration
+        while (SystemClock.elapsedRealtime() < deadline) {
+            delay(QUIET_MS)
+            val now = service.screenGeneration
+            if (now == last) return
+            last = now
+        }
+    }
+
+    private companion object {
+        const val TAG = "ScreenSnapshotCache"
+        const val QUIET_MS = 250L
+        /** App launches usually settle within a second; animated screens never do. */
+        const val MAX_SETTLE_MS = 2_000L
+    }
+}
@@ -3,6 +3,7 @@ package com.openpaw.app.domain.tools
 import com.openpaw.app.service.OpenPawAccessibilityService
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.withTimeoutOrNull
 import javax.inject.Inject
 import javax.inject.Singleton
 import kotlin.coroutines.resume
@@ -21,9 +22,12 @@ import kotlin.coroutines.resume
  *   action=home   → press Home
  */
 @Singleton
-class ScreenTool @Inject constructor() : Tool {
+class ScreenTool @Inject constructor(
+    private val snapshots: ScreenSnapshotCache
+) : Tool {
 
     override val name = "control_screen"
+    override val resource = ToolResource.SCREEN
     override val description = """
         Read the current Android screen content or interact with UI elements.
         The AI agent can read text, click buttons, type into fields, and scroll — just like a human.
@@ -50,8 +54,9 @@ class ScreenTool @Inject constructor() : Tool {
         return when (val action = input["action"] as? String) {
 
             "read" -> {
-                // Truncate to keep token count small – 2500 chars is enough for the LLM
-                val screen = service.readScreen().take(2500)
+                // Truncate to keep token count small – 2500 chars is enough for the LLM.
+                // A speculative snapshot of the unchanged screen saves the tree traversal.
+                val screen = (snapshots.take() ?: service.readScreen()).take(2500)
                 ToolResult(true, "Current screen:\n$screen")
             }
 
@@ -68,9 +73,7 @@ class ScreenTool @Inject constructor() : Tool {
                 //    This handles cases where text lives in a non-clickable child of a clickable parent.
                 val bounds = service.getNodeBounds(query)
                 if (bounds != null && !bounds.isEmpty) {
-                    val ok = suspendCancellableCoroutine<Boolean> { cont ->
-                        service.tapAt(bounds.centerX().toFloat(), bounds.centerY().toFloat()) { cont.resume(it) }
-                    }
+                    val ok = awaitGesture { done -> service.tapAt(bounds.centerX().toFloat(), bounds.centerY().toFloat(), done) }
                     if (ok) return ToolResult(true, "Tapped '$query' at (${bounds.centerX()}, ${bounds.centerY()})")
                 }
 
@@ -95,18 +98,14 @@ class ScreenTool @Inject constructor() : Tool {
                 }
 
                 // 2. Fallback: gesture swipe — works in any app, even without a11y scroll nodes
-                val swiped = suspendCancellableCoroutine<Boolean> { cont ->
-                    service.swipe(dir) { cont.resume(it) }
-                }
+                val swiped = awaitGesture { done -> service.swipe(dir, done) }
                 if (swiped) ToolResult(true, "Scrolled $dir via gesture")
                 else ToolResult(false, "Could not scroll $dir.")
             }
 
             "swipe" -> {
                 val dir = input["direction"] as? String ?: "up"
-                val ok = suspendCancellableCoroutine<Boolean> { cont ->
-                    service.swipe(dir) { cont.resume(it) }
-                }
+                val ok = awaitGesture { done -> service.swipe(dir, done) }
                 if (ok) ToolResult(true, "Swiped $dir")
                 else ToolResult(false, "Swipe gesture cancelled.")
             }
@@ -116,9 +115,7 @@ class ScreenTool @Inject constructor() : Tool {
                     ?: return ToolResult(false, "Provide 'x' coordinate.")
                 val y = (input["y"] as? Number)?.toFloat()
                     ?: return ToolResult(false, "Provide 'y' coordinate.")
-                val ok = suspendCancellableCoroutine<Boolean> { cont ->
-                    service.tapAt(x, y) { cont.resume(it) }
-                }
+                val ok = awaitGesture { done -> service.tapAt(x, y, done) }
                 if (ok) ToolResult(true, "Tapped at ($x, $y)")
                 else ToolResult(false, "Tap at ($x, $y) failed.")
             }
@@ -145,4 +142,20 @@ class ScreenTool @Inject constructor() : Tool {
             else -> ToolResult(false, "Unknown action '$action'. Use: read, click, input, scroll, swipe, tap, back, home, recents")
         }
     }
+
+    /**
+     * Suspend until a dispatched gesture completes. Cancelling the agent run resumes the caller
+     * immediately; a gesture the system never reports back counts as failed after a timeout.
+     */
+    private suspend fun awaitGesture(dispatch: (onResult: (Boolean) -> Unit) -> Unit): Boolean =
+        withTimeoutOrNull(GESTURE_TIMEOUT_MS) {
+            suspendCancellableCoroutine<Boolean> { cont ->
+                dispatch { ok -> if (cont.isActive) cont.resume(ok) }
+            }
+        } ?: false
+
+    private companion object {
+        /** Longest gesture is a 300 ms swipe – anything beyond a few seconds is lost. */
+        const val GESTURE_TIMEOUT_MS = 3_000L
+    }
 }
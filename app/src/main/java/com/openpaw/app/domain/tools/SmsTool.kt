@@ -18,6 +18,7 @@ class SmsTool @Inject constructor(
 ) : Tool {
 
     override val name = "sms"
+    override val resource = ToolResource.IO
     override val description = "Send or read classic SMS messages (not WhatsApp). For 'send': sends an SMS to a phone number. For 'read': reads recent inbox messages."
     override val parameters = mapOf(
         "action"  to ToolParameter("string", "Action: 'send' or 'read'"),
@@ -26,6 +26,12 @@ interface Tool {
     /** Parameters that MUST be present (from the JSON schema required array). */
     val requiredParameters: List<String>
 
+    /** What the tool touches – decides which calls of one turn may run concurrently. */
+    val resource: ToolResource
+
+    /** Resource of one concrete call; override when a single action differs (e.g. "share"). */
+    fun resourceFor(input: Map<String, Any>): ToolResource = resource
+
     /**
      * Execute the tool with the provided input map.
      * Called on a background dispatcher.
@@ -33,6 +39,28 @@ interface Tool {
     suspend fun execute(input: Map<String, Any>): ToolResult
 }
 
+/**
+ * Shared device resource a tool call uses. Two calls of one turn run concurrently unless
+ * their resources [conflict][conflictsWith] or they are calls of the same tool.
+ */
+enum class ToolResource {
+    /** Reads or drives the foreground UI via accessibility. */
+    SCREEN,
+    /** Reads or writes the system clipboard (paste also lands in the focused field). */
+    CLIPBOARD,
+    /** Storage, content providers, radio – nothing visible. */
+    IO,
+    /** Starts another app's activity and thereby changes the foreground. */
+    EXTERNAL_INTENT;
+
+    fun conflictsWith(other: ToolResource): Boolean = when (this) {
+        SCREEN          -> other != IO
+        CLIPBOARD       -> other == CLIPBOARD || other == SCREEN
+        IO              -> false
+        EXTERNAL_INTENT -> other == EXTERNAL_INTENT || other == SCREEN
+    }
+}
+
 data class ToolParameter(
     val type: String,
     val description: String
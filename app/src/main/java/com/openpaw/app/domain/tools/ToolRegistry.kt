@@ -3,6 +3,11 @@ package com.openpaw.app.domain.tools
 import com.openpaw.app.data.remote.dto.ApiTool
 import com.openpaw.app.data.remote.dto.ApiToolProperty
 import com.openpaw.app.data.remote.dto.ApiToolSchema
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.async
+import kotlinx.coroutines.joinAll
 import javax.inject.Inject
 import javax.inject.Singleton
 
@@ -16,8 +21,12 @@ class ToolRegistry @Inject constructor(
     screenTool: ScreenTool,
     fileManagerTool: FileManagerTool,
     smsTool: SmsTool,
-    clipboardTool: ClipboardTool
+    clipboardTool: ClipboardTool,
+    private val screenSnapshots: ScreenSnapshotCache,
+    private val screenLease: ScreenLease
 ) {
+    private val screenToolName = screenTool.name
+
     private val tools: Map<String, Tool> = listOf(
         screenTool,                 // first = highest priority for the agent
         whatsAppTool,
@@ -49,8 +58,56 @@ class ToolRegistry @Inject constructor(
     suspend fun execute(toolName: String, input: Map<String, Any>): ToolResult {
         val tool = tools[toolName]
             ?: return ToolResult(false, "Unknown tool: '$toolName'")
+        // Everything but pure IO sees or drives the foreground – one scheduled run at a time
+        if (tool.resourceFor(input) != ToolResource.IO) screenLease.acquire()
+        if (changesScreen(toolName, input)) screenSnapshots.invalidate()
         return tool.execute(input)
     }
 
     fun getTool(name: String): Tool? = tools[name]
+
+    /** Resource a call would use; unknown tools are treated as screen actions (fully serialized). */
+    fun resourceOf(toolName: String, input: Map<String, Any>): ToolResource =
+        tools[toolName]?.resourceFor(input) ?: ToolResource.SCREEN
+
+    /** True for calls that (may) change what is on screen – everything visible except a plain read. */
+    fun changesScreen(toolName: String, input: Map<String, Any>): Boolean {
+        if (toolName == screenToolName && input["action"] == "read") return false
+        val resource = resourceOf(toolName, input)
+        return resource == ToolResource.SCREEN || resource == ToolResource.EXTERNAL_INTENT
+    }
+
+    /** Start a [ToolBatch] whose calls run as children of [scope]. */
+    fun batch(scope: CoroutineScope) = ToolBatch(scope)
+
+    /**
+     * Runs the tool calls of one LLM turn with as much concurrency as their resources allow.
+     *
+     * Calls are submitted in the order the model requested them (also while the turn is still
+     * streaming). A call starts once every earlier call it conflicts with has finished – same
+     * tool, or overlapping [ToolResource]s – so screen-mutating calls stay strictly ordered
+     * while e.g. `manage_memory`, `sms(read)` and `clipboard(copy)` run side by side.
+     * Structured concurrency: the owning scope does not complete before all calls are done.
+     *
+     * [submit] must be called from a single coroutine.
+     */
+    inner class ToolBatch internal constructor(private val scope: CoroutineScope) {
+
+        private class Submitted(val toolName: String, val resource: ToolResource, val job: Job)
+
+        private val submitted = mutableListOf<Submitted>()
+
+        fun <R> submit(toolName: String, input: Map<String, Any>, run: suspend () -> R): Deferred<R> {
+            val resource = resourceOf(toolName, input)
+            val predecessors = submitted
+                .filter { it.toolName == toolName || it.resource.conflictsWith(resource) }
+                .map { it.job }
+            val deferred = scope.async {
+                predecessors.joinAll()
+                run()
+            }
+            submitted += Submitted(toolName, resource, deferred)
+            return deferred
+        }
+    }
 }
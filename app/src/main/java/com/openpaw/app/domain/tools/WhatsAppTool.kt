@@ -13,6 +13,7 @@ class WhatsAppTool @Inject constructor(
 ) : Tool {
 
     override val name = "send_whatsapp"
+    override val resource = ToolResource.EXTERNAL_INTENT
     override val description = "Send a WhatsApp message to a phone number or contact name. Opens WhatsApp with the message pre-filled so the user can confirm before sending."
     override val parameters = mapOf(
         "phone" to ToolParameter("string", "Phone number with country code, e.g. +49123456789. Use 'contact_name' if you don't know the number."),
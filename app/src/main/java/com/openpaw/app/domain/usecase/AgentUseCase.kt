@@ -1,22 +1,54 @@
 package com.openpaw.app.domain.usecase
 
-import com.openpaw.app.data.local.MessageDao
-import com.openpaw.app.data.model.Message
-import com.openpaw.app.data.model.MessageRole
+import android.os.SystemClock
+import android.util.Log
+import com.openpaw.app.data.remote.LlmException
 import com.openpaw.app.data.remote.LlmProvider
+import com.openpaw.app.data.remote.LlmResponse
+import com.openpaw.app.data.remote.LlmStreamEvent
+import com.openpaw.app.data.remote.ToolCallRequest
 import com.openpaw.app.data.remote.ToolResultEntry
-import com.openpaw.app.data.remote.dto.ApiMessage
+import com.openpaw.app.data.remote.dto.ApiTool
+import com.openpaw.app.data.repository.ConversationRepository
 import com.openpaw.app.data.repository.MemoryRepository
 import com.openpaw.app.data.repository.SettingsRepository
+import com.openpaw.app.domain.tools.ScreenSnapshotCache
 import com.openpaw.app.domain.tools.ToolRegistry
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.channels.ProducerScope
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.channelFlow
 import kotlinx.coroutines.flow.first
-import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.withContext
+import java.util.UUID
 import javax.inject.Inject
 import javax.inject.Singleton
 
+/**
+ * Handle of one agent run, as returned by the run scheduler.
+ * [cancel] stops the run cooperatively; the partial transcript is persisted.
+ */
+class AgentRun internal constructor(
+    val sessionId: String,
+    private val job: Job
+) {
+    val isActive: Boolean get() = job.isActive
+
+    fun cancel() = job.cancel(CancellationException("Vom Nutzer abgebrochen"))
+
+    /** Suspend until the run has finished (or its cancellation has been persisted). */
+    suspend fun join() = job.join()
+}
+
 sealed class AgentEvent {
     data class Thinking(val text: String) : AgentEvent()
+    /** Streamed text chunk of the current LLM turn (arrives before the turn is complete). */
+    data class TextDelta(val text: String) : AgentEvent()
     data class ToolCall(val toolName: String, val input: Map<String, Any>) : AgentEvent()
     data class ToolResult(val toolName: String, val output: String, val success: Boolean) : AgentEvent()
     data class FinalResponse(val text: String) : AgentEvent()
@@ -27,21 +59,45 @@ sealed class AgentEvent {
 class AgentUseCase @Inject constructor(
     private val llmProvider: LlmProvider,
     private val toolRegistry: ToolRegistry,
-    private val messageDao: MessageDao,
+    private val conversationRepository: ConversationRepository,
     private val memoryRepository: MemoryRepository,
-    private val settingsRepository: SettingsRepository
+    private val settingsRepository: SettingsRepository,
+    private val contextManager: ContextManager,
+    private val modelRouter: ModelRouter,
+    private val localIntentMatcher: LocalIntentMatcher,
+    private val planExecutor: PlanExecutor,
+    private val screenSnapshots: ScreenSnapshotCache
 ) {
-    /** Maximum number of LLM ↔ tool-execution cycles per user message. */
-    private val maxIterations = 10
-
-    /** Build the system prompt dynamically using the user's agent settings. */
+    /**
+     * Maximum number of LLM calls per user message in plan-then-execute mode. The ReAct loop
+     * sizes its budget with a [ProgressTracker] instead.
+     */
+    private val maxIterations = ProgressTracker.BASE_BUDGET
+
+    /** Last built system prompt and the settings it was built from. */
+    @Volatile private var cachedSystemPrompt: Pair<List<String>, String>? = null
+
+    /** Tool schemas never change at runtime. */
+    private val apiTools by lazy { toolRegistry.toApiTools() }
+
+    /**
+     * Build the stable part of the system prompt from the user's agent settings.
+     * It is identical on every iteration (and across messages until the settings change),
+     * which makes it – together with the tool schemas – the provider's cacheable prefix.
+     * Memoized: back-to-back commands (e.g. queued voice commands) reuse the same string.
+     */
     private suspend fun buildSystemPrompt(): String {
         val agentName    = settingsRepository.agentName.first().ifBlank { "OpenPaw" }
         val agentEmoji   = settingsRepository.agentEmoji.first().ifBlank { "🐾" }
         val personality  = settingsRepository.agentPersonality.first()
-        val userName     = settingsRepository.userName.first().trim()
-        val userBio      = settingsRepository.userBio.first().trim()
 
+        val key = listOf(agentName, agentEmoji, personality)
+        cachedSystemPrompt?.let { (cachedKey, prompt) -> if (cachedKey == key) return prompt }
+        return renderSystemPrompt(agentName, agentEmoji, personality)
+            .also { cachedSystemPrompt = key to it }
+    }
+
+    private fun renderSystemPrompt(agentName: String, agentEmoji: String, personality: String): String {
         val personalityLine = when (personality) {
             "professionell" -> "Du bist professionell, präzise und sachlich. Keine unnötigen Floskeln."
             "witzig"        -> "Du bist locker und humorvoll – du nutzt gelegentlich Wortspiele oder Emojis."
@@ -49,14 +105,6 @@ class AgentUseCase @Inject constructor(
             else            -> "Du bist freundlich, warm und hilfsbereit."   // "freundlich"
         }
 
-        val userContext = buildString {
-            if (userName.isNotBlank() || userBio.isNotBlank()) {
-                append("\n\n— Nutzer-Kontext —")
-                if (userName.isNotBlank()) append("\nName: $userName")
-                if (userBio.isNotBlank())  append("\nÜber den Nutzer: $userBio")
-            }
-        }
-
         return """
             Du bist $agentEmoji $agentName, ein intelligenter KI-Agent der direkt auf einem Android-Handy läuft.
             $personalityLine
@@ -114,132 +162,180 @@ class AgentUseCase @Inject constructor(
             - Bei mehrstufigen Aufgaben: jeden Schritt mit dem passenden Tool ausführen
             - Kurz nachfragen, BEVOR Nachrichten gesendet oder irrev. Aktionen ausgeführt werden
             - manage_memory für Nutzerpräferenzen und gelernte Methoden nutzen
-            - Auf Deutsch antworten (oder Englisch wenn Nutzer Englisch schreibt)$userContext
+            - Auf Deutsch antworten (oder Englisch wenn Nutzer Englisch schreibt)
         """.trimIndent()
     }
 
+    /**
+     * Volatile system text sent after the cache breakpoint: user profile + [MEMORY] block.
+     * Memories change whenever the agent saves something, so they must not be part of the
+     * cached prefix.
+     */
+    private suspend fun buildSystemContext(): String {
+        val userName = settingsRepository.userName.first().trim()
+        val userBio  = settingsRepository.userBio.first().trim()
+
+        val userContext = buildString {
+            if (userName.isNotBlank() || userBio.isNotBlank()) {
+                append("\n\n— Nutzer-Kontext —")
+                if (userName.isNotBlank()) append("\nName: $userName")
+                if (userBio.isNotBlank())  append("\nÜber den Nutzer: $userBio")
+            }
+        }
+        return userContext + memoryRepository.buildMemoryContext()
+    }
+
     fun processMessage(
         userInput: String,
         sessionId: String
-    ): Flow<AgentEvent> = flow {
+    ): Flow<AgentEvent> = channelFlow {
+
+        // ── 1. Load previous history (cached per session), then save user message ─
+        val history = conversationRepository.history(sessionId)
+        val userMessageId = conversationRepository.addUserMessage(sessionId, userInput)
 
-        // ── 1. Save user message ───────────────────────────────────────────────
-        messageDao.insert(
-            Message(sessionId = sessionId, role = MessageRole.USER, content = userInput)
+        // ── 1a. On-device fast path: simple one-shot commands skip the LLM ─────
+        if (settingsRepository.localIntentsEnabled.first()) {
+            val intent = localIntentMatcher.match(userInput)
+            if (intent != null && runLocalIntent(intent, sessionId, userMessageId)) return@channelFlow
+        }
+
+        val pipelined = settingsRepository.pipelinedToolExecution.first()
+
+        // ── 2. Build system prompt: stable rules (cached) + volatile user/memory context ─
+        val systemPrompt  = buildSystemPrompt()
+        val systemContext = buildSystemContext()
+
+        // ── 3. Open a token-budgeted context (history + task + agent steps) ────
+        val tools = apiTools
+        val context = contextManager.open(
+            history       = history,
+            task          = userInput,
+            systemPrompt  = systemPrompt,
+            systemContext = systemContext,
+            tools         = tools
         )
 
-        // ── 2. Build system prompt (includes agent personality + user context) ─
-        val memoryContext    = memoryRepository.buildMemoryContext()
-        val fullSystemPrompt = buildSystemPrompt() + memoryContext
-
-        // ── 3. Build initial conversation history from DB ──────────────────────
-        // Cap at last 20 user/assistant exchanges to keep token count low
-        val dbHistory = messageDao.getMessagesForSessionSync(sessionId)
-        val conversationMessages: MutableList<ApiMessage> = dbHistory
-            .filter { it.role == MessageRole.USER || it.role == MessageRole.ASSISTANT }
-            .takeLast(40)
-            .map { msg ->
-                ApiMessage(
-                    role    = if (msg.role == MessageRole.USER) "user" else "assistant",
-                    content = msg.content
-                )
-            }
-            .toMutableList()
+        send(AgentEvent.Thinking("Thinking..."))
 
-        emit(AgentEvent.Thinking("Thinking..."))
+        // What the current iteration produced so far – persisted if the run is cancelled
+        val partial = PartialStep()
 
         try {
+            if (settingsRepository.planExecuteMode.first()) {
+                runPlanned(userInput, sessionId, userMessageId, context, systemPrompt, systemContext, tools, partial)
+                return@channelFlow
+            }
+
             var iterations = 0
             var consecutiveFailures = 0   // tracks how many iterations in a row had failures
             var hadFailureLastIteration = false
+            var lastStep: AgentStep? = null
+            var finished = false
+            // Loop/stall detection; the budget grows beyond the base for runs that keep progressing
+            val progress = ProgressTracker()
+            var escalateNext = false
 
             // ── 4. Agent loop ──────────────────────────────────────────────────
-            while (iterations < maxIterations) {
+            while (progress.extendIfProgressing(iterations)) {
                 iterations++
+                partial.begin(stepIndex = iterations - 1)
 
-                // 4a. Call the LLM
-                val response = llmProvider.complete(
-                    messages     = conversationMessages,
-                    systemPrompt = fullSystemPrompt,
-                    tools        = toolRegistry.toApiTools()
+                // Small model for mechanical steps, strong model for planning/recovery/wrap-up
+                val route = modelRouter.route(
+                    userInput, iterations, progress.budget, consecutiveFailures, lastStep, stalled = escalateNext
                 )
 
+                // 4a. Call the LLM (streamed – text is forwarded as soon as it arrives).
+                //     In pipelined mode each tool call is executed the moment its block is
+                //     complete, while the model keeps generating the rest of the turn.
+                var completed: LlmResponse? = null
+                val toolResultEntries = mutableListOf<ToolResultEntry>()
+
+                coroutineScope {
+                    // Independent calls run concurrently; calls that share a resource (all
+                    // screen-mutating ones) run one after another in the requested order.
+                    val batch = toolRegistry.batch(this)
+                    val running = LinkedHashMap<String, Deferred<ToolResultEntry>>()
+                    fun submit(toolCall: ToolCallRequest) {
+                        running[toolCall.id] = batch.submit(toolCall.toolName, toolCall.input) {
+                            executeToolCall(toolCall, sessionId).also { partial.add(toolCall, it) }
+                        }
+                    }
+
+                    llmProvider.stream(
+                        messages      = context.messages(),
+                        systemPrompt  = systemPrompt,
+                        tools         = tools,
+                        systemContext = systemContext,
+                        sessionId     = sessionId,
+                        modelTier     = route.tier
+                    ).collect { event ->
+                        when (event) {
+                            is LlmStreamEvent.TextDelta     -> {
+                                partial.text.append(event.text)
+                                send(AgentEvent.TextDelta(event.text))
+                            }
+                            is LlmStreamEvent.ToolCallReady -> if (pipelined) submit(event.toolCall)
+                            is LlmStreamEvent.Completed     -> completed = event.response
+                        }
+                    }
+                    // 4c. Execute whatever was not started during streaming (all calls when
+                    //     pipelining is off), in the order the model requested them
+                    completed?.toolCalls
+                        ?.filter { it.id !in running }
+                        ?.forEach { submit(it) }
+                    toolResultEntries += running.values.awaitAll()
+                }
+                val response = completed ?: error("LLM stream ended without a response")
+
+                // Speculative observation: capture the changed screen while the next LLM call
+                // is in flight – a following control_screen(read) is then answered instantly
+                if (response.toolCalls.any { toolRegistry.changesScreen(it.toolName, it.input) }) {
+                    screenSnapshots.speculate()
+                }
+
                 // 4b. No tool calls → final text response
                 if (response.toolCalls.isEmpty()) {
+                    modelRouter.record(route, response, failed = false)
                     val finalText = response.textContent?.trim() ?: ""
                     if (finalText.isNotBlank()) {
-                        messageDao.insert(
-                            Message(
-                                sessionId = sessionId,
-                                role      = MessageRole.ASSISTANT,
-                                content   = finalText
-                            )
-                        )
-                        emit(AgentEvent.FinalResponse(finalText))
+                        conversationRepository.addReply(sessionId, finalText)
+                        send(AgentEvent.FinalResponse(finalText))
                     }
+                    finished = true
                     break
                 }
 
-                // 4c. Execute all requested tool calls
-                val toolResultEntries = mutableListOf<ToolResultEntry>()
+                // Keep tool results in the order the model requested the calls
+                val callOrder = response.toolCalls.map { it.id }
+                toolResultEntries.sortBy { callOrder.indexOf(it.toolCallId) }
 
-                for (toolCall in response.toolCalls) {
-                    emit(AgentEvent.ToolCall(toolCall.toolName, toolCall.input))
-
-                    val result = toolRegistry.execute(toolCall.toolName, toolCall.input)
-                    emit(AgentEvent.ToolResult(toolCall.toolName, result.output, result.success))
-
-                    // Persist tool result to DB (shown in the UI as a tool chip)
-                    messageDao.insert(
-                        Message(
-                            sessionId = sessionId,
-                            role      = MessageRole.TOOL,
-                            content   = "${toolCall.toolName}: ${result.output}",
-                            toolName  = toolCall.toolName
-                        )
-                    )
-
-                    toolResultEntries += ToolResultEntry(
-                        toolCallId = toolCall.id,
-                        toolName   = toolCall.toolName,
-                        content    = result.output,
-                        isError    = !result.success
-                    )
-                }
-
-                // 4d. Build provider-specific continuation messages and loop
-                val continuationMsgs = llmProvider.buildContinuationMessages(
-                    response    = response,
-                    toolResults = toolResultEntries
-                )
-                conversationMessages.addAll(continuationMsgs)
-
-                // ── 4e. ReAct self-reflection on failure ───────────────────────
+                // ── 4d. ReAct self-reflection on failure ───────────────────────
                 val failedTools = toolResultEntries.filter { it.isError }
                 val allSucceeded = failedTools.isEmpty()
+                modelRouter.record(route, response, failed = !allSucceeded)
 
-                if (allSucceeded) {
+                val note: String? = if (allSucceeded) {
                     // If previous iteration had failures but this one succeeded → recovered!
                     // Encourage the agent to save the working approach to memory.
-                    if (hadFailureLastIteration) {
-                        conversationMessages.add(
-                            ApiMessage(
-                                role    = "user",
-                                content = "✓ Das hat jetzt funktioniert! Bitte speichere die erfolgreiche " +
-                                    "Methode mit manage_memory(action=save), damit du sie beim nächsten " +
-                                    "Mal direkt nutzen kannst. Dann mach weiter mit der Aufgabe."
-                            )
-                        )
-                    }
+                    val recovered = hadFailureLastIteration
                     consecutiveFailures = 0
                     hadFailureLastIteration = false
+                    if (recovered) {
+                        "✓ Das hat jetzt funktioniert! Bitte speichere die erfolgreiche " +
+                            "Methode mit manage_memory(action=save), damit du sie beim nächsten " +
+                            "Mal direkt nutzen kannst. Dann mach weiter mit der Aufgabe."
+                    } else {
+                        null
+                    }
                 } else {
                     consecutiveFailures++
                     hadFailureLastIteration = true
                     val failedNames = failedTools.joinToString(", ") { it.toolName }
 
                     // Build a reflection hint that escalates with repeated failures
-                    val reflectionHint = buildString {
+                    buildString {
                         append("🔁 SELBST-REFLEKTION: Die folgenden Tools sind fehlgeschlagen: $failedNames.\n")
                         if (consecutiveFailures >= 3) {
                             append("Du hast jetzt $consecutiveFailures Mal in Folge Fehler gehabt. " +
@@ -253,33 +349,299 @@ class AgentUseCase @Inject constructor(
                         append("- scroll fehlgeschlagen? → swipe versuchen\n")
                         append("Erkläre in einem Satz was du anders machen wirst, dann führe es aus.")
                     }
+                }
 
-                    conversationMessages.add(
-                        ApiMessage(role = "user", content = reflectionHint)
-                    )
+                // 4e. Add the step to the context. Before the next call it masks superseded
+                //     observations (old screen dumps, duplicate outputs, stale reflection
+                //     hints) and collapses older steps when the budget is exceeded.
+                //     The step is also persisted, so follow-up messages can replay it.
+                var step = AgentStep(response, toolResultEntries.toList(), note)
+
+                // 4f. Progress check: repeated failing calls, cycles and stalls first get a
+                //     strategy hint, then the strong model, then the run is stopped
+                val verdict = progress.record(step)
+                escalateNext = verdict is ProgressTracker.Verdict.ChangeStrategy && verdict.escalate
+                if (verdict is ProgressTracker.Verdict.ChangeStrategy) {
+                    // Own field: the masker drops a failed step's note once a later step succeeds,
+                    // but the loop warning must outlive a single lucky step
+                    step = step.copy(hint = verdict.hint)
+                }
+
+                context.addStep(step)
+                lastStep = step
+                conversationRepository.addStep(sessionId, userMessageId, iterations - 1, step.toStored())
+                partial.clear()
+
+                if (verdict is ProgressTracker.Verdict.Stop) {
+                    val stuckMsg = "Ich komme hier nicht weiter – die letzten Schritte haben sich ohne Fortschritt " +
+                        "wiederholt. Bitte formuliere die Aufgabe anders oder erledige diesen Schritt selbst."
+                    conversationRepository.addReply(sessionId, stuckMsg)
+                    send(AgentEvent.Error(stuckMsg))
+                    finished = true
+                    break
                 }
             }
 
             // Guard against hitting the iteration limit
-            if (iterations >= maxIterations) {
+            if (!finished) {
                 val limitMsg = "Aufgabe benötigte zu viele Schritte. Bitte vereinfache die Anfrage."
-                messageDao.insert(
-                    Message(sessionId = sessionId, role = MessageRole.ASSISTANT, content = limitMsg)
-                )
-                emit(AgentEvent.Error(limitMsg))
+                conversationRepository.addReply(sessionId, limitMsg)
+                send(AgentEvent.Error(limitMsg))
             }
 
+        } catch (e: CancellationException) {
+            // Stopped by the user: keep what the run already did, then let the cancellation
+            // propagate. NonCancellable – the DB writes must not be cancelled themselves.
+            withContext(NonCancellable) { persistCancelled(sessionId, userMessageId, partial) }
+            throw e
         } catch (e: Exception) {
-            val errorMsg = when {
-                e.message?.contains("401") == true  -> "API-Schlüssel ungültig. Bitte in Einstellungen prüfen."
-                e.message?.contains("429") == true  -> "Zu viele Anfragen – bitte kurz warten."
-                e is java.net.UnknownHostException  -> "Keine Internetverbindung."
-                else                                -> "Fehler: ${e.message}"
+            val errorMsg = if (e is LlmException) describe(e) else "Fehler: ${e.message}"
+            conversationRepository.addReply(sessionId, errorMsg)
+            send(AgentEvent.Error(errorMsg))
+        }
+    }
+
+    /**
+     * Plan-then-execute: one LLM call returns the whole plan, [PlanExecutor] runs it locally
+     * and the LLM is only asked again to re-plan from a failing step (at most [MAX_REPLANS]
+     * times) or to continue a plan that ended with an observation.
+     */
+    private suspend fun ProducerScope<AgentEvent>.runPlanned(
+        userInput: String,
+        sessionId: String,
+        userMessageId: Long,
+        context: ContextWindow,
+        systemPrompt: String,
+        systemContext: String,
+        tools: List<ApiTool>,
+        partial: PartialStep
+    ) {
+        val planPrompt = systemPrompt + PLAN_MODE_PROMPT
+        var calls = 0
+        var replans = 0
+        var lastStep: AgentStep? = null
+
+        while (calls < maxIterations) {
+            calls++
+            partial.begin(stepIndex = calls - 1)
+            val route = modelRouter.route(userInput, calls, maxIterations, replans, lastStep)
+            val response = llmProvider.complete(
+                messages      = context.messages(),
+                systemPrompt  = planPrompt,
+                tools         = tools,
+                systemContext = systemContext,
+                sessionId     = sessionId,
+                modelTier     = route.tier
+            )
+
+            // No plan (or an empty one) → the turn is the answer
+            val plan = planExecutor.parse(response)
+            if (plan == null || plan.steps.isEmpty()) {
+                modelRouter.record(route, response, failed = false)
+                val finalText = plan?.reply ?: response.textContent?.trim().orEmpty()
+                if (finalText.isNotBlank()) {
+                    conversationRepository.addReply(sessionId, finalText)
+                    send(AgentEvent.FinalResponse(finalText))
+                }
+                return
+            }
+
+            send(AgentEvent.Thinking("Führe ${plan.steps.size} Schritte aus..."))
+            val outcome = planExecutor.execute(plan) { call ->
+                executeToolCall(call, sessionId).also { partial.add(call, it) }
+            }
+            modelRouter.record(route, response, failed = !outcome.succeeded)
+            if (outcome.calls.any { toolRegistry.changesScreen(it.toolName, it.input) }) {
+                screenSnapshots.speculate()
             }
-            messageDao.insert(
-                Message(sessionId = sessionId, role = MessageRole.ASSISTANT, content = errorMsg)
+
+            val note = outcome.failedIndex?.let { failed ->
+                replans++
+                buildString {
+                    append("🔁 PLAN ABGEBROCHEN bei Schritt ${failed + 1} von ${plan.steps.size} ")
+                    append("(${plan.steps[failed].call.toolName}): ${outcome.failure}\n")
+                    if (failed < plan.steps.lastIndex) {
+                        append("Die Schritte ${failed + 2}–${plan.steps.size} wurden nicht ausgeführt.\n")
+                    }
+                    append("Erstelle einen neuen Plan ab diesem Schritt – erfolgreiche Schritte nicht wiederholen.")
+                }
+            }
+
+            // Persist only what actually ran, so the transcript never contains unanswered calls
+            val step = AgentStep(
+                response    = response.copy(toolCalls = outcome.calls),
+                toolResults = outcome.results,
+                note        = note
             )
-            emit(AgentEvent.Error(errorMsg))
+            context.addStep(step)
+            lastStep = step
+            conversationRepository.addStep(sessionId, userMessageId, calls - 1, step.toStored())
+            partial.clear()
+
+            if (outcome.succeeded && !plan.continues) {
+                val finalText = plan.reply ?: "✓ Erledigt."
+                conversationRepository.addReply(sessionId, finalText)
+                send(AgentEvent.FinalResponse(finalText))
+                return
+            }
+            if (replans > MAX_REPLANS) {
+                val giveUpMsg = "Der Plan ist ${replans}× fehlgeschlagen. Bitte formuliere die Aufgabe anders."
+                conversationRepository.addReply(sessionId, giveUpMsg)
+                send(AgentEvent.Error(giveUpMsg))
+                return
+            }
         }
+
+        val limitMsg = "Aufgabe benötigte zu viele Schritte. Bitte vereinfache die Anfrage."
+        conversationRepository.addReply(sessionId, limitMsg)
+        send(AgentEvent.Error(limitMsg))
+    }
+
+    /**
+     * Persist a cancelled run: the tool calls of the interrupted iteration that completed
+     * (as a step, so a follow-up message knows what already happened on the device) and a
+     * reply marking the run as stopped – with the text streamed so far, if any.
+     */
+    private suspend fun persistCancelled(sessionId: String, userMessageId: Long, partial: PartialStep) {
+        val completed = partial.completed()
+        val text = partial.text.toString().trim()
+        if (completed.isNotEmpty()) {
+            val step = AgentStep(
+                response    = LlmResponse(
+                    textContent = text.ifEmpty { null },
+                    toolCalls   = completed.map { it.first },
+                    stopReason  = "cancelled"
+                ),
+                toolResults = completed.map { it.second }
+            )
+            conversationRepository.addStep(sessionId, userMessageId, partial.stepIndex, step.toStored())
+        }
+        val reply = if (text.isNotEmpty() && completed.isEmpty()) "$text …\n\n$CANCELLED_REPLY" else CANCELLED_REPLY
+        conversationRepository.addReply(sessionId, reply)
+        Log.d(TAG, "Run cancelled in step ${partial.stepIndex} after ${completed.size} tool call(s)")
+    }
+
+    /** User-facing text for a failed LLM call (retries have already been exhausted). */
+    private fun describe(e: LlmException): String = when (e.kind) {
+        LlmException.Kind.AUTH         -> "API-Schlüssel ungültig. Bitte in Einstellungen prüfen."
+        LlmException.Kind.RATE_LIMITED -> "Zu viele Anfragen – bitte kurz warten."
+        LlmException.Kind.OVERLOADED,
+        LlmException.Kind.SERVER       -> "Der KI-Dienst ist gerade überlastet. Bitte gleich noch einmal versuchen."
+        LlmException.Kind.TIMEOUT      -> "Der KI-Dienst antwortet nicht rechtzeitig. Bitte erneut versuchen."
+        LlmException.Kind.NETWORK      -> "Netzwerkfehler – bitte Verbindung prüfen."
+        LlmException.Kind.OFFLINE      -> "Keine Internetverbindung."
+        LlmException.Kind.CIRCUIT_OPEN ->
+            "Der KI-Dienst ist vorübergehend nicht erreichbar. Bitte in ${((e.retryAfterMs ?: 0L) / 1000) + 1} s erneut versuchen."
+        LlmException.Kind.BAD_REQUEST  -> "Fehler: ${e.message}"
+    }
+
+    /**
+     * Execute a [LocalIntent] without an LLM round-trip. The call is persisted as step 0 of the
+     * turn, so follow-up messages replay it like any agent step.
+     *
+     * Returns false – nothing shown, nothing persisted – when the tool failed or wants a
+     * confirmation; the LLM loop then takes over the message and can try another way.
+     */
+    private suspend fun ProducerScope<AgentEvent>.runLocalIntent(
+        intent: LocalIntent,
+        sessionId: String,
+        userMessageId: Long
+    ): Boolean {
+        val startedAt = SystemClock.elapsedRealtime()
+        val result = toolRegistry.execute(intent.toolName, intent.input)
+        if (!result.success || result.needsConfirmation) {
+            Log.d(TAG, "Local intent ${intent.toolName} failed, falling back to the LLM: ${result.output}")
+            return false
+        }
+
+        val toolCall = ToolCallRequest(
+            id       = "local_" + UUID.randomUUID().toString().replace("-", ""),
+            toolName = intent.toolName,
+            input    = intent.input
+        )
+        send(AgentEvent.ToolCall(toolCall.toolName, toolCall.input))
+        send(AgentEvent.ToolResult(toolCall.toolName, result.output, true))
+        conversationRepository.addToolMessage(sessionId, toolCall.toolName, result.output)
+
+        val step = AgentStep(
+            response    = LlmResponse(textContent = null, toolCalls = listOf(toolCall), stopReason = "local_intent"),
+            toolResults = listOf(ToolResultEntry(toolCall.id, toolCall.toolName, result.output, isError = false)),
+            note        = null
+        )
+        conversationRepository.addStep(sessionId, userMessageId, 0, step.toStored())
+        conversationRepository.addReply(sessionId, intent.reply)
+        send(AgentEvent.FinalResponse(intent.reply))
+
+        Log.d(TAG, "Local intent ${intent.toolName} handled in ${SystemClock.elapsedRealtime() - startedAt} ms")
+        return true
+    }
+
+    /** Run one tool call, report it to the UI and persist the result as a tool chip. */
+    private suspend fun ProducerScope<AgentEvent>.executeToolCall(
+        toolCall: ToolCallRequest,
+        sessionId: String
+    ): ToolResultEntry {
+        send(AgentEvent.ToolCall(toolCall.toolName, toolCall.input))
+
+        val result = toolRegistry.execute(toolCall.toolName, toolCall.input)
+        send(AgentEvent.ToolResult(toolCall.toolName, result.output, result.success))
+
+        // Persist tool result to DB (shown in the UI as a tool chip)
+        conversationRepository.addToolMessage(sessionId, toolCall.toolName, result.output)
+
+        return ToolResultEntry(
+            toolCallId = toolCall.id,
+            toolName   = toolCall.toolName,
+            content    = result.output,
+            isError    = !result.success
+        )
+    }
+
+    /** Streamed text and finished tool calls of the iteration in flight. */
+    private class PartialStep {
+        var stepIndex = 0
+            private set
+        val text = StringBuilder()
+        private val results = mutableListOf<Pair<ToolCallRequest, ToolResultEntry>>()
+
+        fun begin(stepIndex: Int) {
+            clear()
+            this.stepIndex = stepIndex
+        }
+
+        /** Tool calls of one iteration may finish concurrently. */
+        fun add(call: ToolCallRequest, result: ToolResultEntry) = synchronized(results) { results += call to result }
+
+        fun completed(): List<Pair<ToolCallRequest, ToolResultEntry>> = synchronized(results) { results.toList() }
+
+        fun clear() {
+            text.setLength(0)
+            synchronized(results) { results.clear() }
+        }
+    }
+
+    private companion object {
+        const val TAG = "AgentUseCase"
+        const val CANCELLED_REPLY = "⏹ Abgebrochen."
+        /** Re-plans after failed steps before plan-then-execute gives up. */
+        const val MAX_REPLANS = 3
+
+        /** Appended to the stable system prompt in plan-then-execute mode. */
+        val PLAN_MODE_PROMPT = """
+
+
+            ══ PLAN-MODUS ══
+            Führe die Aufgabe NICHT Schritt für Schritt aus. Antworte mit GENAU EINEM JSON-Objekt
+            (kein weiterer Text), das den gesamten Ablauf beschreibt:
+            {"steps":[{"tool":"<tool>","input":{...},"expect_screen":"<optional>"}],"reply":"<Antwort an den Nutzer>","continue":false}
+            - Die App führt die Schritte selbst nacheinander aus. Beim ersten Fehler stoppt sie und
+              du bekommst das Ergebnis, um ab dort neu zu planen.
+            - expect_screen: Text, der nach dem Schritt sichtbar sein muss (z. B. "Neue Notiz") –
+              nur setzen, wenn der Schritt sichtbar etwas öffnen oder anzeigen soll.
+            - Hängen weitere Schritte vom Bildschirminhalt ab: Plan mit control_screen(action=read)
+              beenden und "continue":true setzen – du bekommst den Inhalt und planst weiter.
+            - reply wird angezeigt, wenn alle Schritte geklappt haben.
+            - Reine Fragen ohne Geräteaktion: "steps":[] und die Antwort in reply.
+        """.trimIndent()
     }
 }
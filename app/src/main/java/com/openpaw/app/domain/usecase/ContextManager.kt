@@ -0,0 +1,314 @@
+package com.openpaw.app.domain.usecase
+
+import android.util.Log
+import com.google.gson.Gson
+import com.openpaw.app.data.remote.ChatMessage
+import com.openpaw.app.data.remote.ChatPart
+import com.openpaw.app.data.remote.LlmResponse
+import com.openpaw.app.data.remote.ToolResultEntry
+import com.openpaw.app.data.remote.dto.ApiTool
+import com.openpaw.app.data.repository.Exchange
+import com.openpaw.app.data.repository.SettingsRepository
+import com.openpaw.app.data.repository.StoredStep
+import kotlinx.coroutines.flow.first
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * One completed agent iteration: the LLM turn, the results of its tool calls and optional
+ * follow-up text sent after the results – a self-reflection [note], which is dropped once
+ * the agent recovered, and a [hint] from the ProgressTracker, which stays.
+ */
+data class AgentStep(
+    val response: LlmResponse,
+    val toolResults: List<ToolResultEntry>,
+    val note: String? = null,
+    /** Strategy hint on repeated failures, cycles or stalls – never masked. */
+    val hint: String? = null
+) {
+    fun toStored() = StoredStep(response.textContent, response.toolCalls, toolResults)
+
+    companion object {
+        /** Rebuild a step from its persisted form (see ConversationRepository). */
+        fun fromStored(stored: StoredStep) = AgentStep(
+            response    = LlmResponse(
+                textContent = stored.text,
+                toolCalls   = stored.toolCalls,
+                stopReason  = "tool_use"
+            ),
+            toolResults = stored.toolResults
+        )
+    }
+}
+
+/**
+ * Keeps every LLM request of an agent run inside a configurable token budget.
+ *
+ * Always kept verbatim: system prompt, tools, the current task and the latest agent step.
+ * Superseded tool observations are masked first (see [ObservationMasker]); only then are
+ * older exchanges and older agent steps collapsed into short rolling summaries once
+ * the budget is exceeded, so request size (and latency) stays flat in long sessions.
+ *
+ * Token counts are estimated (≈ 4 characters per token) – precise enough for budgeting,
+ * and free compared to a real tokenizer.
+ */
+@Singleton
+class ContextManager @Inject constructor(
+    private val settingsRepository: SettingsRepository,
+    private val observationMasker: ObservationMasker,
+    private val gson: Gson
+) {
+    /**
+     * Open the context for one `processMessage` run.
+     *
+     * @param history  Previous exchanges of the session, including their structured tool turns.
+     */
+    suspend fun open(
+        history: List<Exchange>,
+        task: String,
+        systemPrompt: String,
+        systemContext: String,
+        tools: List<ApiTool>
+    ): ContextWindow {
+        val budget = settingsRepository.contextTokenBudget.first()
+        val fixedTokens = estimateTokens(systemPrompt) + estimateTokens(systemContext) + estimateTokens(tools)
+        val available = (budget - fixedTokens).coerceAtLeast(budget / 4)
+        val summaryCap = budget / 10
+
+        val historyMessages = buildHistory(
+            history       = history,
+            historyBudget = (available - estimateTokens(task)) / 2,
+            summaryCap    = summaryCap
+        )
+        return ContextWindow(
+            available       = available,
+            summaryCap      = summaryCap,
+            historyMessages = historyMessages,
+            task            = task,
+            masker          = observationMasker,
+            estimate        = ::estimateTokens
+        )
+    }
+
+    fun estimateTokens(value: Any?): Int = when (value) {
+        null           -> 0
+        is String      -> value.length / CHARS_PER_TOKEN + 1
+        is ChatMessage -> value.charCount / CHARS_PER_TOKEN + 1
+        else           -> gson.toJson(value).length / CHARS_PER_TOKEN + 1
+    }
+
+    // ── History ───────────────────────────────────────────────────────────────
+
+    /**
+     * Newest exchanges verbatim (user text, replayed tool turns, reply) as long as they fit
+     * into [historyBudget]; everything older becomes an extractive summary.
+     */
+    private fun buildHistory(
+        history: List<Exchange>,
+        historyBudget: Int,
+        summaryCap: Int
+    ): List<ChatMessage> {
+        // Mask across all previous steps: only the newest screen dump survives, etc.
+        val allSteps = history.flatMap { it.steps }.map(AgentStep::fromStored)
+        val maskedSteps = observationMasker.mask(allSteps).iterator()
+        val stepsPerExchange = history.map { exchange -> List(exchange.steps.size) { maskedSteps.next() } }
+
+        var used = 0
+        var firstKept = history.size
+        val keptBlocks = ArrayDeque<List<ChatMessage>>()
+        for (i in history.indices.reversed()) {
+            val block = renderExchange(history[i], stepsPerExchange[i])
+            val cost = block.sumOf { estimateTokens(it) }
+            if (used + cost > historyBudget) break
+            used += cost
+            firstKept = i
+            keptBlocks.addFirst(block)
+        }
+
+        val summaryLines = (0 until firstKept).flatMap { i ->
+            val exchange = history[i]
+            buildList {
+                exchange.userMessage?.let { add("Nutzer: ${it.content.oneLine(SUMMARY_LINE_CHARS)}") }
+                stepsPerExchange[i].forEach { add("  ↳ ${summarizeStep(it)}") }
+                exchange.replies.forEach { add("Assistent: ${it.content.oneLine(SUMMARY_LINE_CHARS)}") }
+            }
+        }
+        val kept = keptBlocks.flatten().toMutableList()
+        val summary = summaryLines.takeLastWithin(summaryCap) ?: return kept
+
+        // Merge the summary into the first user turn so roles keep alternating
+        val first = kept.firstOrNull()
+        val firstText = first?.parts?.singleOrNull() as? ChatPart.Text
+        if (first?.role == ChatMessage.Role.USER && firstText != null) {
+            kept[0] = ChatMessage.user("$HISTORY_SUMMARY_HEADER\n$summary\n\n${firstText.text}")
+        } else {
+            kept.add(0, ChatMessage.user("$HISTORY_SUMMARY_HEADER\n$summary"))
+        }
+        Log.d(TAG, "History: $firstKept older exchanges summarised, ${history.size - firstKept} kept")
+        return kept
+    }
+
+    private fun renderExchange(exchange: Exchange, steps: List<AgentStep>): List<ChatMessage> = buildList {
+        exchange.userMessage?.let { add(ChatMessage.user(it.content)) }
+        steps.forEach { addAll(ChatMessage.continuation(it.response, it.toolResults)) }
+        exchange.replies.forEach { add(ChatMessage.assistant(it.content)) }
+    }
+
+    /** Join the newest lines that fit into [maxTokens]; null if nothing to summarise. */
+    private fun List<String>.takeLastWithin(maxTokens: Int): String? {
+        if (isEmpty()) return null
+        val kept = ArrayDeque<String>()
+        var used = 0
+        for (line in asReversed()) {
+            val cost = estimateTokens(line)
+            if (used + cost > maxTokens && kept.isNotEmpty()) break
+            used += cost
+            kept.addFirst(line)
+        }
+        if (kept.size < size) kept.addFirst("…")
+        return kept.joinToString("\n")
+    }
+
+    companion object {
+        const val CHARS_PER_TOKEN = 4
+        private const val TAG = "ContextManager"
+        private const val HISTORY_SUMMARY_HEADER = "[Frühere Unterhaltung – zusammengefasst]"
+    }
+}
+
+/**
+ * The evolving message list of a single agent run. Not thread-safe – owned by the agent loop.
+ */
+class ContextWindow internal constructor(
+    /** Tokens left for history + task + steps after system prompt and tool schemas. */
+    private val available: Int,
+    private val summaryCap: Int,
+    private val historyMessages: List<ChatMessage>,
+    private val task: String,
+    private val masker: ObservationMasker,
+    private val estimate: (Any?) -> Int
+) {
+    /**
+     * [shown] is [original] after observation masking; [messages] are rendered from [shown].
+     * The same message instances are re-sent every iteration, so their provider encodings
+     * are computed only once.
+     */
+    private class RenderedStep(
+        val original: AgentStep,
+        val shown: AgentStep,
+        val messages: List<ChatMessage>,
+        val tokens: Int
+    )
+
+    private val historyTokens = historyMessages.sumOf { estimate(it) }
+
+    private val steps = mutableListOf<RenderedStep>()
+    private var collapsedSteps = 0
+    private val stepSummary = ArrayDeque<String>()
+
+    /** Re-created only when the step summary changes, so its encoding stays memoized. */
+    private var cachedTaskMessage: ChatMessage? = null
+
+    /** Estimated size of the next request (without system prompt and tools). */
+    val estimatedTokens: Int
+        get() = historyTokens + estimate(taskContent()) + steps.drop(collapsedSteps).sumOf { it.tokens }
+
+    /**
+     * Record a finished agent step, mask observations it supersedes and collapse older
+     * steps if the budget is still exceeded.
+     */
+    fun addStep(step: AgentStep) {
+        steps += renderStep(step, step)
+        maskObservations()
+        compact()
+    }
+
+    /** The messages for the next LLM call. */
+    fun messages(): List<ChatMessage> = buildList {
+        addAll(historyMessages)
+        add(taskMessage())
+        steps.drop(collapsedSteps).forEach { addAll(it.messages) }
+    }
+
+    // ── Observation masking ───────────────────────────────────────────────────
+
+    private fun maskObservations() {
+        val masked = masker.mask(steps.map { it.original })
+        masked.forEachIndexed { i, shown ->
+            val current = steps[i]
+            if (shown != current.shown) steps[i] = renderStep(current.original, shown)
+        }
+    }
+
+    private fun renderStep(original: AgentStep, shown: AgentStep): RenderedStep {
+        val followUp = listOfNotNull(shown.note, shown.hint).joinToString("\n\n").ifEmpty { null }
+        val messages = ChatMessage.continuation(shown.response, shown.toolResults, followUp)
+        return RenderedStep(original, shown, messages, messages.sumOf { estimate(it) })
+    }
+
+    // ── Compaction ────────────────────────────────────────────────────────────
+
+    private fun compact() {
+        if (estimatedTokens <= available) return
+
+        // Collapse down to a low-water mark rather than just below the limit: the request
+        // prefix then stays unchanged for several iterations, which keeps prompt caching useful.
+        val target = available * 3 / 4
+        val before = collapsedSteps
+        while (estimatedTokens > target && collapsedSteps < steps.lastIndex) {
+            stepSummary.addLast("${collapsedSteps + 1}. ${summarizeStep(steps[collapsedSteps].shown)}")
+            collapsedSteps++
+            while (stepSummary.size > 1 && estimate(stepSummary.joinToString("\n")) > summaryCap) {
+                stepSummary.removeFirst()
+            }
+        }
+        if (collapsedSteps > before) {
+            Log.d(TAG, "Collapsed ${collapsedSteps - before} steps – now ≈$estimatedTokens / $available tokens")
+        }
+    }
+
+    private fun taskContent(): String =
+        if (stepSummary.isEmpty()) task
+        else "$task\n\n[Bisherige Schritte – zusammengefasst]\n${stepSummary.joinToString("\n")}"
+
+    private fun taskMessage(): ChatMessage {
+        val content = taskContent()
+        cachedTaskMessage?.takeIf { it.text == content }?.let { return it }
+        return ChatMessage.user(content).also { cachedTaskMessage = it }
+    }
+
+    companion object {
+        private const val TAG = "ContextManager"
+    }
+}
+
+// ── Summaries ─────────────────────────────────────────────────────────────────
+
+private const val SUMMARY_LINE_CHARS = 200
+private const val SUMMARY_ARGS_CHARS = 80
+
+/** One line per step: model text (if any) and each tool call with its outcome. */
+private fun summarizeStep(step: AgentStep): String {
+    val results = step.toolResults.associateBy { it.toolCallId }
+    return buildString {
+        step.response.textContent?.takeIf { it.isNotBlank() }?.let {
+            append("„${it.oneLine(SUMMARY_LINE_CHARS / 2)}“ ")
+        }
+        step.response.toolCalls.forEach { call ->
+            val args = call.input.entries.joinToString(", ") { (k, v) -> "$k=$v" }
+                .oneLine(SUMMARY_ARGS_CHARS)
+            val result = results[call.id]
+            val status = when {
+                result == null   -> "–"
+                result.isError   -> "✗ ${result.content.oneLine(SUMMARY_LINE_CHARS / 2)}"
+                else             -> "✓ ${result.content.oneLine(SUMMARY_LINE_CHARS / 2)}"
+            }
+            append("${call.toolName}($args) → $status; ")
+        }
+    }.trimEnd()
+}
+
+private fun String.oneLine(max: Int): String {
+    val flat = replace(Regex("\\s+"), " ").trim()
+    return if (flat.length <= max) flat else flat.take(max) + "…"
+}
@@ -0,0 +1,223 @@
+package com.openpaw.app.domain.usecase
+
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * A command recognised on the device: the tool call to run and the reply to show.
+ */
+data class LocalIntent(
+    val toolName: String,
+    val input: Map<String, Any>,
+    /** Templated reply, already in the user's language. */
+    val reply: String
+)
+
+/**
+ * On-device fast path for the most common one-shot commands – timers, alarms, "open X" and
+ * clipboard copies – in German and English.
+ *
+ * Each grammar matches the *whole* utterance; anything that does not fit exactly (extra
+ * clauses, relative references like "die Adresse", unparseable times) returns null and goes
+ * to the LLM as before. A match costs a few regex evaluations, no network.
+ */
+@Singleton
+class LocalIntentMatcher @Inject constructor() {
+
+    private class Grammar(
+        pattern: String,
+        val english: Boolean,
+        val build: (MatchResult, english: Boolean) -> LocalIntent?
+    ) {
+        val regex = Regex("^$pattern$", RegexOption.IGNORE_CASE)
+    }
+
+    fun match(userInput: String): LocalIntent? {
+        val text = normalize(userInput)
+        if (text.isEmpty() || text.length > MAX_INPUT_CHARS) return null
+        for (grammar in grammars) {
+            val match = grammar.regex.matchEntire(text) ?: continue
+            grammar.build(match, grammar.english)?.let { return it }
+        }
+        return null
+    }
+
+    // ── Grammars ──────────────────────────────────────────────────────────────
+
+    private val grammars = listOf(
+        // Timer
+        Grammar("(?:(?:stell|stelle|setz|setze|starte?|mach|mache)\\s+)?(?:mir\\s+)?(?:(?:einen|nen|ein)\\s+)?timer\\s+(?:(?:auf|für|von|über)\\s+)?(?<d>$DURATION)(?:\\s+(?:ein|an))?", false, ::timer),
+        Grammar("(?<d>$DURATION)\\s+timer(?:\\s+(?:stellen|starten))?", false, ::timer),
+        Grammar("(?:(?:set|start|make)\\s+)?(?:me\\s+)?(?:an?\\s+)?timer\\s+(?:for\\s+)?(?<d>$DURATION)", true, ::timer),
+        Grammar("(?:(?:set|start)\\s+)?(?:an?\\s+)?(?<d>$DURATION)\\s+timer", true, ::timer),
+
+        // Alarm
+        Grammar("(?:(?:stell|stelle)\\s+)?(?:mir\\s+)?(?:(?:einen|den|meinen)\\s+)?(?:wecker|alarm)\\s+(?:auf|für|um)\\s+(?<t>$TIME)(?:\\s+(?:ein|an))?", false, ::alarm),
+        Grammar("weck(?:e)?\\s+mich\\s+(?:morgen\\s+)?um\\s+(?<t>$TIME)", false, ::alarm),
+        Grammar("(?:set\\s+)?(?:an?\\s+|my\\s+)?alarm\\s+(?:for|at)\\s+(?<t>$TIME)", true, ::alarm),
+        Grammar("wake\\s+me\\s+(?:up\\s+)?(?:tomorrow\\s+)?at\\s+(?<t>$TIME)", true, ::alarm),
+
+        // Clipboard – only quoted text is unambiguous
+        Grammar("kopier(?:e)?\\s+(?:mir\\s+)?(?:den\\s+text\\s+)?$QUOTE_OPEN(?<text>.+)$QUOTE_CLOSE(?:\\s+in\\s+die\\s+zwischenablage)?", false, ::copy),
+        Grammar("copy\\s+(?:the\\s+text\\s+)?$QUOTE_OPEN(?<text>.+)$QUOTE_CLOSE(?:\\s+to\\s+(?:the\\s+)?clipboard)?", true, ::copy),
+
+        // Open app
+        Grammar("(?:öffne|starte)\\s+(?:mir\\s+)?(?:(?:die|das|den)\\s+)?(?:app\\s+)?(?<app>.+?)(?:\\s+app)?", false, ::openApp),
+        Grammar("mach\\s+(?:mir\\s+)?(?:(?:die|das|den)\\s+)?(?:app\\s+)?(?<app>.+?)(?:\\s+app)?\\s+auf", false, ::openApp),
+        Grammar("(?<app>.+?)\\s+(?:öffnen|starten)", false, ::openApp),
+        Grammar("(?:open|launch|start)\\s+(?:up\\s+)?(?:the\\s+)?(?:app\\s+)?(?<app>.+?)(?:\\s+app)?", true, ::openApp)
+    )
+
+    private fun timer(match: MatchResult, english: Boolean): LocalIntent? {
+        val seconds = parseDurationSeconds(match.groups["d"]?.value ?: return null) ?: return null
+        if (seconds !in 1..MAX_TIMER_SECONDS) return null
+        val label = formatDuration(seconds, english)
+        return LocalIntent(
+            toolName = "set_alarm",
+            input    = mapOf("timer_seconds" to seconds),
+            reply    = if (english) "⏱️ Timer set for $label." else "⏱️ Timer auf $label gestellt."
+        )
+    }
+
+    private fun alarm(match: MatchResult, english: Boolean): LocalIntent? {
+        val (hour, minutes) = parseTime(match.groups["t"]?.value ?: return null) ?: return null
+        val time = "%02d:%02d".format(hour, minutes)
+        return LocalIntent(
+            toolName = "set_alarm",
+            input    = mapOf("hour" to hour, "minutes" to minutes),
+            reply    = if (english) "⏰ Alarm set for $time." else "⏰ Wecker auf $time Uhr gestellt."
+        )
+    }
+
+    private fun copy(match: MatchResult, english: Boolean): LocalIntent? {
+        val text = match.groups["text"]?.value?.takeIf { it.isNotBlank() } ?: return null
+        return LocalIntent(
+            toolName = "clipboard",
+            input    = mapOf("action" to "copy", "text" to text),
+            reply    = if (english) "📋 Copied to clipboard." else "📋 In die Zwischenablage kopiert."
+        )
+    }
+
+    private fun openApp(match: MatchResult, english: Boolean): LocalIntent? {
+        val app = match.groups["app"]?.value?.trim()?.trim('"', '\'', '„', '“', '”') ?: return null
+        val words = app.split(' ')
+        // "öffne eine neue Notiz und …" is a task, not an app name
+        if (app.isEmpty() || app.length > MAX_APP_NAME_CHARS || words.size > MAX_APP_NAME_WORDS) return null
+        if (words.any { it.lowercase() in NOT_AN_APP }) return null
+        return LocalIntent(
+            toolName = "open_app",
+            input    = mapOf("app_name" to app),
+            reply    = if (english) "📱 Opened $app." else "📱 $app geöffnet."
+        )
+    }
+
+    // ── Parsing ───────────────────────────────────────────────────────────────
+
+    /** Trim, collapse whitespace, drop trailing punctuation and polite filler. */
+    private fun normalize(input: String): String =
+        input.trim()
+            .replace(WHITESPACE, " ")
+            .trimEnd('.', '!', '?', ' ')
+            .replace(POLITE_PREFIX, "")
+            .replace(POLITE_SUFFIX, "")
+            .trim()
+
+    private fun parseDurationSeconds(text: String): Int? {
+        var rest = text.lowercase().replace(WHITESPACE, " ")
+        var total = 0.0
+        var matched = false
+        // Removed before the number scan – "half an hour" must not also count as "an hour"
+        SPECIAL_DURATIONS.forEach { (phrase, seconds) ->
+            if (phrase in rest) {
+                total += seconds
+                matched = true
+                rest = rest.replace(phrase, " ")
+            }
+        }
+        PART_REGEX.findAll(rest).forEach { part ->
+            val amount = parseNumber(part.groupValues[1]) ?: return null
+            val unit = part.groupValues[2]
+            total += amount * when {
+                unit.startsWith("h") || unit.startsWith("st") -> 3_600
+                unit.startsWith("m")                          -> 60
+                else                                          -> 1
+            }
+            matched = true
+        }
+        return if (matched) total.toInt() else null
+    }
+
+    private fun parseNumber(token: String): Double? =
+        token.replace(',', '.').toDoubleOrNull() ?: NUMBER_WORDS[token]?.toDouble()
+
+    /** "7", "7:30", "19.30 Uhr", "7 Uhr abends", "7:30 pm" → (hour, minutes) or null. */
+    private fun parseTime(text: String): Pair<Int, Int>? {
+        val match = TIME_PARTS.matchEntire(text.lowercase().trim()) ?: return null
+        var hour = match.groupValues[1].toInt()
+        val minutes = match.groupValues[2].ifEmpty { "0" }.toInt()
+        when (match.groupValues[3].replace(".", "")) {
+            "pm", "nachmittags", "abends" -> if (hour in 1..11) hour += 12
+            "nachts"                      -> if (hour in 8..11) hour += 12
+            "am"                          -> if (hour == 12) hour = 0
+        }
+        if (hour !in 0..23 || minutes !in 0..59) return null
+        return hour to minutes
+    }
+
+    private fun formatDuration(seconds: Int, english: Boolean): String {
+        val h = seconds / 3_600
+        val m = seconds % 3_600 / 60
+        val s = seconds % 60
+        return buildList {
+            if (h > 0) add(if (english) "$h ${if (h == 1) "hour" else "hours"}" else "$h ${if (h == 1) "Stunde" else "Stunden"}")
+            if (m > 0) add(if (english) "$m ${if (m == 1) "minute" else "minutes"}" else "$m ${if (m == 1) "Minute" else "Minuten"}")
+            if (s > 0) add(if (english) "$s ${if (s == 1) "second" else "seconds"}" else "$s ${if (s == 1) "Sekunde" else "Sekunden"}")
+        }.joinToString(" ")
+    }
+
+    private companion object {
+        const val MAX_INPUT_CHARS = 120
+        const val MAX_TIMER_SECONDS = 24 * 3_600
+        const val MAX_APP_NAME_CHARS = 30
+        const val MAX_APP_NAME_WORDS = 3
+
+        val NUMBER_WORDS = mapOf(
+            "ein" to 1, "eine" to 1, "einen" to 1, "einer" to 1, "a" to 1, "an" to 1, "one" to 1,
+            "zwei" to 2, "two" to 2, "drei" to 3, "three" to 3, "vier" to 4, "four" to 4,
+            "fünf" to 5, "five" to 5, "sechs" to 6, "six" to 6, "sieben" to 7, "seven" to 7,
+            "acht" to 8, "eight" to 8, "neun" to 9, "nine" to 9, "zehn" to 10, "ten" to 10,
+            "elf" to 11, "eleven" to 11, "zwölf" to 12, "twelve" to 12,
+            "fünfzehn" to 15, "fifteen" to 15, "zwanzig" to 20, "twenty" to 20,
+            "dreißig" to 30, "thirty" to 30, "fünfundvierzig" to 45, "forty-five" to 45,
+            "neunzig" to 90, "ninety" to 90
+        )
+        val SPECIAL_DURATIONS = mapOf(
+            "halbe stunde" to 1_800, "half an hour" to 1_800,
+            "viertelstunde" to 900, "quarter of an hour" to 900, "quarter hour" to 900
+        )
+
+        val NUMBER = "(?:\\d+(?:[.,]\\d+)?|" + NUMBER_WORDS.keys.sortedByDescending { it.length }.joinToString("|") + ")"
+        /** Longest alternatives first, so "min" never stops at "m". */
+        const val UNIT = "(?:stunden|stunde|std|hours|hour|hrs|hr|h|minuten|minute|minutes|mins|min|m|sekunden|sekunde|seconds|second|secs|sec|sek|s)"
+        val PART = "$NUMBER\\s*$UNIT\\b"
+        val SPECIAL = "(?:(?:eine\\s+)?halbe\\s+stunde|half\\s+an\\s+hour|(?:eine\\s+)?viertelstunde|(?:a\\s+)?quarter(?:\\s+of\\s+an)?\\s+hour)"
+        val DURATION = "(?:$PART|$SPECIAL)(?:\\s*(?:,|und|and)?\\s*(?:$PART|$SPECIAL))*"
+        val PART_REGEX = Regex("($NUMBER)\\s*($UNIT)\\b")
+
+        const val TIME = "\\d{1,2}(?:[:.]\\d{2})?(?:\\s*uhr)?(?:\\s*(?:am|pm|a\\.m\\.?|p\\.m\\.?|morgens|früh|vormittags|nachmittags|abends|nachts))?"
+        val TIME_PARTS = Regex("(\\d{1,2})(?:[:.](\\d{2}))?(?:\\s*uhr)?(?:\\s*(am|pm|a\\.m\\.?|p\\.m\\.?|morgens|früh|vormittags|nachmittags|abends|nachts))?")
+
+        const val QUOTE_OPEN = "[\"'„“‚‘»«]"
+        const val QUOTE_CLOSE = "[\"'“”‘’«»]"
+
+        /** Words that mark a multi-step task or a non-app object. */
+        val NOT_AN_APP = setOf(
+            "und", "dann", "mit", "and", "then", "with",
+            "ein", "eine", "einen", "neue", "neuen", "a", "an", "new", "my", "mein", "meine"
+        )
+
+        val WHITESPACE = Regex("\\s+")
+        val POLITE_PREFIX = Regex("^(?:bitte|please|hey openpaw|openpaw)[,\\s]+", RegexOption.IGNORE_CASE)
+        val POLITE_SUFFIX = Regex("[,\\s]+(?:bitte|please)$", RegexOption.IGNORE_CASE)
+    }
+}
@@ -0,0 +1,133 @@
+package com.openpaw.app.domain.usecase
+
+import android.util.Log
+import com.openpaw.app.data.remote.AnthropicLlmProvider
+import com.openpaw.app.data.remote.LlmProviderType
+import com.openpaw.app.data.remote.LlmRateLimiter
+import com.openpaw.app.data.remote.LlmResponse
+import com.openpaw.app.data.remote.ModelTier
+import com.openpaw.app.data.repository.SettingsRepository
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.update
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Picks the model tier for each iteration of the agent loop.
+ *
+ * Mechanical tool steps ("press home", "open Spotify") run on the configured – small and
+ * fast – model. The loop escalates to the strong model where reasoning pays off:
+ *
+ *  - recovery:          after [ESCALATE_AFTER_FAILURES] failed iterations in a row, or when
+ *                       the [ProgressTracker] found the run looping or stalled
+ *  - final answer:      the last iteration before the step limit has to wrap up
+ *  - ambiguous screen:  the last screen read was crowded or a click target was not found
+ *  - planning:          the first iteration of a task that is more than a one-liner
+ *
+ * Escalation is skipped while the provider's rate-limit headroom is low – a slower answer
+ * from the small model beats a 429. Every decision and its outcome is recorded per tier
+ * ([stats]) so speed can be weighed against success rate.
+ */
+@Singleton
+class ModelRouter @Inject constructor(
+    private val settingsRepository: SettingsRepository,
+    private val rateLimiter: LlmRateLimiter
+) {
+    enum class Reason { ROUTING_OFF, TOOL_STEP, PLANNING, RECOVERY, AMBIGUOUS_SCREEN, FINAL_ANSWER, STALLED, LOW_HEADROOM }
+
+    data class Decision(val tier: ModelTier, val reason: Reason)
+
+    /** Outcome of all calls routed to one tier since app start. */
+    data class TierStats(
+        val calls: Int = 0,
+        /** Calls whose tool step contained at least one failed tool. */
+        val failedSteps: Int = 0,
+        val totalLatencyMs: Long = 0,
+        val inputTokens: Long = 0,
+        val outputTokens: Long = 0,
+        val models: Set<String> = emptySet()
+    ) {
+        val successRate: Float get() = if (calls == 0) 0f else (calls - failedSteps).toFloat() / calls
+        val avgLatencyMs: Long get() = if (calls == 0) 0 else totalLatencyMs / calls
+    }
+
+    private val _stats = MutableStateFlow<Map<ModelTier, TierStats>>(emptyMap())
+    val stats: StateFlow<Map<ModelTier, TierStats>> = _stats.asStateFlow()
+
+    /**
+     * Tier for the next LLM call.
+     *
+     * @param iteration            1-based iteration that is about to start
+     * @param consecutiveFailures  iterations in a row whose tool step had a failure
+     * @param lastStep             the previous step of this run (null on the first iteration)
+     * @param stalled              the progress tracker asked for escalation
+     */
+    suspend fun route(
+        task: String,
+        iteration: Int,
+        maxIterations: Int,
+        consecutiveFailures: Int,
+        lastStep: AgentStep?,
+        stalled: Boolean = false
+    ): Decision {
+        if (!settingsRepository.modelRoutingEnabled.first()) return Decision(ModelTier.FAST, Reason.ROUTING_OFF)
+
+        val escalation = when {
+            stalled                                                 -> Reason.STALLED
+            consecutiveFailures >= ESCALATE_AFTER_FAILURES          -> Reason.RECOVERY
+            iteration >= maxIterations                              -> Reason.FINAL_ANSWER
+            lastStep?.hasAmbiguousScreen() == true                  -> Reason.AMBIGUOUS_SCREEN
+            iteration == 1 && task.trim().length > SHORT_TASK_CHARS -> Reason.PLANNING
+            else                                                    -> null
+        }
+        val decision = when {
+            escalation == null -> Decision(ModelTier.FAST, Reason.TOOL_STEP)
+            lowHeadroom()      -> Decision(ModelTier.FAST, Reason.LOW_HEADROOM)
+            else               -> Decision(ModelTier.STRONG, escalation)
+        }
+        Log.d(TAG, "Iteration $iteration → ${decision.tier} (${decision.reason})")
+        return decision
+    }
+
+    /** Record the call made for [decision]; [failed] = its tool step had a failed tool. */
+    fun record(decision: Decision, response: LlmResponse, failed: Boolean) {
+        _stats.update { all ->
+            val s = all[decision.tier] ?: TierStats()
+            all + (decision.tier to s.copy(
+                calls          = s.calls + 1,
+                failedSteps    = s.failedSteps + if (failed) 1 else 0,
+                totalLatencyMs = s.totalLatencyMs + (response.durationMs ?: 0L),
+                inputTokens    = s.inputTokens + (response.usage?.inputTokens ?: 0),
+                outputTokens   = s.outputTokens + (response.usage?.outputTokens ?: 0),
+                models         = response.model?.let { s.models + it } ?: s.models
+            ))
+        }
+    }
+
+    /** Only Anthropic serves two tiers, so only its headroom matters. */
+    private suspend fun lowHeadroom(): Boolean {
+        if (settingsRepository.selectedProvider.first() != LlmProviderType.ANTHROPIC.id) return false
+        return rateLimiter.headroomFor(AnthropicLlmProvider.HOST).fraction < MIN_HEADROOM
+    }
+
+    /** A crowded screen dump or a click target that could not be found. */
+    private fun AgentStep.hasAmbiguousScreen(): Boolean = toolResults.any { result ->
+        result.toolName == SCREEN_TOOL &&
+            (result.content.length >= CROWDED_SCREEN_CHARS || result.content.contains(NOT_FOUND_MARKER))
+    }
+
+    private companion object {
+        const val TAG = "ModelRouter"
+        const val SCREEN_TOOL = "control_screen"
+        const val NOT_FOUND_MARKER = "not found"
+        const val ESCALATE_AFTER_FAILURES = 2
+        /** Tasks up to this length ("Stell einen Timer auf 5 Minuten") need no planning. */
+        const val SHORT_TASK_CHARS = 60
+        /** Screen dumps are capped at 2500 chars – close to the cap means a busy screen. */
+        const val CROWDED_SCREEN_CHARS = 2_000
+        const val MIN_HEADROOM = 0.2f
+    }
+}
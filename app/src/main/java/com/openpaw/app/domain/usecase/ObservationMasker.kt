@@ -0,0 +1,75 @@
+package com.openpaw.app.domain.usecase
+
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Replaces superseded tool observations in the agent steps of a run with short placeholders.
+ *
+ * Only the *content* of tool results is replaced – every tool call keeps its result entry,
+ * so the provider-required tool_use / tool_result pairing stays intact. Masking is
+ * monotonic (an observation that was masked once stays masked), so each step changes at
+ * most once and the request prefix remains cacheable between iterations.
+ *
+ * Rules:
+ *  - `control_screen(action=read)`: only the newest screen dump is kept.
+ *  - Repeated identical outputs of the same tool: later copies point to the first one.
+ *  - Self-reflection notes: dropped once a later step succeeded (the agent recovered).
+ *    Progress hints ([AgentStep.hint]) are never dropped – a repeated-failure or cycle
+ *    warning must survive one successful step.
+ */
+@Singleton
+class ObservationMasker @Inject constructor() {
+
+    /**
+     * @return a list of the same size; unchanged steps are returned as the *same instance*,
+     *         so callers can re-render only what actually changed.
+     */
+    fun mask(steps: List<AgentStep>): List<AgentStep> {
+        if (steps.size < 2) return steps
+
+        val lastScreenRead = steps.indexOfLast { step -> step.screenReadIds().isNotEmpty() }
+        val lastSuccess = steps.indexOfLast { step -> step.toolResults.none { it.isError } }
+        val firstSeen = mutableMapOf<Pair<String, String>, Int>()   // (tool, output) → step number
+
+        return steps.mapIndexed { index, step ->
+            val screenReads = step.screenReadIds()
+            var changed = false
+
+            val results = step.toolResults.map { entry ->
+                val placeholder = when {
+                    entry.content.length < MIN_MASK_CHARS -> null
+                    entry.content.startsWith(MASK_PREFIX) -> null
+                    entry.toolCallId in screenReads ->
+                        if (index < lastScreenRead) {
+                            "$MASK_PREFIX Bildschirminhalt veraltet – siehe neuesten control_screen read]"
+                        } else {
+                            null
+                        }
+                    else -> {
+                        val key = entry.toolName to entry.content
+                        val first = firstSeen.getOrPut(key) { index + 1 }
+                        if (first != index + 1) "$MASK_PREFIX Ausgabe identisch mit Schritt $first]" else null
+                    }
+                }
+                if (placeholder == null) entry else entry.copy(content = placeholder).also { changed = true }
+            }
+
+            val dropNote = step.note != null && index < lastSuccess && step.toolResults.any { it.isError }
+            if (!changed && !dropNote) step
+            else step.copy(toolResults = results, note = if (dropNote) null else step.note)
+        }
+    }
+
+    private fun AgentStep.screenReadIds(): Set<String> =
+        response.toolCalls
+            .filter { it.toolName == SCREEN_TOOL && it.input["action"] == "read" }
+            .mapTo(mutableSetOf()) { it.id }
+
+    companion object {
+        private const val SCREEN_TOOL = "control_screen"
+        private const val MASK_PREFIX = "[ausgeblendet:"
+        /** Short outputs ("Clicked: 'OK'") cost less than their placeholder – never mask them. */
+        private const val MIN_MASK_CHARS = 120
+    }
+}
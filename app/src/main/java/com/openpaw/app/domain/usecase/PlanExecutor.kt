@@ -0,0 +1,180 @@
+package com.openpaw.app.domain.usecase
+
+import android.util.Log
+import com.openpaw.app.data.remote.JsonValues
+import com.openpaw.app.data.remote.LlmResponse
+import com.openpaw.app.data.remote.ToolCallRequest
+import com.openpaw.app.data.remote.ToolResultEntry
+import com.openpaw.app.domain.tools.ToolRegistry
+import kotlinx.coroutines.delay
+import java.util.UUID
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/** One step of an [AgentPlan]; [expectScreen] is verified locally after the step ran. */
+data class PlanStep(
+    val call: ToolCallRequest,
+    val expectScreen: String? = null
+)
+
+/**
+ * A multi-step plan returned by one LLM call in plan-then-execute mode.
+ *
+ * @param reply      Message for the user once every step succeeded.
+ * @param continues  The plan ends with an observation (e.g. a screen read) and the model
+ *                   wants to see its result before planning the rest.
+ */
+data class AgentPlan(
+    val steps: List<PlanStep>,
+    val reply: String?,
+    val continues: Boolean
+)
+
+/** Result of running a plan up to its end or its first failing step. */
+data class PlanOutcome(
+    /** Calls that were actually executed, in order (the failing one included). */
+    val calls: List<ToolCallRequest>,
+    val results: List<ToolResultEntry>,
+    /** Index of the failing step, null when every step succeeded. */
+    val failedIndex: Int? = null,
+    /** Why the step failed – tool error, the screen text that was not found, or a failed check. */
+    val failure: String? = null
+) {
+    val succeeded: Boolean get() = failedIndex == null
+}
+
+/**
+ * Parses plans and runs them without any LLM involvement.
+ *
+ * Steps run strictly one after another. After each step the [ToolResultEntry] is checked,
+ * and – if the plan asked for it – the screen is read locally until the expected text shows
+ * up. The first failure stops the plan; the caller re-plans from that step.
+ */
+@Singleton
+class PlanExecutor @Inject constructor(
+    private val toolRegistry: ToolRegistry
+) {
+
+    /**
+     * Plan from an LLM turn: native tool calls are taken as the plan as they are, otherwise
+     * the text must contain the plan JSON. Returns null when the turn is a plain answer.
+     */
+    fun parse(response: LlmResponse): AgentPlan? {
+        if (response.toolCalls.isNotEmpty()) {
+            // The model used tools directly – run them as a plan and let it look at the results
+            return AgentPlan(
+                steps     = response.toolCalls.take(MAX_STEPS).map { PlanStep(it) },
+                reply     = null,
+                continues = true
+            )
+        }
+
+        val text = response.textContent ?: return null
+        val start = text.indexOf('{')
+        val end = text.lastIndexOf('}')
+        if (start < 0 || end <= start) return null
+        val json = JsonValues.parseObject(text.substring(start, end + 1))
+        val rawSteps = json["steps"] as? List<*> ?: return null
+
+        val steps = rawSteps.take(MAX_STEPS).mapNotNull { raw ->
+            val step = raw as? Map<*, *> ?: return@mapNotNull null
+            val tool = (step["tool"] as? String)?.takeIf { it.isNotBlank() } ?: return@mapNotNull null
+            @Suppress("UNCHECKED_CAST")
+            val input = step["input"] as? Map<String, Any> ?: emptyMap()
+            PlanStep(
+                call         = ToolCallRequest(id = newCallId(), toolName = tool, input = input),
+                expectScreen = (step["expect_screen"] as? String)?.trim()?.takeIf { it.isNotEmpty() }
+            )
+        }
+        return AgentPlan(
+            steps     = steps,
+            reply     = (json["reply"] as? String)?.trim()?.takeIf { it.isNotEmpty() },
+            continues = json["continue"] as? Boolean ?: false
+        )
+    }
+
+    /**
+     * Run [plan] step by step. [runStep] executes one call and reports it to the UI (the
+     * agent's usual tool path); verification reads are silent.
+     */
+    suspend fun execute(
+        plan: AgentPlan,
+        runStep: suspend (ToolCallRequest) -> ToolResultEntry
+    ): PlanOutcome {
+        val calls = mutableListOf<ToolCallRequest>()
+        val results = mutableListOf<ToolResultEntry>()
+
+        plan.steps.forEachIndexed { index, step ->
+            calls += step.call
+            val result = runStep(step.call)
+            if (result.isError) {
+                results += result
+                return PlanOutcome(calls, results, index, result.content)
+            }
+
+            val expected = step.expectScreen
+            val check = if (expected != null) awaitScreenText(expected) else ScreenCheck.Visible
+            when (check) {
+                is ScreenCheck.Visible -> results += result
+                is ScreenCheck.Missing -> {
+                    Log.d(TAG, "Step ${index + 1}: expected \"$expected\" not on screen")
+                    results += result.copy(
+                        content = result.content + "\n[Prüfung fehlgeschlagen: „$expected“ nicht sichtbar]",
+                        isError = true
+                    )
+                    return PlanOutcome(
+                        calls, results, index,
+                        "Erwarteter Text „$expected“ ist nicht auf dem Bildschirm.\n${check.screen}"
+                    )
+                }
+                is ScreenCheck.ReadFailed -> {
+                    // The step itself may have worked – only the check could not run, so the
+                    // re-plan must not be told the UI is wrong
+                    Log.d(TAG, "Step ${index + 1}: screen read for \"$expected\" failed: ${check.error}")
+                    results += result.copy(
+                        content = result.content + "\n[Prüfung nicht möglich: Bildschirm nicht lesbar]",
+                        isError = true
+                    )
+                    return PlanOutcome(
+                        calls, results, index,
+                        "Prüfung auf „$expected“ nicht möglich – Bildschirm konnte nicht gelesen werden: ${check.error}"
+                    )
+                }
+            }
+        }
+        return PlanOutcome(calls, results)
+    }
+
+    private sealed class ScreenCheck {
+        object Visible : ScreenCheck()
+        /** [screen] is the last read – the re-plan gets it for free instead of asking for another. */
+        data class Missing(val screen: String) : ScreenCheck()
+        /** The read itself failed (e.g. accessibility service gone); nothing is known about the UI. */
+        data class ReadFailed(val error: String) : ScreenCheck()
+    }
+
+    /** Poll the screen until [expected] is visible. */
+    private suspend fun awaitScreenText(expected: String): ScreenCheck {
+        var lastScreen = ""
+        repeat(VERIFY_ATTEMPTS) { attempt ->
+            if (attempt > 0) delay(VERIFY_INTERVAL_MS)
+            val read = toolRegistry.execute(SCREEN_TOOL, mapOf("action" to "read"))
+            if (!read.success) return ScreenCheck.ReadFailed(read.output)
+            if (read.output.contains(expected, ignoreCase = true)) return ScreenCheck.Visible
+            lastScreen = read.output
+        }
+        return ScreenCheck.Missing(lastScreen)
+    }
+
+    private fun newCallId() = "plan_" + UUID.randomUUID().toString().replace("-", "")
+
+    private companion object {
+        const val TAG = "PlanExecutor"
+        const val SCREEN_TOOL = "control_screen"
+        /** Upper bound for one plan – longer flows are planned in segments via "continue". */
+        const val MAX_STEPS = 20
+        /** Apps need a moment to come up after open_app/click: 5 reads over ~1.6 s. */
+        const val VERIFY_ATTEMPTS = 5
+        const val VERIFY_INTERVAL_MS = 400L
+    }
+}
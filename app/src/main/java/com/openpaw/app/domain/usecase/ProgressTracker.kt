@@ -0,0 +1,148 @@
+package com.openpaw.app.domain.usecase
+
+import android.util.Log
+
+/**
+ * Watches one agent run for loops and stalls and sizes its iteration budget.
+ *
+ * Every step is fingerprinted: its tool calls (name + arguments), which of them failed and –
+ * when the step read the screen – a hash of the screen it saw. From that the tracker detects
+ *
+ *  - repeated failures: a call with identical arguments fails a second time
+ *  - cycles:            the last steps repeat with period 1–3 (click X, click X, click X;
+ *                       scroll down, scroll up, scroll down, scroll up)
+ *  - stalls:            [STALL_STEPS] steps in a row without progress – no new screen seen
+ *                       and no call that had not already succeeded before
+ *
+ * Detections escalate: the first one only adds a "change strategy" hint, the second also
+ * routes the next call to the strong model, the third stops the run.
+ *
+ * The budget starts at [BASE_BUDGET]. A run that is still making progress when it reaches
+ * the budget gets [EXTENSION] more iterations, up to [MAX_BUDGET].
+ */
+class ProgressTracker {
+
+    enum class Issue { REPEATED_FAILURE, CYCLE, STALLED }
+
+    sealed class Verdict {
+        object Continue : Verdict()
+        /** Keep going with [hint] appended; [escalate] = use the strong model next. */
+        data class ChangeStrategy(val issue: Issue, val hint: String, val escalate: Boolean) : Verdict()
+        data class Stop(val issue: Issue) : Verdict()
+    }
+
+    private val signatures = mutableListOf<String>()
+    private val failedCalls = mutableSetOf<String>()
+    private val succeededCalls = mutableSetOf<String>()
+    private val seenScreens = mutableSetOf<Int>()
+    private val progressHistory = mutableListOf<Boolean>()
+    private var noProgressStreak = 0
+    private var detections = 0
+
+    /** Current iteration budget; grows while the run keeps making progress. */
+    var budget = BASE_BUDGET
+        private set
+
+    /** Fingerprint the finished [step] and decide how the run continues. */
+    fun record(step: AgentStep): Verdict {
+        val calls = step.response.toolCalls.map { "${it.toolName}${it.input.toSortedMap()}" }
+        val failedById = step.toolResults.filter { it.isError }.map { it.toolCallId }.toSet()
+        val failed = step.response.toolCalls.zip(calls)
+            .filter { (call, _) -> call.id in failedById }
+            .map { (_, fingerprint) -> fingerprint }
+        val screen = step.toolResults
+            .lastOrNull { it.toolName == SCREEN_TOOL && !it.isError && it.content.startsWith(SCREEN_READ_PREFIX) }
+            ?.content?.hashCode()
+
+        // Progress = something new happened: an unseen screen or a call that never worked before
+        val newScreen = screen != null && seenScreens.add(screen)
+        val newSuccess = calls.filter { it !in failed }.map { succeededCalls.add(it) }.any { it }
+        val progressed = newScreen || newSuccess
+        progressHistory += progressed
+        noProgressStreak = if (progressed) 0 else noProgressStreak + 1
+
+        val repeatedFailure = failed.any { it in failedCalls }
+        failedCalls += failed
+
+        signatures += calls.sorted().joinToString(";") + "|" + failed.sorted().joinToString(";") + "|" + (screen ?: "")
+
+        val issue = when {
+            repeatedFailure                        -> Issue.REPEATED_FAILURE
+            hasCycle(screenKnown = screen != null) -> Issue.CYCLE
+            noProgressStreak >= STALL_STEPS        -> Issue.STALLED
+            else                                   -> null
+        } ?: return Verdict.Continue
+
+        detections++
+        // Fresh evidence is needed for the next detection
+        signatures.clear()
+        noProgressStreak = 0
+        Log.d(TAG, "Detected $issue (#$detections)")
+        return when {
+            detections >= STOP_AFTER_DETECTIONS -> Verdict.Stop(issue)
+            else                                -> Verdict.ChangeStrategy(issue, hintFor(issue), escalate = detections >= 2)
+        }
+    }
+
+    /**
+     * Called when [iteration] reached [budget]. Extends the budget if the recent steps all
+     * made progress; returns whether the run may continue.
+     */
+    fun extendIfProgressing(iteration: Int): Boolean {
+        if (iteration < budget) return true
+        val recent = progressHistory.takeLast(PROGRESS_WINDOW)
+        if (budget >= MAX_BUDGET || recent.size < PROGRESS_WINDOW || !recent.all { it }) return false
+        budget = (budget + EXTENSION).coerceAtMost(MAX_BUDGET)
+        Log.d(TAG, "Run is progressing – budget extended to $budget")
+        return true
+    }
+
+    /**
+     * The last steps repeat with a period of 1–3. Identical consecutive steps only count when
+     * they failed or demonstrably saw the same screen – scrolling down a long list three times
+     * is progress.
+     */
+    private fun hasCycle(screenKnown: Boolean): Boolean {
+        for (period in 1..MAX_PERIOD) {
+            val window = if (period == 1) 3 else 2 * period
+            if (signatures.size < window) continue
+            val tail = signatures.takeLast(window)
+            if (tail.indices.drop(period).all { tail[it] == tail[it - period] }) {
+                if (period > 1) return true
+                val hasFailure = tail.last().split('|')[1].isNotEmpty()
+                if (hasFailure || screenKnown) return true
+            }
+        }
+        return false
+    }
+
+    private fun hintFor(issue: Issue): String = when (issue) {
+        Issue.REPEATED_FAILURE ->
+            "⚠️ FORTSCHRITTS-CHECK: Du hast einen Aufruf mit genau denselben Argumenten wiederholt und " +
+                "er ist erneut fehlgeschlagen. Wiederhole ihn NICHT – nimm einen anderen Text, " +
+                "Koordinaten oder ein anderes Tool."
+        Issue.CYCLE ->
+            "⚠️ FORTSCHRITTS-CHECK: Deine letzten Schritte wiederholen sich, ohne dass sich der Bildschirm " +
+                "ändert. Brich das Muster: lies den Bildschirm einmal und wähle einen anderen Ansatz."
+        Issue.STALLED ->
+            "⚠️ FORTSCHRITTS-CHECK: Seit $STALL_STEPS Schritten kein Fortschritt (kein neuer Bildschirm, keine " +
+                "neue erfolgreiche Aktion). Ändere die Strategie grundlegend oder beende die Aufgabe " +
+                "mit einer kurzen Erklärung."
+    }
+
+    companion object {
+        private const val TAG = "ProgressTracker"
+        private const val SCREEN_TOOL = "control_screen"
+        /** Prefix of a successful control_screen(read) result. */
+        private const val SCREEN_READ_PREFIX = "Current screen:"
+
+        const val BASE_BUDGET = 10
+        const val MAX_BUDGET = 25
+        private const val EXTENSION = 5
+        /** Steps that must all have made progress for a budget extension. */
+        private const val PROGRESS_WINDOW = 3
+        private const val STALL_STEPS = 3
+        private const val MAX_PERIOD = 3
+        private const val STOP_AFTER_DETECTIONS = 3
+    }
+}
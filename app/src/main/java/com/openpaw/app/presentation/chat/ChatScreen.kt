@@ -170,6 +170,7 @@ fun ChatScreen(
                         inputText = ""
                     }
                 },
+                onStop        = { viewModel.stopAgent() },
                 onMicClick    = {
                     val isListening = sttState == VoiceInputManager.SttState.LISTENING
                     if (isListening) {
@@ -504,6 +505,7 @@ private fun ModernInputBar(
     inputText: String,
     onInputChange: (String) -> Unit,
     onSend: () -> Unit,
+    onStop: () -> Unit,
     onMicClick: () -> Unit,
     isLoading: Boolean,
     sttState: VoiceInputManager.SttState
@@ -590,9 +592,26 @@ private fun ModernInputBar(
 
             Spacer(Modifier.width(8.dp))
 
-            // Send button
+            // Send button – becomes a stop button while the agent is running
             val canSend = inputText.isNotBlank() && !isLoading
-            Surface(
+            if (isLoading) {
+                Surface(
+                    shape  = CircleShape,
+                    color  = MaterialTheme.colorScheme.errorContainer,
+                    modifier = Modifier
+                        .size(44.dp)
+                        .clickable(onClick = onStop)
+                ) {
+                    Box(contentAlignment = Alignment.Center, modifier = Modifier.fillMaxSize()) {
+                        Icon(
+                            Icons.Default.Stop,
+                            contentDescription = "Abbrechen",
+                            tint     = MaterialTheme.colorScheme.onErrorContainer,
+                            modifier = Modifier.size(20.dp)
+                        )
+                    }
+                }
+            } else Surface(
                 shape  = CircleShape,
                 color  = if (canSend) MaterialTheme.colorScheme.primary else MaterialTheme.colorScheme.surfaceVariant,
                 modifier = Modifier
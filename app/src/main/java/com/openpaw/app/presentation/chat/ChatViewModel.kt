@@ -4,10 +4,11 @@ import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
 import com.openpaw.app.data.local.MessageDao
 import com.openpaw.app.data.model.Message
+import com.openpaw.app.data.remote.ConnectionPrewarmer
+import com.openpaw.app.data.repository.ConversationRepository
 import com.openpaw.app.data.repository.SettingsRepository
-import com.openpaw.app.domain.usecase.AgentEvent
+import com.openpaw.app.service.AgentRunScheduler
 import com.openpaw.app.service.OpenPawAccessibilityService
-import com.openpaw.app.domain.usecase.AgentUseCase
 import com.openpaw.app.presentation.voice.VoiceInputManager
 import dagger.hilt.android.lifecycle.HiltViewModel
 import kotlinx.coroutines.flow.*
@@ -27,15 +28,20 @@ data class ChatUiState(
 
 @HiltViewModel
 class ChatViewModel @Inject constructor(
-    private val agentUseCase: AgentUseCase,
+    private val runScheduler: AgentRunScheduler,
     private val messageDao: MessageDao,
+    private val conversationRepository: ConversationRepository,
     private val settingsRepository: SettingsRepository,
+    private val connectionPrewarmer: ConnectionPrewarmer,
     val voiceInputManager: VoiceInputManager
 ) : ViewModel() {
 
     private val _uiState = MutableStateFlow(ChatUiState())
     val uiState: StateFlow<ChatUiState> = _uiState.asStateFlow()
 
+    /** Session of a message between the send tap and its run showing up in the scheduler. */
+    private val pendingSubmit = MutableStateFlow<String?>(null)
+
     /** First user message per session – used for the history bottom sheet. */
     val sessionPreviews: StateFlow<List<Message>> = messageDao
         .getSessionPreviews()
@@ -66,6 +72,38 @@ class ChatViewModel @Inject constructor(
                 _uiState.update { it.copy(isAgentServiceRunning = running) }
             }
         }
+        // Runs live in the scheduler, not in this ViewModel: loading state and progress of the
+        // session on screen are derived from the scheduler, so a recreated ViewModel picks up
+        // a run that is still going.
+        viewModelScope.launch {
+            combine(
+                _uiState.map { it.sessionId }.distinctUntilChanged(),
+                runScheduler.status,
+                pendingSubmit
+            ) { sessionId, status, pending ->
+                status.running.firstOrNull { it.sessionId == sessionId } to
+                    (status.queued.any { it.sessionId == sessionId } || pending == sessionId)
+            }.collect { (running, queued) ->
+                _uiState.update {
+                    it.copy(
+                        isLoading         = running != null || queued,
+                        currentToolStatus = when {
+                            running?.preview != null -> "✍️ …${running.preview}"
+                            running != null          -> running.progress ?: "Denke…"
+                            queued                   -> "⏳ Warte…"
+                            else                     -> null
+                        }
+                    )
+                }
+            }
+        }
+        viewModelScope.launch {
+            runScheduler.finished.collect { run ->
+                if (run.sessionId != _uiState.value.sessionId) return@collect
+                run.error?.let { error -> _uiState.update { it.copy(error = error) } }
+                run.reply?.let { voiceInputManager.speak(it) }
+            }
+        }
         viewModelScope.launch {
             voiceInputManager.voiceTrigger.collect { triggeredAt ->
                 if (System.currentTimeMillis() - triggeredAt < 5_000L) startVoiceInput()
@@ -76,9 +114,12 @@ class ChatViewModel @Inject constructor(
     // ── Text message ──────────────────────────────────────────────────────────
 
     fun sendMessage(userInput: String) {
-        if (userInput.isBlank() || _uiState.value.isLoading) return
+        if (userInput.isBlank() || _uiState.value.isLoading || pendingSubmit.value != null) return
 
         val sessionId = _uiState.value.sessionId
+        // Counts as loading until the run is in the scheduler's status – a status update of
+        // another run while the settings are read must not bring the send button back
+        pendingSubmit.value = sessionId
         _uiState.update { it.copy(isLoading = true, error = null, currentToolStatus = null) }
 
         viewModelScope.launch {
@@ -87,37 +128,32 @@ class ChatViewModel @Inject constructor(
             if (selectedProvider == com.openpaw.app.data.remote.LlmProviderType.ANTHROPIC.id
                 && anthropicKey.isBlank()
             ) {
-                _uiState.update {
-                    it.copy(isLoading = false, error = "Kein Anthropic API-Key. Bitte in Einstellungen eintragen.")
-                }
+                _uiState.update { it.copy(error = "Kein Anthropic API-Key. Bitte in Einstellungen eintragen.") }
+                pendingSubmit.value = null
                 return@launch
             }
 
-            agentUseCase.processMessage(userInput, sessionId).collect { event ->
-                when (event) {
-                    is AgentEvent.Thinking    -> _uiState.update { it.copy(currentToolStatus = "Denke…") }
-                    is AgentEvent.ToolCall    -> _uiState.update { it.copy(currentToolStatus = "⚙️ ${event.toolName}…") }
-                    is AgentEvent.ToolResult  -> {
-                        val s = if (event.success) "✓ ${event.toolName}" else "✗ ${event.toolName}"
-                        _uiState.update { it.copy(currentToolStatus = s) }
-                    }
-                    is AgentEvent.FinalResponse -> {
-                        _uiState.update { it.copy(isLoading = false, currentToolStatus = null) }
-                        voiceInputManager.speak(event.text)
-                    }
-                    is AgentEvent.Error -> {
-                        _uiState.update {
-                            it.copy(isLoading = false, currentToolStatus = null, error = event.message)
-                        }
-                    }
-                }
+            // Runs in the scheduler, not in viewModelScope – it outlives this screen. Progress
+            // and the result arrive through the scheduler's status / finished flows. submit()
+            // publishes the run before it returns, so the pending flag can go.
+            try {
+                runScheduler.submit(userInput, sessionId, AgentRunScheduler.Priority.INTERACTIVE)
+            } finally {
+                pendingSubmit.value = null
             }
         }
     }
 
+    /** Stop the agent runs of this session; what they did so far stays in the transcript. */
+    fun stopAgent() = runScheduler.cancelSession(_uiState.value.sessionId)
+
     // ── Voice input ───────────────────────────────────────────────────────────
 
-    fun startVoiceInput() = voiceInputManager.startListening { sendMessage(it) }
+    fun startVoiceInput() {
+        connectionPrewarmer.prewarm()
+        voiceInputManager.startListening { sendMessage(it) }
+    }
+
     fun stopVoiceInput()  = voiceInputManager.stopListening()
     fun toggleTts()       = voiceInputManager.setTtsEnabled(!voiceInputManager.ttsEnabled.value)
 
@@ -143,15 +179,23 @@ class ChatViewModel @Inject constructor(
         }
     }
 
+    // A run still going would keep writing into the session (or persist "⏹ Abgebrochen." when
+    // cancelled) and bring it back with orphan rows – stop it and wait before deleting.
+
     fun deleteSession(sessionId: String) {
         viewModelScope.launch {
-            messageDao.deleteSession(sessionId)
+            runScheduler.cancelSessionAndJoin(sessionId)
+            conversationRepository.deleteSession(sessionId)
             if (_uiState.value.sessionId == sessionId) startNewSession()
         }
     }
 
     fun clearCurrentSession() {
-        viewModelScope.launch { messageDao.clearSession(_uiState.value.sessionId) }
+        val sessionId = _uiState.value.sessionId
+        viewModelScope.launch {
+            runScheduler.cancelSessionAndJoin(sessionId)
+            conversationRepository.clearSession(sessionId)
+        }
     }
 
     fun clearError() {
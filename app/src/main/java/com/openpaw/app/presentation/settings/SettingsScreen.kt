@@ -25,6 +25,8 @@ import androidx.compose.ui.unit.dp
 import androidx.compose.ui.unit.sp
 import androidx.hilt.navigation.compose.hiltViewModel
 import com.openpaw.app.data.remote.LlmProviderType
+import com.openpaw.app.data.remote.ModelTier
+import com.openpaw.app.data.repository.SettingsRepository
 import com.openpaw.app.service.AgentForegroundService
 import com.openpaw.app.service.FloatingBubbleService
 import com.openpaw.app.service.OpenPawAccessibilityService
@@ -36,6 +38,9 @@ fun SettingsScreen(
     viewModel: SettingsViewModel = hiltViewModel()
 ) {
     val uiState by viewModel.uiState.collectAsState()
+    val cacheStats by viewModel.cacheStats.collectAsState()
+    val routingStats by viewModel.routingStats.collectAsState()
+    val snapshotStats by viewModel.snapshotStats.collectAsState()
     val context = LocalContext.current
     val a11yActive     by OpenPawAccessibilityService.instance.collectAsState()
     val serviceRunning by AgentForegroundService.isRunning.collectAsState()
@@ -77,21 +82,13 @@ fun SettingsScreen(
                     ) {
                         RadioButton(
                             selected = uiState.selectedProvider == provider.id,
-                            onClick = { viewModel.setProvider(provider.id) },
-                            enabled = provider != LlmProviderType.LOCAL
+                            onClick = { viewModel.setProvider(provider.id) }
                         )
                         Column {
-                            Text(
-                                provider.displayName,
-                                style = MaterialTheme.typography.bodyMedium,
-                                color = if (provider == LlmProviderType.LOCAL)
-                                    MaterialTheme.colorScheme.outline
-                                else
-                                    MaterialTheme.colorScheme.onSurface
-                            )
+                            Text(provider.displayName, style = MaterialTheme.typography.bodyMedium)
                             if (provider == LlmProviderType.LOCAL) {
                                 Text(
-                                    "Noch nicht verfügbar (bald: Gemini Nano / llama.cpp)",
+                                    "Eigener Server: llama.cpp, Ollama, vLLM, LM Studio …",
                                     style = MaterialTheme.typography.bodySmall,
                                     color = MaterialTheme.colorScheme.outline
                                 )
@@ -193,6 +190,262 @@ fun SettingsScreen(
                         style = MaterialTheme.typography.bodySmall,
                         color = MaterialTheme.colorScheme.outline
                     )
+
+                    Spacer(Modifier.height(12.dp))
+                    Text("Weitere Deployments", style = MaterialTheme.typography.labelLarge)
+                    Text(
+                        "Anfragen werden auf alle Deployments verteilt – nach Antwortzeit, Auslastung und " +
+                            "verbleibendem Kontingent. Gedrosselte Deployments werden übersprungen.",
+                        style = MaterialTheme.typography.bodySmall,
+                        color = MaterialTheme.colorScheme.onSurfaceVariant
+                    )
+                    uiState.azureExtraDeployments.forEachIndexed { index, entry ->
+                        Spacer(Modifier.height(8.dp))
+                        Row(verticalAlignment = Alignment.CenterVertically) {
+                            Text(
+                                "Deployment ${index + 2}",
+                                style = MaterialTheme.typography.bodyMedium,
+                                modifier = Modifier.weight(1f)
+                            )
+                            IconButton(onClick = { viewModel.removeAzureDeployment(index) }) {
+                                Icon(Icons.Default.Delete, contentDescription = "Entfernen")
+                            }
+                        }
+                        OutlinedTextField(
+                            value = entry.endpoint,
+                            onValueChange = { viewModel.updateAzureDeployment(index, entry.copy(endpoint = it)) },
+                            label = { Text("Azure Endpoint") },
+                            modifier = Modifier.fillMaxWidth(),
+                            singleLine = true
+                        )
+                        OutlinedTextField(
+                            value = entry.deployment,
+                            onValueChange = { viewModel.updateAzureDeployment(index, entry.copy(deployment = it)) },
+                            label = { Text("Deployment / Model Name") },
+                            modifier = Modifier.fillMaxWidth(),
+                            singleLine = true
+                        )
+                        PasswordField(
+                            label = "Azure API Key",
+                            placeholder = "abc123... (32+ Zeichen)",
+                            value = entry.apiKey,
+                            onValueChange = { viewModel.updateAzureDeployment(index, entry.copy(apiKey = it)) },
+                            supportingText = "Leer lassen = Deployment wird ignoriert"
+                        )
+                    }
+                    TextButton(onClick = { viewModel.addAzureDeployment() }) {
+                        Icon(Icons.Default.Add, contentDescription = null)
+                        Spacer(Modifier.width(4.dp))
+                        Text("Deployment hinzufügen")
+                    }
+                }
+            }
+
+            // ── 3a. Local LLM Config ──────────────────────────────────────────
+            AnimatedVisibility(visible = uiState.selectedProvider == LlmProviderType.LOCAL.id) {
+                SettingsSection(title = "Lokales LLM", icon = Icons.Default.Dns) {
+                    OutlinedTextField(
+                        value = uiState.localLlmBaseUrl,
+                        onValueChange = { viewModel.setLocalBaseUrl(it) },
+                        label = { Text("Server-Adresse") },
+                        placeholder = { Text(SettingsRepository.DEFAULT_LOCAL_BASE_URL) },
+                        modifier = Modifier.fillMaxWidth(),
+                        singleLine = true,
+                        keyboardOptions = KeyboardOptions(keyboardType = KeyboardType.Uri),
+                        supportingText = {
+                            Text(
+                                "OpenAI-kompatibler Endpunkt (/v1/chat/completions). HTTP nur für " +
+                                    "127.0.0.1 / localhost, Server im Netzwerk per HTTPS.",
+                                fontSize = 11.sp
+                            )
+                        }
+                    )
+
+                    Spacer(Modifier.height(8.dp))
+
+                    OutlinedTextField(
+                        value = uiState.localLlmModel,
+                        onValueChange = { viewModel.setLocalModel(it) },
+                        label = { Text("Modell") },
+                        placeholder = { Text("qwen2.5:7b-instruct") },
+                        modifier = Modifier.fillMaxWidth(),
+                        singleLine = true,
+                        supportingText = { Text("Leer lassen = Standardmodell des Servers") }
+                    )
+
+                    Spacer(Modifier.height(8.dp))
+
+                    PasswordField(
+                        label = "API Key (optional)",
+                        placeholder = "",
+                        value = uiState.localLlmApiKey,
+                        onValueChange = { viewModel.setLocalApiKey(it) },
+                        supportingText = "Wird als Bearer Token gesendet – nur falls der Server einen verlangt"
+                    )
+                }
+            }
+
+            // ── 3b. Agent performance ─────────────────────────────────────────
+            SettingsSection(title = "Agent-Leistung", icon = Icons.Default.Speed) {
+                SwitchRow(
+                    title = "Tools während des Streamings ausführen",
+                    subtitle = "Startet jede Aktion, sobald die KI sie fertig formuliert hat – " +
+                        "statt auf das Ende der Antwort zu warten.",
+                    checked = uiState.pipelinedToolExecution,
+                    onCheckedChange = { viewModel.setPipelinedTools(it) }
+                )
+                if (snapshotStats.hits + snapshotStats.misses > 0) {
+                    Text(
+                        "Bildschirm vorausgelesen: ${(snapshotStats.hitRate * 100).toInt()} % Treffer " +
+                            "(${snapshotStats.hits}/${snapshotStats.hits + snapshotStats.misses}, " +
+                            "${snapshotStats.stale} veraltet) · ${snapshotStats.savedMs} ms gespart",
+                        style = MaterialTheme.typography.bodySmall,
+                        color = MaterialTheme.colorScheme.onSurfaceVariant
+                    )
+                }
+                SwitchRow(
+                    title = "Einfache Befehle direkt ausführen",
+                    subtitle = "Timer, Wecker, „Öffne …“ und „Kopiere …“ werden ohne KI-Anfrage sofort " +
+                        "erledigt – auch offline. Alles andere geht wie gewohnt an die KI.",
+                    checked = uiState.localIntentsEnabled,
+                    onCheckedChange = { viewModel.setLocalIntents(it) }
+                )
+                SwitchRow(
+                    title = "Erst planen, dann ausführen",
+                    subtitle = "Die KI plant die ganze Aufgabe in einer Anfrage, die App führt die Schritte " +
+                        "selbst aus und fragt nur bei einem Fehler neu. Deutlich schneller bei langen Abläufen.",
+                    checked = uiState.planExecuteMode,
+                    onCheckedChange = { viewModel.setPlanExecute(it) }
+                )
+
+                Spacer(Modifier.height(8.dp))
+
+                OutlinedTextField(
+                    value = uiState.contextTokenBudget,
+                    onValueChange = { viewModel.setContextBudget(it) },
+                    label = { Text("Kontext-Budget (Tokens)") },
+                    placeholder = { Text("${SettingsRepository.DEFAULT_CONTEXT_TOKEN_BUDGET}") },
+                    modifier = Modifier.fillMaxWidth(),
+                    singleLine = true,
+                    keyboardOptions = KeyboardOptions(keyboardType = KeyboardType.Number),
+                    supportingText = {
+                        Text(
+                            "Ältere Nachrichten und Schritte werden darüber hinaus zusammengefasst. " +
+                                "Kleiner = schneller & günstiger, größer = mehr Erinnerung.",
+                            fontSize = 11.sp
+                        )
+                    }
+                )
+
+                Spacer(Modifier.height(12.dp))
+                Text("Ersatz-Anbieter bei langsamer Antwort", style = MaterialTheme.typography.labelLarge)
+                Text(
+                    "Antwortet der gewählte Anbieter ungewöhnlich langsam, wird die Anfrage zusätzlich " +
+                        "hier gestellt – die schnellere Antwort gewinnt. Verursacht gelegentlich doppelte Kosten.",
+                    style = MaterialTheme.typography.bodySmall,
+                    color = MaterialTheme.colorScheme.onSurfaceVariant
+                )
+                (listOf("" to "Aus") + LlmProviderType.entries
+                    .filter { it.id != uiState.selectedProvider }
+                    .map { it.id to it.displayName }
+                ).forEach { (id, label) ->
+                    Row(verticalAlignment = Alignment.CenterVertically) {
+                        RadioButton(
+                            selected = uiState.hedgeProvider == id ||
+                                (id.isEmpty() && uiState.hedgeProvider == uiState.selectedProvider),
+                            onClick = { viewModel.setHedgeProvider(id) }
+                        )
+                        Text(label, style = MaterialTheme.typography.bodyMedium)
+                    }
+                }
+                AnimatedVisibility(
+                    visible = uiState.hedgeProvider.isNotEmpty() && uiState.hedgeProvider != uiState.selectedProvider
+                ) {
+                    OutlinedTextField(
+                        value = uiState.hedgePercentile,
+                        onValueChange = { viewModel.setHedgePercentile(it) },
+                        label = { Text("Auslösen ab Latenz-Perzentil") },
+                        placeholder = { Text("${SettingsRepository.DEFAULT_HEDGE_PERCENTILE}") },
+                        modifier = Modifier.fillMaxWidth(),
+                        singleLine = true,
+                        keyboardOptions = KeyboardOptions(keyboardType = KeyboardType.Number),
+                        supportingText = {
+                            Text(
+                                "Z. B. 90 = wenn die Antwort länger braucht als 90 % der bisherigen " +
+                                    "(${SettingsRepository.MIN_HEDGE_PERCENTILE}–${SettingsRepository.MAX_HEDGE_PERCENTILE}).",
+                                fontSize = 11.sp
+                            )
+                        }
+                    )
+                }
+
+                Spacer(Modifier.height(8.dp))
+
+                SwitchRow(
+                    title = "Stärkeres Modell bei schwierigen Schritten",
+                    subtitle = "Einfache Schritte laufen auf dem gewählten Modell, Planung, wiederholte " +
+                        "Fehler, unklare Bildschirme und der letzte Schritt auf dem stärkeren. Nur Anthropic.",
+                    checked = uiState.modelRoutingEnabled,
+                    onCheckedChange = { viewModel.setModelRouting(it) }
+                )
+                AnimatedVisibility(visible = uiState.modelRoutingEnabled) {
+                    Column {
+                        listOf(
+                            "claude-sonnet-4-6" to "Sonnet 4.6",
+                            "claude-opus-4-6"   to "Opus 4.6"
+                        ).forEach { (id, label) ->
+                            Row(verticalAlignment = Alignment.CenterVertically) {
+                                RadioButton(
+                                    selected = uiState.strongModel == id,
+                                    onClick = { viewModel.setStrongModel(id) }
+                                )
+                                Text(label, style = MaterialTheme.typography.bodyMedium)
+                            }
+                        }
+                        listOf(ModelTier.FAST to "Schnell", ModelTier.STRONG to "Stark").forEach { (tier, label) ->
+                            val stats = routingStats[tier] ?: return@forEach
+                            Text(
+                                "$label: ${stats.calls} Aufrufe · Ø %.1f s · ${(stats.successRate * 100).toInt()} %% ok · "
+                                    .format(stats.avgLatencyMs / 1000f) +
+                                    "${stats.inputTokens + stats.outputTokens} Tokens",
+                                style = MaterialTheme.typography.bodySmall,
+                                color = MaterialTheme.colorScheme.onSurfaceVariant
+                            )
+                        }
+                    }
+                }
+
+                Spacer(Modifier.height(8.dp))
+
+                SwitchRow(
+                    title = "Antworten zwischenspeichern",
+                    subtitle = "Wiederholte, identische Anfragen werden sofort aus dem Cache beantwortet. " +
+                        "Nie nach Bildschirm-, Zwischenablage- oder SMS-Abfragen.",
+                    checked = uiState.responseCacheEnabled,
+                    onCheckedChange = { viewModel.setResponseCache(it) }
+                )
+                AnimatedVisibility(visible = uiState.responseCacheEnabled) {
+                    Column {
+                        SwitchRow(
+                            title = "Cache auch auf dem Gerät speichern",
+                            subtitle = "Bleibt nach einem Neustart der App erhalten (max. 24 h).",
+                            checked = uiState.responseCacheOnDisk,
+                            onCheckedChange = { viewModel.setResponseCacheOnDisk(it) }
+                        )
+                        Row(verticalAlignment = Alignment.CenterVertically) {
+                            Text(
+                                "Trefferquote ${(cacheStats.hitRate * 100).toInt()} % " +
+                                    "(${cacheStats.hits}/${cacheStats.hits + cacheStats.misses}) · " +
+                                    "%.1f s gespart".format(cacheStats.savedLatencyMs / 1000f),
+                                style = MaterialTheme.typography.bodySmall,
+                                color = MaterialTheme.colorScheme.onSurfaceVariant,
+                                modifier = Modifier.weight(1f)
+                            )
+                            TextButton(onClick = { viewModel.clearResponseCache() }) {
+                                Text("Leeren")
+                            }
+                        }
+                    }
                 }
             }
 
@@ -407,6 +660,27 @@ private fun StatusRow(active: Boolean, activeText: String, inactiveText: String)
     Spacer(Modifier.height(4.dp))
 }
 
+@Composable
+private fun SwitchRow(
+    title: String,
+    subtitle: String,
+    checked: Boolean,
+    onCheckedChange: (Boolean) -> Unit
+) {
+    Row(verticalAlignment = Alignment.CenterVertically, modifier = Modifier.fillMaxWidth()) {
+        Column(modifier = Modifier.weight(1f)) {
+            Text(title, style = MaterialTheme.typography.bodyMedium)
+            Text(
+                subtitle,
+                style = MaterialTheme.typography.bodySmall,
+                color = MaterialTheme.colorScheme.onSurfaceVariant
+            )
+        }
+        Spacer(Modifier.width(8.dp))
+        Switch(checked = checked, onCheckedChange = onCheckedChange)
+    }
+}
+
 @Composable
 private fun PasswordField(
     label: String,
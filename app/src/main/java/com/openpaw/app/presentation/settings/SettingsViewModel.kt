@@ -2,8 +2,13 @@ package com.openpaw.app.presentation.settings
 
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
+import com.openpaw.app.data.remote.AzureDeployment
 import com.openpaw.app.data.remote.LlmProviderType
+import com.openpaw.app.data.remote.LlmResponseCache
+import com.openpaw.app.data.remote.ModelTier
 import com.openpaw.app.data.repository.SettingsRepository
+import com.openpaw.app.domain.tools.ScreenSnapshotCache
+import com.openpaw.app.domain.usecase.ModelRouter
 import dagger.hilt.android.lifecycle.HiltViewModel
 import kotlinx.coroutines.flow.*
 import kotlinx.coroutines.launch
@@ -21,6 +26,24 @@ data class SettingsUiState(
     val azureEndpoint: String = "",
     val azureDeploymentName: String = "",
     val azureApiKey: String = "",
+    val azureExtraDeployments: List<AzureDeployment> = emptyList(),
+
+    // Local LLM
+    val localLlmBaseUrl: String = SettingsRepository.DEFAULT_LOCAL_BASE_URL,
+    val localLlmModel: String = "",
+    val localLlmApiKey: String = "",
+
+    // Agent performance
+    val pipelinedToolExecution: Boolean = true,
+    val contextTokenBudget: String = SettingsRepository.DEFAULT_CONTEXT_TOKEN_BUDGET.toString(),
+    val hedgeProvider: String = "",
+    val hedgePercentile: String = SettingsRepository.DEFAULT_HEDGE_PERCENTILE.toString(),
+    val responseCacheEnabled: Boolean = false,
+    val responseCacheOnDisk: Boolean = false,
+    val modelRoutingEnabled: Boolean = false,
+    val strongModel: String = SettingsRepository.DEFAULT_STRONG_MODEL,
+    val localIntentsEnabled: Boolean = true,
+    val planExecuteMode: Boolean = false,
 
     // Save state
     val isSaving: Boolean = false,
@@ -29,29 +52,70 @@ data class SettingsUiState(
 
 @HiltViewModel
 class SettingsViewModel @Inject constructor(
-    private val settingsRepository: SettingsRepository
+    private val settingsRepository: SettingsRepository,
+    private val responseCache: LlmResponseCache,
+    modelRouter: ModelRouter,
+    screenSnapshots: ScreenSnapshotCache
 ) : ViewModel() {
 
     private val _uiState = MutableStateFlow(SettingsUiState())
     val uiState: StateFlow<SettingsUiState> = _uiState.asStateFlow()
 
+    /** Live hit rate and saved latency of the response cache (since app start). */
+    val cacheStats: StateFlow<LlmResponseCache.Stats> = responseCache.stats
+
+    /** Calls, latency and success rate per model tier (since app start). */
+    val routingStats: StateFlow<Map<ModelTier, ModelRouter.TierStats>> = modelRouter.stats
+
+    /** Speculative screen reads served from a snapshot (since app start). */
+    val snapshotStats: StateFlow<ScreenSnapshotCache.Stats> = screenSnapshots.stats
+
     init {
         viewModelScope.launch {
-            combine(
+            combine<Any, SettingsUiState>(
                 settingsRepository.selectedProvider,
                 settingsRepository.apiKey,
                 settingsRepository.llmModel,
                 settingsRepository.azureEndpoint,
                 settingsRepository.azureDeploymentName,
-                settingsRepository.azureApiKey
+                settingsRepository.azureApiKey,
+                settingsRepository.pipelinedToolExecution,
+                settingsRepository.contextTokenBudget,
+                settingsRepository.hedgeProvider,
+                settingsRepository.hedgePercentile,
+                settingsRepository.azureExtraDeployments,
+                settingsRepository.responseCacheEnabled,
+                settingsRepository.responseCacheOnDisk,
+                settingsRepository.localLlmBaseUrl,
+                settingsRepository.localLlmModel,
+                settingsRepository.localLlmApiKey,
+                settingsRepository.modelRoutingEnabled,
+                settingsRepository.strongLlmModel,
+                settingsRepository.localIntentsEnabled,
+                settingsRepository.planExecuteMode
             ) { values ->
+                @Suppress("UNCHECKED_CAST")
                 SettingsUiState(
                     selectedProvider    = values[0] as String,
                     anthropicApiKey     = values[1] as String,
                     anthropicModel      = values[2] as String,
                     azureEndpoint       = values[3] as String,
                     azureDeploymentName = values[4] as String,
-                    azureApiKey         = values[5] as String
+                    azureApiKey         = values[5] as String,
+                    pipelinedToolExecution = values[6] as Boolean,
+                    contextTokenBudget     = (values[7] as Int).toString(),
+                    hedgeProvider          = values[8] as String,
+                    hedgePercentile        = (values[9] as Int).toString(),
+                    azureExtraDeployments  = values[10] as List<AzureDeployment>,
+                    responseCacheEnabled   = values[11] as Boolean,
+                    responseCacheOnDisk    = values[12] as Boolean,
+                    localLlmBaseUrl        = values[13] as String,
+                    localLlmModel          = values[14] as String,
+                    localLlmApiKey         = values[15] as String,
+                    modelRoutingEnabled    = values[16] as Boolean,
+                    strongModel            = values[17] as String,
+                    localIntentsEnabled    = values[18] as Boolean,
+                    planExecuteMode        = values[19] as Boolean
                 )
             }.collect { loaded ->
                 if (!_uiState.value.isSaving) {
@@ -67,6 +131,31 @@ class SettingsViewModel @Inject constructor(
     fun setAzureEndpoint(v: String)      = _uiState.update { it.copy(azureEndpoint = v, saveMessage = null) }
     fun setAzureDeployment(v: String)    = _uiState.update { it.copy(azureDeploymentName = v, saveMessage = null) }
     fun setAzureApiKey(v: String)        = _uiState.update { it.copy(azureApiKey = v, saveMessage = null) }
+    fun setLocalBaseUrl(v: String)      = _uiState.update { it.copy(localLlmBaseUrl = v, saveMessage = null) }
+    fun setLocalModel(v: String)        = _uiState.update { it.copy(localLlmModel = v, saveMessage = null) }
+    fun setLocalApiKey(v: String)       = _uiState.update { it.copy(localLlmApiKey = v, saveMessage = null) }
+    fun setPipelinedTools(v: Boolean)    = _uiState.update { it.copy(pipelinedToolExecution = v, saveMessage = null) }
+    fun setContextBudget(v: String)      = _uiState.update { it.copy(contextTokenBudget = v.filter(Char::isDigit), saveMessage = null) }
+    fun setHedgeProvider(id: String)     = _uiState.update { it.copy(hedgeProvider = id, saveMessage = null) }
+    fun setHedgePercentile(v: String)    = _uiState.update { it.copy(hedgePercentile = v.filter(Char::isDigit), saveMessage = null) }
+    fun setResponseCache(v: Boolean)     = _uiState.update { it.copy(responseCacheEnabled = v, saveMessage = null) }
+    fun setResponseCacheOnDisk(v: Boolean) = _uiState.update { it.copy(responseCacheOnDisk = v, saveMessage = null) }
+    fun setModelRouting(v: Boolean)     = _uiState.update { it.copy(modelRoutingEnabled = v, saveMessage = null) }
+    fun setStrongModel(v: String)       = _uiState.update { it.copy(strongModel = v, saveMessage = null) }
+    fun setLocalIntents(v: Boolean)     = _uiState.update { it.copy(localIntentsEnabled = v, saveMessage = null) }
+    fun setPlanExecute(v: Boolean)      = _uiState.update { it.copy(planExecuteMode = v, saveMessage = null) }
+    fun clearResponseCache()             = responseCache.clear()
+
+    // Additional Azure deployments (load-balanced pool)
+    fun addAzureDeployment() = _uiState.update {
+        it.copy(azureExtraDeployments = it.azureExtraDeployments + AzureDeployment("", "", ""), saveMessage = null)
+    }
+    fun updateAzureDeployment(index: Int, v: AzureDeployment) = _uiState.update {
+        it.copy(azureExtraDeployments = it.azureExtraDeployments.mapIndexed { i, d -> if (i == index) v else d }, saveMessage = null)
+    }
+    fun removeAzureDeployment(index: Int) = _uiState.update {
+        it.copy(azureExtraDeployments = it.azureExtraDeployments.filterIndexed { i, _ -> i != index }, saveMessage = null)
+    }
 
     fun saveSettings() {
         val s = _uiState.value
@@ -79,6 +168,29 @@ class SettingsViewModel @Inject constructor(
                 settingsRepository.setAzureEndpoint(s.azureEndpoint.trim())
                 settingsRepository.setAzureDeploymentName(s.azureDeploymentName.trim())
                 settingsRepository.setAzureApiKey(s.azureApiKey.trim())
+                settingsRepository.setAzureExtraDeployments(
+                    s.azureExtraDeployments
+                        .map { AzureDeployment(it.endpoint.trim(), it.deployment.trim(), it.apiKey.trim()) }
+                        .filter { it.endpoint.isNotEmpty() || it.deployment.isNotEmpty() || it.apiKey.isNotEmpty() }
+                )
+                settingsRepository.setLocalLlmBaseUrl(s.localLlmBaseUrl.trim())
+                settingsRepository.setLocalLlmModel(s.localLlmModel.trim())
+                settingsRepository.setLocalLlmApiKey(s.localLlmApiKey.trim())
+                settingsRepository.setPipelinedToolExecution(s.pipelinedToolExecution)
+                settingsRepository.setContextTokenBudget(
+                    s.contextTokenBudget.toIntOrNull() ?: SettingsRepository.DEFAULT_CONTEXT_TOKEN_BUDGET
+                )
+                // Hedging against the primary itself is meaningless – store as "off"
+                settingsRepository.setHedgeProvider(s.hedgeProvider.takeIf { it != s.selectedProvider } ?: "")
+                settingsRepository.setHedgePercentile(
+                    s.hedgePercentile.toIntOrNull() ?: SettingsRepository.DEFAULT_HEDGE_PERCENTILE
+                )
+                settingsRepository.setResponseCacheEnabled(s.responseCacheEnabled)
+                settingsRepository.setResponseCacheOnDisk(s.responseCacheOnDisk)
+                settingsRepository.setModelRoutingEnabled(s.modelRoutingEnabled)
+                settingsRepository.setStrongLlmModel(s.strongModel)
+                settingsRepository.setLocalIntentsEnabled(s.localIntentsEnabled)
+                settingsRepository.setPlanExecuteMode(s.planExecuteMode)
                 _uiState.update { it.copy(isSaving = false, saveMessage = "✓ Gespeichert!") }
             } catch (e: Exception) {
                 _uiState.update { it.copy(isSaving = false, saveMessage = "Fehler: ${e.message}") }
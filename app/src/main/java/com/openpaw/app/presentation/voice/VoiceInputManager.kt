@@ -181,4 +181,19 @@ class VoiceInputManager @Inject constructor(
             .take(500)
         tts?.speak(clean, TextToSpeech.QUEUE_FLUSH, null, "tts_${System.currentTimeMillis()}")
     }
+
+    /**
+     * Like [speakAlways] but appends to the TTS queue instead of interrupting it.
+     * Used to read a streamed response sentence by sentence while it is still arriving.
+     */
+    fun speakQueued(text: String) {
+        if (!ttsReady || text.isBlank()) return
+        val clean = text
+            .replace(Regex("\\*+"), "")
+            .replace(Regex("`+"), "")
+            .replace(Regex("#+\\s*"), "")
+            .trim()
+            .take(500)
+        tts?.speak(clean, TextToSpeech.QUEUE_ADD, null, "tts_${System.nanoTime()}")
+    }
 }
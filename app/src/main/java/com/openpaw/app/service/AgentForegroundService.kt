@@ -12,9 +12,19 @@ import androidx.core.app.NotificationCompat
 import com.openpaw.app.MainActivity
 import com.openpaw.app.R
 import dagger.hilt.android.AndroidEntryPoint
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.drop
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.launch
+import java.util.UUID
+import javax.inject.Inject
 
 /**
  * ForegroundService that keeps OpenPaw alive in the background.
@@ -30,6 +40,10 @@ import kotlinx.coroutines.flow.asStateFlow
  *   - AccessibilityService events keep firing
  *   - Scheduled/triggered agent tasks can execute
  *   - Memory + context stay in RAM
+ *
+ * It hosts the [AgentRunScheduler]: the scheduler starts the service with its first run, the
+ * notification shows the scheduler's status, and "Stop" cancels every queued and running run.
+ * Background tasks are queued with [enqueue].
  */
 @AndroidEntryPoint
 class AgentForegroundService : Service() {
@@ -41,7 +55,9 @@ class AgentForegroundService : Service() {
         const val ACTION_START = "com.openpaw.app.ACTION_START"
         const val ACTION_STOP = "com.openpaw.app.ACTION_STOP"
         const val ACTION_STATUS_UPDATE = "com.openpaw.app.ACTION_STATUS_UPDATE"
+        const val ACTION_RUN = "com.openpaw.app.ACTION_RUN"
         const val EXTRA_STATUS_TEXT = "status_text"
+        const val EXTRA_PROMPT = "prompt"
 
         /** Observable running state – observe this in UI to show start/stop button. */
         private val _isRunning = MutableStateFlow(false)
@@ -61,6 +77,15 @@ class AgentForegroundService : Service() {
             context.startService(intent)
         }
 
+        /** Queue [prompt] as a background agent run in a new session. */
+        fun enqueue(context: Context, prompt: String) {
+            val intent = Intent(context, AgentForegroundService::class.java).apply {
+                action = ACTION_RUN
+                putExtra(EXTRA_PROMPT, prompt)
+            }
+            context.startForegroundService(intent)
+        }
+
         fun updateStatus(context: Context, statusText: String) {
             val intent = Intent(context, AgentForegroundService::class.java).apply {
                 action = ACTION_STATUS_UPDATE
@@ -70,21 +95,40 @@ class AgentForegroundService : Service() {
         }
     }
 
+    @Inject lateinit var runScheduler: AgentRunScheduler
+
     private lateinit var notificationManager: NotificationManager
 
+    private val serviceScope = CoroutineScope(SupervisorJob() + Dispatchers.Main)
+
     override fun onCreate() {
         super.onCreate()
         notificationManager = getSystemService(NOTIFICATION_SERVICE) as NotificationManager
         createNotificationChannel()
+        serviceScope.launch {
+            // Previews change with every streamed token – only a changed text is re-posted
+            runScheduler.status.map { describe(it) }.distinctUntilChanged().drop(1).collect { text ->
+                if (_isRunning.value) notificationManager.notify(NOTIFICATION_ID, buildNotification(text))
+            }
+        }
     }
 
     override fun onStartCommand(intent: Intent?, flags: Int, startId: Int): Int {
         when (intent?.action) {
             ACTION_START -> {
-                startForeground(NOTIFICATION_ID, buildNotification("Ready – say something!"))
+                startForeground(NOTIFICATION_ID, buildNotification(describe(runScheduler.status.value)))
                 _isRunning.value = true
             }
+            ACTION_RUN -> {
+                startForeground(NOTIFICATION_ID, buildNotification(describe(runScheduler.status.value)))
+                _isRunning.value = true
+                val prompt = intent.getStringExtra(EXTRA_PROMPT)
+                if (!prompt.isNullOrBlank()) {
+                    runScheduler.submit(prompt, UUID.randomUUID().toString(), AgentRunScheduler.Priority.BACKGROUND)
+                }
+            }
             ACTION_STOP -> {
+                runScheduler.cancelAll()
                 _isRunning.value = false
                 stopForeground(STOP_FOREGROUND_REMOVE)
                 stopSelf()
@@ -98,6 +142,7 @@ class AgentForegroundService : Service() {
     }
 
     override fun onDestroy() {
+        serviceScope.cancel()
         _isRunning.value = false
         super.onDestroy()
     }
@@ -106,6 +151,14 @@ class AgentForegroundService : Service() {
 
     // ─── Notification ─────────────────────────────────────────────────────────
 
+    private fun describe(status: AgentRunScheduler.Status): String {
+        if (status.isIdle) return "Ready – say something!"
+        val current = status.running.firstOrNull()
+        val text = current?.let { "${it.progress ?: "Startet…"} · ${it.label}" } ?: "Warte…"
+        val waiting = status.running.size - 1 + status.queued.size
+        return if (waiting > 0) "$text (+$waiting)" else text
+    }
+
     private fun createNotificationChannel() {
         val channel = NotificationChannel(
             CHANNEL_ID,
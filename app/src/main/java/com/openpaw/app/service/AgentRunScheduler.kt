@@ -0,0 +1,297 @@
+package com.openpaw.app.service
+
+import android.content.Context
+import android.util.Log
+import com.openpaw.app.domain.tools.ScreenLease
+import com.openpaw.app.domain.usecase.AgentEvent
+import com.openpaw.app.domain.usecase.AgentRun
+import com.openpaw.app.domain.usecase.AgentUseCase
+import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asSharedFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import java.util.PriorityQueue
+import java.util.concurrent.atomic.AtomicLong
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Executes agent runs for every entry point (chat, bubble, background tasks).
+ *
+ * Runs live in the scheduler's own scope, not in a ViewModel or view – a chat run keeps going
+ * when the screen rotates or the activity is closed. [AgentForegroundService] hosts the
+ * scheduler: it is started with the first run and keeps the process alive meanwhile.
+ *
+ *  - At most [MAX_RUNNING] runs execute at once, at most one per session; the rest wait in
+ *    a queue of at most [MAX_QUEUED], ordered by [Priority] and then by arrival.
+ *  - A full queue makes room by dropping its lowest-priority entry, or rejects the new run
+ *    if nothing queued ranks below it.
+ *  - Runs share the device through the [ScreenLease]: the first run that touches the screen
+ *    holds it until it ends, others continue with IO-only work or wait for it.
+ *  - [status] publishes what is running and queued, with the current step of each run;
+ *    [finished] reports every run that ended.
+ */
+@Singleton
+class AgentRunScheduler @Inject constructor(
+    @ApplicationContext private val context: Context,
+    private val agentUseCase: AgentUseCase,
+    private val screenLease: ScreenLease
+) {
+
+    /** Lower ordinal = served first. */
+    enum class Priority { VOICE, INTERACTIVE, BACKGROUND }
+
+    enum class State { QUEUED, RUNNING }
+
+    data class RunInfo(
+        val id: Long,
+        val sessionId: String,
+        /** Start of the user input, for notifications and logs. */
+        val label: String,
+        val priority: Priority,
+        val state: State,
+        /** Current step – "Denke…", "⚙️ control_screen" – null before the run started. */
+        val progress: String? = null,
+        /** End of the answer streamed so far in the current turn, for live previews. */
+        val preview: String? = null
+    )
+
+    /** Outcome of a run that ended (finished, failed, cancelled, dropped or rejected). */
+    data class Finished(
+        val id: Long,
+        val sessionId: String,
+        /** Final answer, null if the run ended without one. */
+        val reply: String?,
+        /** Error shown to the user, null on success or cancellation. */
+        val error: String?
+    )
+
+    data class Status(
+        val running: List<RunInfo> = emptyList(),
+        val queued: List<RunInfo> = emptyList()
+    ) {
+        val isIdle: Boolean get() = running.isEmpty() && queued.isEmpty()
+    }
+
+    private class Ticket(var info: RunInfo) {
+        val turn = CompletableDeferred<Unit>()
+        lateinit var job: Job
+        @Volatile var evicted = false
+    }
+
+    /**
+     * The agent loop (context budgeting, cache keys, tool dispatch) runs off the main thread;
+     * only event callbacks switch to Main, so callers can touch views from them.
+     */
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+
+    private val ids = AtomicLong()
+    private val lock = Any()
+    private val queue = PriorityQueue(QUEUE_ORDER)
+    private val running = mutableListOf<Ticket>()
+
+    private val _status = MutableStateFlow(Status())
+    val status: StateFlow<Status> = _status.asStateFlow()
+
+    private val _finished = MutableSharedFlow<Finished>(extraBufferCapacity = MAX_QUEUED)
+    /**
+     * Every run that ends. UI observes this and [status] instead of passing callbacks that
+     * capture it – runs outlive ViewModels.
+     */
+    val finished: SharedFlow<Finished> = _finished.asSharedFlow()
+
+    /**
+     * Queue a run of [userInput] in [sessionId]. [onEvent] receives the run's events on the
+     * main thread. The returned [AgentRun] cancels the run whether it is queued or running.
+     *
+     * Doesn't suspend: the run shows up in [status] (or in [finished], if rejected) before
+     * this returns.
+     */
+    fun submit(
+        userInput: String,
+        sessionId: String,
+        priority: Priority,
+        onEvent: suspend (AgentEvent) -> Unit = {}
+    ): AgentRun {
+        val id = ids.incrementAndGet()
+        val ticket = Ticket(RunInfo(id, sessionId, userInput.take(LABEL_LENGTH), priority, State.QUEUED))
+        val holder = ScreenLease.Holder(id)
+        ticket.job = scope.launch(holder, start = CoroutineStart.LAZY) {
+            execute(ticket, holder, userInput, sessionId, onEvent)
+        }
+
+        var evicted: Ticket? = null
+        synchronized(lock) {
+            if (queue.size >= MAX_QUEUED) {
+                val lowest = queue.maxWithOrNull(QUEUE_ORDER)
+                if (lowest == null || QUEUE_ORDER.compare(ticket, lowest) >= 0) {
+                    Log.w(TAG, "Queue full – rejecting run $id ($priority)")
+                    _finished.tryEmit(Finished(id, sessionId, reply = null, error = QUEUE_FULL))
+                    val rejected = scope.launch(Dispatchers.Main) { onEvent(AgentEvent.Error(QUEUE_FULL)) }
+                    return AgentRun(sessionId, rejected)
+                }
+                queue.remove(lowest)
+                evicted = lowest
+            }
+            queue += ticket
+            ticket.job.start()
+            dispatch()
+        }
+        evicted?.let {
+            Log.w(TAG, "Queue full – dropping run ${it.info.id} (${it.info.priority}) for run $id")
+            it.evicted = true
+            it.job.cancel(CancellationException(QUEUE_FULL))
+        }
+
+        ensureHost()
+        return AgentRun(sessionId, ticket.job)
+    }
+
+    /** Cancel everything – queued and running. Running runs persist their partial transcript. */
+    fun cancelAll() {
+        val all = synchronized(lock) { queue.toList() + running }
+        all.forEach { it.job.cancel(CancellationException("Agent gestoppt")) }
+    }
+
+    /** Cancel the queued and running runs of [sessionId]. */
+    fun cancelSession(sessionId: String) {
+        runsOf(sessionId).forEach { it.job.cancel(CancellationException(CANCELLED)) }
+    }
+
+    /**
+     * Cancel the runs of [sessionId] and wait until they ended – including the partial
+     * transcript a cancelled run still persists. Call before deleting or clearing a session.
+     */
+    suspend fun cancelSessionAndJoin(sessionId: String) {
+        val runs = runsOf(sessionId)
+        runs.forEach { it.job.cancel(CancellationException(CANCELLED)) }
+        runs.forEach { it.job.join() }
+    }
+
+    private fun runsOf(sessionId: String): List<Ticket> =
+        synchronized(lock) { (queue.toList() + running).filter { it.info.sessionId == sessionId } }
+
+    // ── Execution ─────────────────────────────────────────────────────────────
+
+    private suspend fun execute(
+        ticket: Ticket,
+        holder: ScreenLease.Holder,
+        userInput: String,
+        sessionId: String,
+        onEvent: suspend (AgentEvent) -> Unit
+    ) {
+        var reply: String? = null
+        var error: String? = null
+        val streamed = StringBuilder()
+        try {
+            ticket.turn.await()
+            Log.d(TAG, "Run ${ticket.info.id} (${ticket.info.priority}) started")
+            agentUseCase.processMessage(userInput, sessionId).collect { event ->
+                when (event) {
+                    is AgentEvent.TextDelta     -> streamed.append(event.text)
+                    is AgentEvent.ToolCall      -> streamed.setLength(0)
+                    is AgentEvent.FinalResponse -> reply = event.text
+                    is AgentEvent.Error         -> error = event.message
+                    else                        -> {}
+                }
+                val preview = streamed.takeLast(PREVIEW_LENGTH).toString().replace('\n', ' ').trim().ifEmpty { null }
+                update(ticket) { it.copy(progress = progressOf(event) ?: it.progress, preview = preview) }
+                withContext(Dispatchers.Main) { onEvent(event) }
+            }
+        } finally {
+            screenLease.release(holder)
+            synchronized(lock) {
+                queue.remove(ticket)
+                running.remove(ticket)
+                dispatch()
+            }
+            if (ticket.evicted) {
+                error = QUEUE_FULL
+                withContext(NonCancellable + Dispatchers.Main) { onEvent(AgentEvent.Error(QUEUE_FULL)) }
+            }
+            _finished.tryEmit(Finished(ticket.info.id, sessionId, reply, error))
+        }
+    }
+
+    /**
+     * Start queued runs while slots are free and publish the new status. Caller holds [lock].
+     *
+     * One run per session at a time, in arrival order: runs of one session append to the same
+     * conversation, and a cancelled run still persists its partial transcript while it is
+     * in [running]. A queued run whose session is busy is skipped, not blocking the others.
+     */
+    private fun dispatch() {
+        val busy = running.mapTo(HashSet()) { it.info.sessionId }
+        val firstOfSession = queue.groupBy { it.info.sessionId }.mapValues { (_, tickets) -> tickets.minOf { it.info.id } }
+        for (next in queue.sortedWith(QUEUE_ORDER)) {
+            if (running.size >= MAX_RUNNING) break
+            val sessionId = next.info.sessionId
+            if (sessionId in busy || firstOfSession[sessionId] != next.info.id) continue
+            queue.remove(next)
+            busy += sessionId
+            next.info = next.info.copy(state = State.RUNNING)
+            running += next
+            next.turn.complete(Unit)
+        }
+        publish()
+    }
+
+    private fun update(ticket: Ticket, change: (RunInfo) -> RunInfo) = synchronized(lock) {
+        val changed = change(ticket.info)
+        if (changed == ticket.info) return@synchronized
+        ticket.info = changed
+        publish()
+    }
+
+    private fun publish() {
+        _status.value = Status(
+            running = running.map { it.info },
+            queued  = queue.sortedWith(QUEUE_ORDER).map { it.info }
+        )
+    }
+
+    private fun progressOf(event: AgentEvent): String? = when (event) {
+        is AgentEvent.Thinking   -> "Denke…"
+        is AgentEvent.TextDelta  -> "Antwortet…"
+        is AgentEvent.ToolCall   -> "⚙️ ${event.toolName}"
+        is AgentEvent.ToolResult -> if (event.success) "✓ ${event.toolName}" else "✗ ${event.toolName}"
+        else                     -> null
+    }
+
+    /** The foreground service keeps the process – and with it the runs – alive. */
+    private fun ensureHost() {
+        if (AgentForegroundService.isRunning.value) return
+        try {
+            AgentForegroundService.start(context)
+        } catch (e: Exception) {
+            // Background start restrictions – the run still executes while the process lives
+            Log.w(TAG, "Could not start AgentForegroundService: ${e.message}")
+        }
+    }
+
+    private companion object {
+        const val TAG = "AgentRunScheduler"
+        /** One run driving the screen plus one doing IO-only work or waiting for the lease. */
+        const val MAX_RUNNING = 2
+        const val MAX_QUEUED = 8
+        const val LABEL_LENGTH = 40
+        const val PREVIEW_LENGTH = 80
+        const val CANCELLED = "Vom Nutzer abgebrochen"
+        const val QUEUE_FULL = "Zu viele Aufträge gleichzeitig – bitte später erneut versuchen."
+
+        val QUEUE_ORDER: Comparator<Ticket> = compareBy({ it.info.priority.ordinal }, { it.info.id })
+    }
+}
@@ -11,14 +11,20 @@ import android.graphics.Color
 import android.graphics.PixelFormat
 import android.graphics.drawable.GradientDrawable
 import android.os.IBinder
+import android.text.SpannableString
+import android.text.Spanned
+import android.text.style.RelativeSizeSpan
+import android.text.style.SuperscriptSpan
 import android.util.TypedValue
 import android.view.Gravity
 import android.view.MotionEvent
+import android.view.ViewConfiguration
 import android.view.WindowManager
 import android.widget.TextView
 import androidx.core.app.NotificationCompat
+import com.openpaw.app.data.remote.ConnectionPrewarmer
 import com.openpaw.app.domain.usecase.AgentEvent
-import com.openpaw.app.domain.usecase.AgentUseCase
+import com.openpaw.app.domain.usecase.AgentRun
 import com.openpaw.app.presentation.voice.VoiceInputManager
 import dagger.hilt.android.AndroidEntryPoint
 import kotlinx.coroutines.CoroutineScope
@@ -41,7 +47,8 @@ import kotlin.math.abs
  * Tapping the bubble starts a full voice interaction WITHOUT opening the app:
  *   1. Blue  = idle    → tap to start listening
  *   2. Red   = listening  → tap again to cancel
- *   3. Orange = processing  → waiting for agent response
+ *   3. Orange = processing  → waiting for agent response; long-press to cancel,
+ *      tap to speak a follow-up command (queued, counter on the bubble)
  *   4. Response text pops up in a small overlay, TTS reads it aloud
  *
  * Dragging moves the bubble to any screen position.
@@ -51,11 +58,13 @@ import kotlin.math.abs
 class FloatingBubbleService : Service() {
 
     @Inject lateinit var voiceInputManager: VoiceInputManager
-    @Inject lateinit var agentUseCase: AgentUseCase
+    @Inject lateinit var runScheduler: AgentRunScheduler
+    @Inject lateinit var connectionPrewarmer: ConnectionPrewarmer
 
     companion object {
         private const val CHANNEL_ID = "openpaw_bubble"
         private const val NOTIF_ID   = 1002
+        private const val BUBBLE_ICON = "🐾"
         const val ACTION_START       = "com.openpaw.app.BUBBLE_START"
         const val ACTION_STOP        = "com.openpaw.app.BUBBLE_STOP"
 
@@ -64,6 +73,9 @@ class FloatingBubbleService : Service() {
         val COLOR_LISTENING  = Color.argb(230, 211,  47,  47)  // Red
         val COLOR_PROCESSING = Color.argb(230, 245, 124,   0)  // Orange
 
+        /** Sentence boundary inside streamed text: punctuation followed by whitespace, or a newline. */
+        private val SENTENCE_END = Regex("[.!?…]\\s|\\n")
+
         private val _isRunning = MutableStateFlow(false)
         val isRunning: StateFlow<Boolean> = _isRunning.asStateFlow()
 
@@ -97,6 +109,14 @@ class FloatingBubbleService : Service() {
 
     private var responseJob: Job? = null
 
+    /** The agent run of the current voice command, cancelled by a long-press. */
+    private var agentRun: AgentRun? = null
+
+    /** Commands spoken while a run was executing, in order; they run back-to-back. */
+    private val pendingCommands = ArrayDeque<String>()
+
+    private val isRunActive: Boolean get() = agentRun?.isActive == true
+
     // ── Lifecycle ─────────────────────────────────────────────────────────────
 
     override fun onBind(intent: Intent?): IBinder? = null
@@ -154,7 +174,7 @@ class FloatingBubbleService : Service() {
         }
 
         val bubble = TextView(this).apply {
-            text = "🐾"
+            text = BUBBLE_ICON
             setTextSize(TypedValue.COMPLEX_UNIT_SP, 26f)
             setPadding(22, 22, 22, 22)
             background = GradientDrawable().apply {
@@ -166,25 +186,39 @@ class FloatingBubbleService : Service() {
         var initX = 0; var initY = 0
         var touchX = 0f; var touchY = 0f
         var dragged = false
+        var longPressed = false
+        val longPress = Runnable {
+            longPressed = true
+            onBubbleLongPressed()
+        }
 
         bubble.setOnTouchListener { _, event ->
             when (event.action) {
                 MotionEvent.ACTION_DOWN -> {
                     initX = params.x; initY = params.y
                     touchX = event.rawX; touchY = event.rawY
-                    dragged = false; true
+                    dragged = false; longPressed = false
+                    bubble.postDelayed(longPress, ViewConfiguration.getLongPressTimeout().toLong())
+                    true
                 }
                 MotionEvent.ACTION_MOVE -> {
                     val dx = (event.rawX - touchX).toInt()
                     val dy = (event.rawY - touchY).toInt()
-                    if (abs(dx) > 8 || abs(dy) > 8) dragged = true
+                    if (abs(dx) > 8 || abs(dy) > 8) {
+                        dragged = true
+                        bubble.removeCallbacks(longPress)
+                    }
                     params.x = initX + dx
                     params.y = initY + dy
                     windowManager.updateViewLayout(bubble, params)
                     true
                 }
                 MotionEvent.ACTION_UP -> {
-                    if (!dragged) onBubbleTapped(); true
+                    bubble.removeCallbacks(longPress)
+                    if (!dragged && !longPressed) onBubbleTapped(); true
+                }
+                MotionEvent.ACTION_CANCEL -> {
+                    bubble.removeCallbacks(longPress); true
                 }
                 else -> false
             }
@@ -201,24 +235,41 @@ class FloatingBubbleService : Service() {
             BubbleState.IDLE       -> startVoiceInteraction()
             BubbleState.LISTENING  -> {
                 voiceInputManager.stopListening()
-                setBubbleState(BubbleState.IDLE)
+                setBubbleState(if (isRunActive) BubbleState.PROCESSING else BubbleState.IDLE)
             }
-            BubbleState.PROCESSING -> { /* ignore while agent is working */ }
+            // Follow-up command while the agent is still working – it is queued
+            BubbleState.PROCESSING -> startVoiceInteraction()
         }
     }
 
+    /** Long-press while the agent is working stops it – and drops the queued commands. */
+    private fun onBubbleLongPressed() {
+        if (bubbleState != BubbleState.PROCESSING) return
+        agentRun?.cancel()
+        agentRun = null
+        pendingCommands.clear()
+        updateBadge()
+        voiceInputManager.stopSpeaking()
+        setBubbleState(BubbleState.IDLE)
+        showResponse("⏹ Abgebrochen", speak = false)
+    }
+
     // ── Voice interaction (fully in-overlay, no app open) ─────────────────────
 
     private fun startVoiceInteraction() {
+        // The microphone would pick up the running answer
+        if (isRunActive) voiceInputManager.stopSpeaking()
         setBubbleState(BubbleState.LISTENING)
         dismissResponse()
+        // Handshake with the LLM provider while the user is still speaking
+        connectionPrewarmer.prewarm()
 
         // Watch for STT errors so we can reset the bubble state
         val sttWatchJob = serviceScope.launch {
             voiceInputManager.sttState.collect { state ->
                 if (state == VoiceInputManager.SttState.ERROR &&
                     bubbleState == BubbleState.LISTENING) {
-                    setBubbleState(BubbleState.IDLE)
+                    setBubbleState(if (isRunActive) BubbleState.PROCESSING else BubbleState.IDLE)
                     cancel()
                 }
             }
@@ -226,29 +277,80 @@ class FloatingBubbleService : Service() {
 
         voiceInputManager.startListening { recognizedText ->
             sttWatchJob.cancel()
-            setBubbleState(BubbleState.PROCESSING)
-            serviceScope.launch {
-                try {
-                    agentUseCase.processMessage(recognizedText, bubbleSessionId)
-                        .collect { event ->
-                            when (event) {
-                                is AgentEvent.FinalResponse -> {
-                                    setBubbleState(BubbleState.IDLE)
-                                    showResponse(event.text)
-                                }
-                                is AgentEvent.Error -> setBubbleState(BubbleState.IDLE)
-                                else -> { /* Thinking / ToolCall / ToolResult – bubble stays orange */ }
-                            }
-                        }
-                } catch (_: Exception) {
-                    setBubbleState(BubbleState.IDLE)
+            if (isRunActive || pendingCommands.isNotEmpty()) {
+                pendingCommands.addLast(recognizedText)
+                updateBadge()
+                setBubbleState(BubbleState.PROCESSING)
+            } else {
+                runCommand(recognizedText)
+            }
+        }
+    }
+
+    /** Run one command; when it ends, the next queued command follows in the same session. */
+    private fun runCommand(command: String) {
+        if (bubbleState != BubbleState.LISTENING) setBubbleState(BubbleState.PROCESSING)
+        // Streamed text is spoken sentence by sentence while the LLM is still generating
+        val pendingSpeech = StringBuilder()
+        var spokeAnything = false
+        val run = runScheduler.submit(command, bubbleSessionId, AgentRunScheduler.Priority.VOICE) { event ->
+            when (event) {
+                is AgentEvent.TextDelta -> {
+                    pendingSpeech.append(event.text)
+                    if (speakCompletedSentences(pendingSpeech)) spokeAnything = true
+                }
+                is AgentEvent.ToolCall -> {
+                    // Text before a tool call ("Ich öffne Spotify") is complete – say it now
+                    if (pendingSpeech.isNotBlank()) {
+                        voiceInputManager.speakQueued(pendingSpeech.toString())
+                        spokeAnything = true
+                    }
+                    pendingSpeech.setLength(0)
+                }
+                is AgentEvent.FinalResponse -> {
+                    if (spokeAnything || pendingSpeech.isNotBlank()) {
+                        voiceInputManager.speakQueued(pendingSpeech.toString())
+                        pendingSpeech.setLength(0)
+                        showResponse(event.text, speak = false)
+                    } else if (bubbleState == BubbleState.LISTENING) {
+                        // Don't talk into the next command
+                        showResponse(event.text, speak = false)
+                    } else {
+                        showResponse(event.text)
+                    }
                 }
+                else -> { /* Thinking / ToolResult / Error – the bubble state follows the run */ }
             }
         }
+        agentRun = run
+        serviceScope.launch {
+            run.join()
+            onRunFinished(run)
+        }
+    }
+
+    private fun onRunFinished(run: AgentRun) {
+        if (agentRun !== run) return   // cancelled by long-press
+        agentRun = null
+        val next = pendingCommands.removeFirstOrNull()
+        updateBadge()
+        when {
+            next != null                          -> runCommand(next)
+            bubbleState == BubbleState.PROCESSING -> setBubbleState(BubbleState.IDLE)
+        }
     }
 
     // ── Visual state ──────────────────────────────────────────────────────────
 
+    /** Number of queued commands as a small superscript next to the paw. */
+    private fun updateBadge() {
+        val count = pendingCommands.size
+        bubbleView?.text = if (count == 0) BUBBLE_ICON else SpannableString("$BUBBLE_ICON$count").apply {
+            setSpan(SuperscriptSpan(), BUBBLE_ICON.length, length, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+            setSpan(RelativeSizeSpan(0.5f), BUBBLE_ICON.length, length, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+        }
+    }
+
     private fun setBubbleState(state: BubbleState) {
         bubbleState = state
         val bg = bubbleView?.background as? GradientDrawable ?: return
@@ -263,9 +365,20 @@ class FloatingBubbleService : Service() {
 
     // ── Response overlay ──────────────────────────────────────────────────────
 
-    private fun showResponse(text: String) {
+    /**
+     * Speaks every complete sentence in [buffer] and removes it from the buffer.
+     * @return true if anything was spoken.
+     */
+    private fun speakCompletedSentences(buffer: StringBuilder): Boolean {
+        val end = SENTENCE_END.findAll(buffer).lastOrNull()?.range?.last ?: return false
+        voiceInputManager.speakQueued(buffer.substring(0, end + 1))
+        buffer.delete(0, end + 1)
+        return true
+    }
+
+    private fun showResponse(text: String, speak: Boolean = true) {
         // Speak aloud (bypasses the in-app TTS toggle)
-        voiceInputManager.speakAlways(text)
+        if (speak) voiceInputManager.speakAlways(text)
 
         dismissResponse()
 
@@ -10,6 +10,7 @@ import android.view.accessibility.AccessibilityNodeInfo
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
+import java.util.concurrent.atomic.AtomicLong
 
 /**
  * OpenPaw AccessibilityService – lets the AI agent:
@@ -31,6 +32,13 @@ class OpenPawAccessibilityService : AccessibilityService() {
         val instance: StateFlow<OpenPawAccessibilityService?> = _instance.asStateFlow()
 
         fun isActive(): Boolean = _instance.value != null
+
+        private const val SCREEN_CHANGE_EVENTS =
+            AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED or
+                AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED or
+                AccessibilityEvent.TYPE_WINDOWS_CHANGED or
+                AccessibilityEvent.TYPE_VIEW_SCROLLED or
+                AccessibilityEvent.TYPE_VIEW_TEXT_CHANGED
     }
 
     // ─── Lifecycle ────────────────────────────────────────────────────────────
@@ -41,13 +49,28 @@ class OpenPawAccessibilityService : AccessibilityService() {
 
     override fun onInterrupt() { /* required, usually empty */ }
 
-    override fun onAccessibilityEvent(event: AccessibilityEvent?) { /* passthrough */ }
+    override fun onAccessibilityEvent(event: AccessibilityEvent?) {
+        event ?: return
+        // OpenPaw's own chat and bubble update while the agent works – they are never read
+        if (event.packageName?.toString() == packageName) return
+        if (event.eventType and SCREEN_CHANGE_EVENTS != 0) generation.incrementAndGet()
+    }
 
     override fun onDestroy() {
         _instance.value = null
         super.onDestroy()
     }
 
+    // ─── Screen changes ───────────────────────────────────────────────────────
+
+    private val generation = AtomicLong()
+
+    /**
+     * Incremented on every window or content change of another app. Two reads with the same
+     * generation see the same screen – used to validate speculative snapshots.
+     */
+    val screenGeneration: Long get() = generation.get()
+
     // ─── Screen reading ───────────────────────────────────────────────────────
 
     /**
@@ -190,10 +213,12 @@ class OpenPawAccessibilityService : AccessibilityService() {
         val gesture = GestureDescription.Builder()
             .addStroke(GestureDescription.StrokeDescription(path, 0, 300))
             .build()
-        dispatchGesture(gesture, object : GestureResultCallback() {
+        val dispatched = dispatchGesture(gesture, object : GestureResultCallback() {
             override fun onCompleted(gestureDescription: GestureDescription) = onResult(true)
             override fun onCancelled(gestureDescription: GestureDescription) = onResult(false)
         }, null)
+        // Rejected gestures never get a callback
+        if (!dispatched) onResult(false)
     }
 
     // ─── System actions ───────────────────────────────────────────────────────
@@ -210,10 +235,11 @@ class OpenPawAccessibilityService : AccessibilityService() {
         val gesture = GestureDescription.Builder()
             .addStroke(GestureDescription.StrokeDescription(path, 0, 50))
             .build()
-        dispatchGesture(gesture, object : GestureResultCallback() {
+        val dispatched = dispatchGesture(gesture, object : GestureResultCallback() {
             override fun onCompleted(g: GestureDescription) = onResult(true)
             override fun onCancelled(g: GestureDescription) = onResult(false)
         }, null)
+        if (!dispatched) onResult(false)
     }
 
     // ─── Node search helpers ─────────────────────────────────────────────────
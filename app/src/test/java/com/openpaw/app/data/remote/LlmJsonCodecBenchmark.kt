@@ -0,0 +1,198 @@
+package com.openpaw.app.data.remote
+
+import com.google.gson.Gson
+import com.google.gson.GsonBuilder
+import com.google.gson.JsonParser
+import com.google.gson.JsonSerializer
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonWriter
+import com.openpaw.app.data.remote.dto.AnthropicRequest
+import com.openpaw.app.data.remote.dto.AnthropicResponse
+import com.openpaw.app.data.remote.dto.AzureChatChunk
+import com.openpaw.app.data.remote.dto.AzureChatRequest
+import com.openpaw.app.data.remote.dto.AzureStreamOptions
+import com.openpaw.app.data.remote.dto.ApiTool
+import com.openpaw.app.data.remote.dto.ApiToolProperty
+import com.openpaw.app.data.remote.dto.ApiToolSchema
+import com.openpaw.app.data.remote.dto.CacheControl
+import com.openpaw.app.data.remote.dto.SystemBlock
+import org.junit.Assert.assertEquals
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.io.StringReader
+import java.io.StringWriter
+import java.lang.management.ManagementFactory
+
+/**
+ * Microbenchmark: one request/response round trip (encode an [AnthropicRequest], decode an
+ * [AnthropicResponse]) through the hand-written codec versus reflective Gson.
+ *
+ * The equivalence tests always run: both paths must produce the same JSON and the same
+ * decoded content, except that the codec keeps integral tool inputs as [Long].
+ *
+ * The benchmark itself only runs with `./gradlew testDebugUnitTest -Pbenchmark` and reports
+ * time and allocated bytes per round trip on stdout – timings vary too much between
+ * machines to gate the build on them.
+ */
+class LlmJsonCodecBenchmark {
+
+    /** Gson baseline. RawJson has no Gson adapter, so it is serialized as a parsed tree. */
+    private val gson: Gson = GsonBuilder()
+        .registerTypeAdapter(RawJson::class.java, JsonSerializer<RawJson> { src, _, _ -> JsonParser.parseString(src.json) })
+        .create()
+
+    private val request = sampleRequest()
+    private val responseJson = sampleResponseJson()
+
+    @Test
+    fun codecMatchesGson() {
+        assertEquals(JsonParser.parseString(gson.toJson(request)), JsonParser.parseString(codecEncode()))
+
+        val viaCodec = codecDecode()
+        val viaGson = gson.fromJson(responseJson, AnthropicResponse::class.java)
+        assertEquals(viaGson.stopReason, viaCodec.stopReason)
+        assertEquals(viaGson.usage, viaCodec.usage)
+        assertEquals(viaGson.content.map { it.type to (it.text ?: it.name) }, viaCodec.content.map { it.type to (it.text ?: it.name) })
+    }
+
+    @Test
+    fun integralToolInputsDecodeAsLong() {
+        val tap = codecDecode().content.single { it.name == "control_screen" }.input!!
+        assertEquals(540L, tap["x"])
+        assertEquals(700L, tap["y"])
+
+        // Azure/OpenAI tool arguments arrive as a JSON string
+        val args = JsonValues.parseObject("""{"x":540,"zoom":1.5,"big":${Long.MAX_VALUE}}""")
+        assertEquals(540L, args["x"])
+        assertEquals(1.5, args["zoom"])
+        assertEquals(Long.MAX_VALUE, args["big"])
+    }
+
+    @Test
+    fun azureCodecMatchesGson() {
+        val azure = AzureChatRequest(
+            model         = "gpt-4o-mini",
+            messages      = request.messages,
+            tools         = RawJson.write { AzureJson.writeTools(it, sampleTools()) },
+            stream        = true,
+            streamOptions = AzureStreamOptions(),
+            user          = "session-1"
+        )
+        val encoded = StringWriter().also { out -> JsonWriter(out).use { AzureJson.writeRequest(it, azure) } }.toString()
+        assertEquals(JsonParser.parseString(gson.toJson(azure)), JsonParser.parseString(encoded))
+
+        val tool = JsonParser.parseString(azure.tools!!.json).asJsonArray[0].asJsonObject
+        assertEquals("function", tool["type"].asString)
+        assertEquals("tool_1", tool["function"].asJsonObject["name"].asString)
+        assertEquals("object", tool["function"].asJsonObject["parameters"].asJsonObject["type"].asString)
+
+        for (chunk in sampleAzureChunks()) {
+            assertEquals(gson.fromJson(chunk, AzureChatChunk::class.java), AzureJson.readChunk(chunk))
+        }
+    }
+
+    @Test
+    fun roundTripBenchmark() {
+        assumeTrue("Benchmark – run with -Pbenchmark", System.getProperty(BENCHMARK_PROPERTY).toBoolean())
+        val codec = measure("codec") { codecEncode().length + codecDecode().content.size }
+        val reflective = measure("gson ") { gson.toJson(request).length + gson.fromJson(responseJson, AnthropicResponse::class.java).content.size }
+        println("codec/gson: time %.2f, allocation %.2f".format(
+            codec.nanos.toDouble() / reflective.nanos, codec.bytes.toDouble() / reflective.bytes))
+    }
+
+    // ── Round trip ────────────────────────────────────────────────────────────
+
+    private fun codecEncode(): String {
+        val out = StringWriter()
+        JsonWriter(out).use { AnthropicJson.writeRequest(it, request) }
+        return out.toString()
+    }
+
+    private fun codecDecode(): AnthropicResponse =
+        JsonReader(StringReader(responseJson)).use(AnthropicJson::readResponse)
+
+    // ── Harness ───────────────────────────────────────────────────────────────
+
+    private class Result(val nanos: Long, val bytes: Long)
+
+    /** Per-iteration time and allocation after [WARMUP] iterations; [block]'s result is kept live. */
+    private fun measure(label: String, block: () -> Int): Result {
+        var sink = 0
+        repeat(WARMUP) { sink += block() }
+        val bytesBefore = allocatedBytes()
+        val start = System.nanoTime()
+        repeat(ITERATIONS) { sink += block() }
+        val nanos = (System.nanoTime() - start) / ITERATIONS
+        val bytes = (allocatedBytes() - bytesBefore) / ITERATIONS
+        println("$label: ${nanos / 1_000} µs, ${bytes / 1_024} KiB per round trip (sink $sink)")
+        return Result(nanos, bytes)
+    }
+
+    /** Bytes allocated by this thread (HotSpot); 0 on VMs without the extension. */
+    private fun allocatedBytes(): Long {
+        val bean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean ?: return 0
+        return bean.getThreadAllocatedBytes(Thread.currentThread().id)
+    }
+
+    // ── Sample payloads – a mid-sized agent turn ──────────────────────────────
+
+    private fun sampleTools(): List<ApiTool> =
+        (1..9).map { i ->
+            ApiTool(
+                name        = "tool_$i",
+                description = "Beschreibung von Tool $i ".repeat(8),
+                inputSchema = ApiToolSchema(
+                    properties = mapOf(
+                        "action" to ApiToolProperty("string", "Aktion, z.B. read/click/input"),
+                        "text"   to ApiToolProperty("string", "Text oder Suchbegriff")
+                    ),
+                    required = listOf("action")
+                )
+            )
+        }
+
+    private fun sampleRequest(): AnthropicRequest {
+        val messages = (1..12).map { i ->
+            RawJson.write { w ->
+                w.beginObject()
+                w.name("role").value(if (i % 2 == 0) "assistant" else "user")
+                w.name("content").beginArray()
+                w.beginObject().name("type").value("text").name("text").value("Nachricht $i ".repeat(40)).endObject()
+                w.endArray()
+                w.endObject()
+            }
+        }
+        return AnthropicRequest(
+            system   = listOf(
+                SystemBlock(text = "Regeln ".repeat(400), cacheControl = CacheControl()),
+                SystemBlock(text = "Kontext ".repeat(50))
+            ),
+            messages = messages,
+            tools    = RawJson.write { AnthropicJson.writeTools(it, sampleTools(), cacheBreakpointOnLast = true) }
+        )
+    }
+
+    private fun sampleResponseJson(): String = """
+        {"id":"msg_01","type":"message","role":"assistant","model":"claude-haiku-4-5-20251001",
+         "content":[
+           {"type":"text","text":"${"Ich öffne die App und lese den Bildschirm. ".repeat(10)}"},
+           {"type":"tool_use","id":"toolu_1","name":"open_app","input":{"app_name":"Spotify"}},
+           {"type":"tool_use","id":"toolu_2","name":"control_screen","input":{"action":"tap","x":540,"y":700}}
+         ],
+         "stop_reason":"tool_use","stop_sequence":null,
+         "usage":{"input_tokens":5120,"output_tokens":96,"cache_read_input_tokens":4096}}
+    """.trimIndent()
+
+    private fun sampleAzureChunks(): List<String> = listOf(
+        """{"id":"c1","choices":[{"index":0,"delta":{"role":"assistant","content":"Ich öffne "},"finish_reason":null}],"usage":null}""",
+        """{"id":"c1","choices":[{"index":0,"delta":{"tool_calls":[{"index":0,"id":"call_1","type":"function","function":{"name":"control_screen","arguments":"{\"action\":\"tap\","}}]},"finish_reason":null}]}""",
+        """{"id":"c1","choices":[{"index":0,"delta":{"tool_calls":[{"index":0,"function":{"arguments":"\"x\":540}"}}]},"finish_reason":"tool_calls"}]}""",
+        """{"id":"c1","choices":[],"usage":{"prompt_tokens":2048,"completion_tokens":31,"total_tokens":2079,"prompt_tokens_details":{"cached_tokens":1024}}}"""
+    )
+
+    private companion object {
+        const val BENCHMARK_PROPERTY = "openpaw.benchmark"
+        const val WARMUP = 3_000
+        const val ITERATIONS = 5_000
+    }
+}